@@ -0,0 +1,41 @@
+package com.xmlservice.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * JDBC соединение без сервера: принимает привязки параметров и пакеты, ничего не отправляя.
+ * Позволяет измерить только построение и привязку запросов на стороне Java.
+ */
+final class NoopJdbc {
+
+    private NoopJdbc() {
+    }
+
+    static Connection connection() {
+        return (Connection) Proxy.newProxyInstance(NoopJdbc.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "prepareStatement" -> statement(PreparedStatement.class);
+                    case "createStatement" -> statement(Statement.class);
+                    case "getAutoCommit" -> true;
+                    default -> defaultValue(method.getReturnType());
+                });
+    }
+
+    private static Object statement(Class<? extends Statement> type) {
+        return Proxy.newProxyInstance(NoopJdbc.class.getClassLoader(),
+                new Class<?>[]{type}, (proxy, method, args) -> switch (method.getName()) {
+                    case "executeBatch" -> new int[0];
+                    default -> defaultValue(method.getReturnType());
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        return null;
+    }
+}
@@ -0,0 +1,89 @@
+package com.xmlservice.benchmark;
+
+import com.xmlservice.data.OfferData;
+import com.xmlservice.feed.FeedGenerator;
+import com.xmlservice.service.ConnectionPool;
+import com.xmlservice.service.DatabaseService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Построение запроса и привязка параметров в DatabaseService.upsertOffers() без обращения к серверу
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class OfferBindingBenchmark {
+
+    private static final int CATEGORIES = 500;
+    private static final int CURRENCIES = 3;
+
+    @Param({"10000", "100000"})
+    private int offers;
+
+    @Param({"1000"})
+    private int batchSize;
+
+    private List<OfferData> rows;
+    private DatabaseService dbService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        rows = new ArrayList<>(offers);
+        for (int i = 0; i < offers; i++) {
+            rows.add(new OfferData("V" + i, "Product " + i,
+                    String.valueOf(1 + i % CATEGORIES),
+                    BigDecimal.valueOf(10_000 + i, 2),
+                    FeedGenerator.currencyCode(i % CURRENCIES)));
+        }
+
+        Connection connection = NoopJdbc.connection();
+        ConnectionPool pool = new ConnectionPool("jdbc:noop", null, null, 1, 60_000, 1, 1_000) {
+            @Override
+            public Connection getConnection() {
+                return connection;
+            }
+        };
+        dbService = new DatabaseService(pool, batchSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dbService.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeakHeap() {
+        PeakHeap.reset();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportPeakHeap() {
+        PeakHeap.report("upsertOffers/" + offers);
+    }
+
+    @Benchmark
+    public void upsertOffers() {
+        dbService.upsertOffers(rows);
+    }
+}
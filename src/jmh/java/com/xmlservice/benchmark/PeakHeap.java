@@ -0,0 +1,32 @@
+package com.xmlservice.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Пиковое использование heap за итерацию бенчмарка (по пулам памяти JVM)
+ */
+final class PeakHeap {
+
+    private PeakHeap() {
+    }
+
+    static void reset() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    static void report(String label) {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("%n[peak heap] %s: %d MB%n", label, peak / (1024 * 1024));
+    }
+}
@@ -0,0 +1,92 @@
+package com.xmlservice.benchmark;
+
+import com.xmlservice.XmlParser;
+import com.xmlservice.data.CategoryData;
+import com.xmlservice.data.CurrencyData;
+import com.xmlservice.data.OfferData;
+import com.xmlservice.feed.FeedGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Разбор синтетического фида в потоковом (StAX) и древовидном (XmlSlurper) режимах
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class XmlParserBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    private int offers;
+
+    @Param({"stream", "tree"})
+    private String mode;
+
+    private Path workDir;
+    private Path feed;
+
+    @Setup(Level.Trial)
+    public void generateFeed() throws IOException {
+        workDir = Files.createTempDirectory("xml-bench");
+        feed = workDir.resolve("feed-" + offers + ".xml");
+        new FeedGenerator(offers, 500, 3, 0, 42).write(feed);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFeed() throws IOException {
+        try (Stream<Path> files = Files.walk(workDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeakHeap() {
+        PeakHeap.reset();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportPeakHeap() {
+        PeakHeap.report(mode + "/" + offers);
+    }
+
+    private XmlParser newParser() {
+        return new XmlParser(feed.toString(), "stream".equals(mode), workDir.resolve("cache"));
+    }
+
+    @Benchmark
+    public List<OfferData> parseOffers() {
+        return newParser().parseOffers();
+    }
+
+    @Benchmark
+    public List<CategoryData> parseCategories() {
+        return newParser().parseCategories();
+    }
+
+    @Benchmark
+    public List<CurrencyData> parseCurrencies() {
+        return newParser().parseCurrencies();
+    }
+}
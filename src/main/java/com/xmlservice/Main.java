@@ -1,27 +1,79 @@
 package com.xmlservice;
 
 import com.xmlservice.config.Config;
+import com.xmlservice.config.FeedSource;
 import com.xmlservice.handler.CommandHandler;
+import com.xmlservice.parser.OfferProjection;
 import com.xmlservice.service.DatabaseService;
+import com.xmlservice.service.FeedSyncService;
+import com.xmlservice.service.SweepMode;
+import com.xmlservice.service.SyncService;
 import com.xmlservice.view.InteractiveMenu;
 import lombok.Data;
 
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Scanner;
 
 @Data
-public class Main {
+public class Main implements AutoCloseable {
 
+    private final List<FeedSource> feeds;
+    private final String xmlUrl;
     private XmlParser parser;
     private DatabaseService dbService;
+    private SyncService syncService;
+    private FeedSyncService feedSyncService;
 
-    public Main(String xmlUrl, String jdbcUrl, String dbUser, String dbPassword) {
-        this.parser = new XmlParser(xmlUrl);
-        this.dbService = new DatabaseService(jdbcUrl, dbUser, dbPassword);
+    /**
+     * @param feeds фиды поставщиков; первый - основной, с ним работают команды для одной таблицы и меню
+     */
+    public Main(List<FeedSource> feeds, String jdbcUrl, String dbUser, String dbPassword) {
+        this.feeds = List.copyOf(feeds);
+        this.xmlUrl = feeds.get(0).url();
+        this.parser = createParser();
+        this.dbService = new DatabaseService(jdbcUrl, dbUser, dbPassword, feeds.get(0).supplierId());
+        this.dbService.setSweepMode(SweepMode.parse(Config.getSyncSweepMode()));
+        this.dbService.setOfferProjection(Config.getOfferProjection());
+        this.dbService.setCheckpointing(Config.isSyncCheckpointEnabled());
+        this.feedSyncService = new FeedSyncService(dbService, feeds, Config.getFeedParallelism(),
+                Config.getPipelineWriters(), Config.getPipelineQueueCapacity(), Main::createParser);
+        this.syncService = feedSyncService.serviceFor(feeds.get(0));
+    }
+
+    /**
+     * Создает новый парсер основного фида; долгоживущие режимы создают его на каждую синхронизацию,
+     * чтобы заново проверить, изменился ли фид
+     */
+    public XmlParser createParser() {
+        return createParser(feeds.get(0));
+    }
+
+    public static XmlParser createParser(FeedSource feed) {
+        return createParser(feed.url(), Config.getXmlCacheDir(), Config.getOfferProjection());
+    }
+
+    /**
+     * Парсер в режиме xml.parser.mode: tree, stream или parallel (потоковый с разбором offers частями)
+     */
+    public static XmlParser createParser(String url, Path cacheDir, OfferProjection projection) {
+        String mode = Config.getXmlParserMode();
+        boolean parallel = "parallel".equalsIgnoreCase(mode);
+        XmlParser parser = new XmlParser(url, parallel || "stream".equalsIgnoreCase(mode), cacheDir, projection);
+        if (parallel) {
+            parser.setParallelParsing(Config.getXmlParseThreads(), Config.getXmlShardSize());
+        }
+        return parser;
+    }
+
+    @Override
+    public void close() {
+        dbService.close();
     }
 
     public static void main(String[] args) {
         if (args.length > 0) {
-            CommandHandler.handleCommand(args, Config.getXmlUrl(), Config.getDbJdbcUrl(),
+            CommandHandler.handleCommand(args, Config.getFeeds(), Config.getDbJdbcUrl(),
                     Config.getDbUser(), Config.getDbPassword());
         } else {
             runInteractive();
@@ -30,7 +82,7 @@ public class Main {
 
     private static void runInteractive() {
         try (Scanner scanner = new Scanner(System.in)) {
-            InteractiveMenu menu = new InteractiveMenu(scanner, Config.getXmlUrl(), Config.getDbJdbcUrl(),
+            InteractiveMenu menu = new InteractiveMenu(scanner, Config.getFeeds(), Config.getDbJdbcUrl(),
                     Config.getDbUser(), Config.getDbPassword());
             menu.run();
         }
@@ -2,29 +2,211 @@ package com.xmlservice;
 
 import com.xmlservice.data.CategoryData;
 import com.xmlservice.data.CurrencyData;
+import com.xmlservice.data.FeedData;
 import com.xmlservice.data.OfferData;
+import com.xmlservice.data.RejectedRow;
+import com.xmlservice.feed.CountingInputStream;
+import com.xmlservice.feed.FeedDownload;
+import com.xmlservice.feed.FeedFetcher;
+import com.xmlservice.feed.FeedStreams;
+import com.xmlservice.feed.FetchResult;
+import com.xmlservice.metrics.Metrics;
+import com.xmlservice.metrics.StageTimer;
+import com.xmlservice.parser.FeedListener;
+import com.xmlservice.parser.OfferProjection;
+import com.xmlservice.parser.ProjectionFilter;
+import com.xmlservice.parser.ShardedFeedReader;
+import com.xmlservice.parser.StaxFeedReader;
+import com.xmlservice.parser.StringDictionary;
 import groovy.xml.XmlSlurper;
 import groovy.xml.slurpersupport.GPathResult;
+import groovy.xml.slurpersupport.Node;
 import groovy.xml.slurpersupport.NodeChild;
 
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
-import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class XmlParser {
 
     private GPathResult xmlRoot;
     private final String xmlUrl;
+    private final boolean streaming;
+    private final OfferProjection projection;
+    private final FeedFetcher fetcher;
+    private FetchResult fetched;
+    private FeedDownload download;
+    private StageTimer downloadTimer;
+    private int parseThreads = 1;
+    private int shardBytes;
+    private final List<RejectedRow> rejected = new ArrayList<>();
 
     public XmlParser(String xmlUrl) {
+        this(xmlUrl, false);
+    }
+
+    public XmlParser(String xmlUrl, boolean streaming) {
+        this(xmlUrl, streaming, null);
+    }
+
+    /**
+     * @param streaming разбирать фид потоково (StAX), не строя дерево документа в памяти
+     * @param cacheDir  каталог для локальной копии фида, null - временный каталог
+     */
+    public XmlParser(String xmlUrl, boolean streaming, Path cacheDir) {
+        this(xmlUrl, streaming, cacheDir, OfferProjection.BASE);
+    }
+
+    /**
+     * @param projection какие поля предложений читать; остальные элементы offer пропускаются в обоих режимах
+     */
+    public XmlParser(String xmlUrl, boolean streaming, Path cacheDir, OfferProjection projection) {
         this.xmlUrl = xmlUrl;
+        this.streaming = streaming;
+        this.projection = projection;
+        this.fetcher = new FeedFetcher(xmlUrl, cacheDir);
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Потоковый разбор секции offers частями по shardBytes на threads потоках (см. {@link ShardedFeedReader});
+     * threads = 1 - обычный последовательный разбор
+     */
+    public void setParallelParsing(int threads, int shardBytes) {
+        if (threads < 1 || shardBytes < 1) {
+            throw new IllegalArgumentException("Parse threads and shard size must be positive");
+        }
+        this.parseThreads = threads;
+        this.shardBytes = shardBytes;
+    }
+
+    public OfferProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Получает фид (условным запросом с использованием локальной копии) один раз за время жизни парсера
+     */
+    public FetchResult fetch() {
+        if (fetched == null && download != null) {
+            finishDownload();
+        }
+        if (fetched == null) {
+            try (StageTimer timer = Metrics.stage("download")) {
+                fetched = fetcher.fetch();
+                timer.bytes(fetched.downloadedBytes());
+                timer.success();
+            } catch (IOException e) {
+                throw new RuntimeException("Ошибка загрузки XML " + xmlUrl + ": " + e.getMessage(), e);
+            }
+        }
+        return fetched;
+    }
+
+    /**
+     * false, если фид не изменился с последней успешной синхронизации (HTTP 304 или та же версия содержимого).
+     * При разборе частями новое тело ответа не скачивается заранее (см. {@link #openDownload()}), такой фид
+     * считается измененным.
+     */
+    public boolean isFeedModified() {
+        if (openDownload()) return true;
+        return fetch().modified();
+    }
+
+    /**
+     * При разборе частями открывает загрузку фида, чтобы {@link #stream} разбирал его по мере скачивания
+     * ({@link FeedFetcher#open()}); если фид уже получен целиком, запоминает его как результат {@link #fetch()}
+     *
+     * @return загрузка открыта и ждет разбора
+     */
+    private boolean openDownload() {
+        if (parseThreads == 1 || fetched != null || download != null) return download != null;
+        StageTimer timer = Metrics.stage("download");
+        try {
+            FeedDownload opened = fetcher.open();
+            if (opened.result() != null) {
+                fetched = opened.result();
+                timer.bytes(fetched.downloadedBytes());
+                timer.success();
+                timer.close();
+                return false;
+            }
+            download = opened;
+            downloadTimer = timer;
+            return true;
+        } catch (IOException e) {
+            timer.close();
+            throw new RuntimeException("Ошибка загрузки XML " + xmlUrl + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Дочитывает открытую загрузку и сохраняет копию фида в кэше; замер download включает время разбора,
+     * шедшего параллельно
+     */
+    private void finishDownload() {
+        FeedDownload pending = download;
+        StageTimer timer = downloadTimer;
+        download = null;
+        downloadTimer = null;
+        try (pending; timer) {
+            fetched = pending.finish();
+            timer.bytes(pending.getBytes());
+            timer.success();
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка загрузки XML " + xmlUrl + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Прерывает открытую загрузку после ошибки разбора: копия фида в кэше остается прежней
+     */
+    private void abortDownload() {
+        FeedDownload pending = download;
+        StageTimer timer = downloadTimer;
+        download = null;
+        downloadTimer = null;
+        try (pending; timer) {
+            // закрываются без сохранения копии
+        } catch (IOException e) {
+            // ошибка разбора важнее
+        }
+    }
+
+    /**
+     * Запоминает текущую версию фида как успешно синхронизированную
+     */
+    public void markSynced() {
+        try {
+            fetcher.markSynced(fetch());
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка сохранения метаданных фида: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Открывает локальную копию фида со счетчиком прочитанных байт; распаковка - {@link FeedStreams#decompress}
+     */
+    private CountingInputStream openFeed() throws IOException {
+        return new CountingInputStream(Files.newInputStream(fetch().file()));
     }
 
     public void loadXml() {
-        try (InputStream is = new URL(xmlUrl).openStream()) {
+        try (StageTimer timer = Metrics.stage("parse");
+             CountingInputStream raw = openFeed();
+             InputStream is = FeedStreams.decompress(raw)) {
             javax.xml.parsers.SAXParserFactory factory = javax.xml.parsers.SAXParserFactory.newInstance();
             factory.setValidating(false);
             factory.setNamespaceAware(true);
@@ -35,13 +217,69 @@ public class XmlParser {
             factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
 
             javax.xml.parsers.SAXParser parser = factory.newSAXParser();
-            XmlSlurper xmlSlurper = new XmlSlurper(parser);
+            XmlSlurper xmlSlurper = new XmlSlurper(new ProjectionFilter(parser.getXMLReader(), projection));
             xmlRoot = xmlSlurper.parse(is);
+            timer.bytes(raw.getCount());
+            timer.success();
         } catch (Exception e) {
             throw new RuntimeException("Ошибка чтения XML: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Читает фид потоково, передавая сущности в listener по мере разбора
+     */
+    public void stream(FeedListener listener) {
+        openDownload();
+        try (StageTimer timer = Metrics.stage("parse")) {
+            CountingListener counting = new CountingListener(listener, timer);
+            if (download != null) {
+                // тело ответа разбирается по мере загрузки, копия в кэше сохраняется после разбора
+                InputStream is = FeedStreams.decompress(download.body());
+                new ShardedFeedReader(projection, parseThreads, shardBytes).read(is, counting);
+                timer.bytes(download.getBytes());
+                timer.rows(counting.rows);
+                finishDownload();
+                timer.success();
+                return;
+            }
+            Path file = fetch().file();
+            if (parseThreads > 1 && !FeedStreams.isCompressed(file)) {
+                // несжатая локальная копия делится на части на месте, без промежуточного файла
+                new ShardedFeedReader(projection, parseThreads, shardBytes).read(file, counting);
+                timer.bytes(Files.size(file));
+            } else {
+                try (CountingInputStream raw = openFeed();
+                     InputStream is = FeedStreams.decompress(raw)) {
+                    if (parseThreads > 1) {
+                        new ShardedFeedReader(projection, parseThreads, shardBytes).read(is, counting);
+                    } else {
+                        new StaxFeedReader(projection).read(is, counting);
+                    }
+                    timer.bytes(raw.getCount());
+                }
+            }
+            timer.rows(counting.rows);
+            timer.success();
+        } catch (IOException | XMLStreamException e) {
+            abortDownload();
+            throw new RuntimeException("Ошибка чтения XML: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            abortDownload();
+            throw e;
+        }
+    }
+
+    /**
+     * Строки, отклоненные при разборе методами parseCurrencies/parseCategories/parseOffers
+     * с момента предыдущего вызова; для parseAll они возвращаются в {@link FeedData#getRejected()}
+     */
+    public List<RejectedRow> takeRejected() {
+        List<RejectedRow> rows = List.copyOf(rejected);
+        rejected.clear();
+        return rows;
+    }
+
     public GPathResult getXmlRoot() {
         if (xmlRoot == null) {
             loadXml();
@@ -50,7 +288,18 @@ public class XmlParser {
     }
 
     public List<String> getTableNames() {
+        if (streaming) {
+            // обычно читается только начало фида до секции offers
+            try (CountingInputStream raw = openFeed();
+                 InputStream is = FeedStreams.decompress(raw)) {
+                return new StaxFeedReader(projection).readTableNames(is);
+            } catch (IOException | XMLStreamException e) {
+                throw new RuntimeException("Ошибка чтения XML: " + e.getMessage(), e);
+            }
+        }
+
         List<String> tables = new ArrayList<>();
+
         GPathResult shop = getShopNode();
 
         if (shop != null && !shop.isEmpty()) {
@@ -88,40 +337,244 @@ public class XmlParser {
         return node instanceof GPathResult && !((GPathResult) node).isEmpty();
     }
 
+    /**
+     * Извлекает валюты, категории и предложения за один проход по документу
+     */
+    public FeedData parseAll() {
+        FeedData data = new FeedData();
+        if (streaming) {
+            stream(new FeedListener() {
+                @Override
+                public void onCurrency(CurrencyData currency) {
+                    data.getCurrencies().add(currency);
+                }
+
+                @Override
+                public void onCategory(CategoryData category) {
+                    data.getCategories().add(category);
+                }
+
+                @Override
+                public void onOffer(OfferData offer) {
+                    data.getOffers().add(offer);
+                }
+
+                @Override
+                public void onRejected(RejectedRow row) {
+                    data.getRejected().add(row);
+                }
+            });
+            return data;
+        }
+
+        GPathResult shop = getShopNode();
+        if (shop == null) return data;
+
+        try (StageTimer timer = Metrics.stage("extract")) {
+            extractAll(shop, data);
+            timer.rows(data.getCurrencyCount() + data.getCategoryCount() + data.getOfferCount());
+            timer.success();
+        }
+        return data;
+    }
+
+    private void extractAll(GPathResult shop, FeedData data) {
+        StringDictionary ids = new StringDictionary();
+        Iterator<?> sections = shop.childNodes();
+        while (sections.hasNext()) {
+            if (!(sections.next() instanceof Node section)) continue;
+
+            switch (section.name()) {
+                case "currencies" -> forEachChild(section, "currency", node -> {
+                    CurrencyData currency = toCurrency(attribute(node, "id"), attribute(node, "rate"),
+                            data.getRejected()::add);
+                    if (currency != null) data.getCurrencies().add(currency);
+                });
+                case "categories" -> forEachChild(section, "category", node -> {
+                    CategoryData category = toCategory(node, ids);
+                    if (category != null) data.getCategories().add(category);
+                });
+                case "offers" -> forEachChild(section, "offer", node -> {
+                    OfferData offer = toOffer(node, ids, data.getRejected()::add);
+                    if (offer != null) data.getOffers().add(offer);
+                });
+                default -> {
+                }
+            }
+        }
+    }
+
+    private void forEachChild(Node parent, String childName, Consumer<Node> action) {
+        Iterator<?> children = parent.childNodes();
+        while (children.hasNext()) {
+            if (children.next() instanceof Node child && childName.equals(child.name())) {
+                action.accept(child);
+            }
+        }
+    }
+
+    /**
+     * Валюта с нечитаемым курсом отклоняется, null - если ее нет или у нее нет кода или курса
+     */
+    private static CurrencyData toCurrency(String code, String rateStr, Consumer<RejectedRow> rejected) {
+        if (code == null || rateStr == null) return null;
+        try {
+            return new CurrencyData(code.trim(), new BigDecimal(rateStr.trim()));
+        } catch (NumberFormatException e) {
+            rejected.accept(RejectedRow.invalidValue("currency", code.trim(), "rate", rateStr));
+            return null;
+        }
+    }
+
+    private CategoryData toCategory(Node node, StringDictionary ids) {
+        String id = attribute(node, "id");
+        String name = node.text();
+        if (id == null || name == null || name.isEmpty()) return null;
+        return new CategoryData(ids.get(id), name.trim());
+    }
+
+    private OfferData toOffer(Node node, StringDictionary ids, Consumer<RejectedRow> rejected) {
+        String vendorCode = attribute(node, "id");
+        if (vendorCode == null) return null;
+
+        String name = null;
+        String categoryId = null;
+        String priceStr = null;
+        String currencyCode = null;
+        String[] extras = newExtras(attribute -> attribute(node, attribute));
+
+        Iterator<?> children = node.childNodes();
+        while (children.hasNext()) {
+            if (!(children.next() instanceof Node child)) continue;
+            switch (child.name()) {
+                case "name" -> name = child.text();
+                case "categoryId" -> categoryId = child.text();
+                case "price" -> priceStr = child.text();
+                case "currencyId" -> currencyCode = child.text();
+                default -> {
+                    int slot = extras != null ? projection.elementSlot(child.name()) : -1;
+                    if (slot >= 0) extras[slot] = OfferProjection.normalize(child.text());
+                }
+            }
+        }
+
+        return toOffer(vendorCode, name, categoryId, priceStr, currencyCode, extras, ids, rejected);
+    }
+
+    /**
+     * Дополнительные поля проекции с заполненными атрибутами offer; null, если их нет
+     */
+    private String[] newExtras(Function<String, String> attributes) {
+        if (projection.isEmpty()) return null;
+        String[] extras = new String[projection.size()];
+        for (int i = 0; i < extras.length; i++) {
+            OfferProjection.Extra extra = projection.getExtras().get(i);
+            if (extra.attribute()) extras[i] = OfferProjection.normalize(attributes.apply(extra.source()));
+        }
+        return extras;
+    }
+
+    /**
+     * Предложение с нечитаемой ценой отклоняется и не возвращается (null)
+     */
+    private static OfferData toOffer(String vendorCode, String name, String categoryId, String priceStr,
+                                     String currencyCode, String[] extras, StringDictionary ids,
+                                     Consumer<RejectedRow> rejected) {
+        OfferData offer = new OfferData();
+        if (priceStr != null) {
+            try {
+                offer.setPrice(priceStr);
+            } catch (NumberFormatException e) {
+                rejected.accept(RejectedRow.invalidValue("offers", vendorCode.trim(), "price", priceStr));
+                return null;
+            }
+        }
+        offer.setVendorCode(vendorCode.trim());
+        offer.setName(name != null ? name.trim() : "");
+        offer.setCategoryId(ids.get(categoryId));
+        offer.setCurrencyCode(ids.get(currencyCode));
+        offer.setExtras(extras);
+        return offer;
+    }
+
+    private String attribute(Node node, String attrName) {
+        Object attr = node.attributes().get(attrName);
+        return attr != null ? attr.toString() : null;
+    }
+
     public List<CurrencyData> parseCurrencies() {
         List<CurrencyData> currencies = new ArrayList<>();
+        if (streaming) {
+            stream(new FeedListener() {
+                @Override
+                public void onCurrency(CurrencyData currency) {
+                    currencies.add(currency);
+                }
+
+                @Override
+                public void onRejected(RejectedRow row) {
+                    if ("currency".equals(row.table())) rejected.add(row);
+                }
+            });
+            return currencies;
+        }
+
+        try (StageTimer timer = Metrics.stage("extract")) {
+            extractCurrencies(currencies);
+            timer.rows(currencies.size());
+            timer.success();
+        }
+        return currencies;
+    }
+
+    private void extractCurrencies(List<CurrencyData> currencies) {
         GPathResult shop = getShopNode();
-        if (shop == null) return currencies;
+        if (shop == null) return;
 
         Object currenciesObj = shop.getProperty("currencies");
-        if (!(currenciesObj instanceof GPathResult currenciesNode)) return currencies;
+        if (!(currenciesObj instanceof GPathResult currenciesNode)) return;
 
         Object currencyObj = currenciesNode.getProperty("currency");
-        if (!(currencyObj instanceof GPathResult currencyNodes)) return currencies;
+        if (!(currencyObj instanceof GPathResult currencyNodes)) return;
 
         for (Object obj : currencyNodes) {
             if (obj instanceof NodeChild currency) {
-                String code = extractAttribute(currency, "id");
-                String rateStr = extractAttribute(currency, "rate");
-
-                if (code != null && rateStr != null) {
-                    currencies.add(new CurrencyData(code.trim(), new BigDecimal(rateStr.trim())));
-                }
+                CurrencyData parsed = toCurrency(extractAttribute(currency, "id"),
+                        extractAttribute(currency, "rate"), rejected::add);
+                if (parsed != null) currencies.add(parsed);
             }
         }
-        return currencies;
     }
 
     public List<CategoryData> parseCategories() {
         List<CategoryData> categories = new ArrayList<>();
+        if (streaming) {
+            stream(new FeedListener() {
+                @Override
+                public void onCategory(CategoryData category) {
+                    categories.add(category);
+                }
+            });
+            return categories;
+        }
+
+        try (StageTimer timer = Metrics.stage("extract")) {
+            extractCategories(categories);
+            timer.rows(categories.size());
+            timer.success();
+        }
+        return categories;
+    }
+
+    private void extractCategories(List<CategoryData> categories) {
         GPathResult shop = getShopNode();
-        if (shop == null) return categories;
+        if (shop == null) return;
 
         Object categoriesObj = shop.getProperty("categories");
-        if (!(categoriesObj instanceof GPathResult categoriesNode)) return categories;
+        if (!(categoriesObj instanceof GPathResult categoriesNode)) return;
 
         Object categoryObj = categoriesNode.getProperty("category");
-        if (!(categoryObj instanceof GPathResult categoryNodes)) return categories;
+        if (!(categoryObj instanceof GPathResult categoryNodes)) return;
 
         for (Object obj : categoryNodes) {
             if (obj instanceof NodeChild category) {
@@ -133,20 +586,44 @@ public class XmlParser {
                 }
             }
         }
-        return categories;
     }
 
     public List<OfferData> parseOffers() {
         List<OfferData> offers = new ArrayList<>();
+        if (streaming) {
+            stream(new FeedListener() {
+                @Override
+                public void onOffer(OfferData offer) {
+                    offers.add(offer);
+                }
+
+                @Override
+                public void onRejected(RejectedRow row) {
+                    if ("offers".equals(row.table())) rejected.add(row);
+                }
+            });
+            return offers;
+        }
+
+        try (StageTimer timer = Metrics.stage("extract")) {
+            extractOffers(offers);
+            timer.rows(offers.size());
+            timer.success();
+        }
+        return offers;
+    }
+
+    private void extractOffers(List<OfferData> offers) {
         GPathResult shop = getShopNode();
-        if (shop == null) return offers;
+        if (shop == null) return;
 
         Object offersObj = shop.getProperty("offers");
-        if (!(offersObj instanceof GPathResult offersNode)) return offers;
+        if (!(offersObj instanceof GPathResult offersNode)) return;
 
         Object offerObj = offersNode.getProperty("offer");
-        if (!(offerObj instanceof GPathResult offerNodes)) return offers;
+        if (!(offerObj instanceof GPathResult offerNodes)) return;
 
+        StringDictionary ids = new StringDictionary();
         for (Object obj : offerNodes) {
             if (obj instanceof NodeChild offer) {
                 String vendorCode = extractAttribute(offer, "id");
@@ -156,17 +633,94 @@ public class XmlParser {
                 String currencyCode = extractChildText(offer, "currencyId");
 
                 if (vendorCode != null) {
-                    offers.add(new OfferData(
-                            vendorCode.trim(),
-                            name != null ? name.trim() : "",
-                            categoryId != null ? categoryId.trim() : null,
-                            priceStr != null ? new BigDecimal(priceStr.trim()) : null,
-                            currencyCode != null ? currencyCode.trim() : null
-                    ));
+                    String[] extras = newExtras(attribute -> extractAttribute(offer, attribute));
+                    if (extras != null) {
+                        for (int i = 0; i < extras.length; i++) {
+                            OfferProjection.Extra extra = projection.getExtras().get(i);
+                            if (!extra.attribute()) {
+                                extras[i] = OfferProjection.normalize(extractChildText(offer, extra.source()));
+                            }
+                        }
+                    }
+                    OfferData parsed = toOffer(vendorCode, name, categoryId, priceStr, currencyCode, extras, ids,
+                            rejected::add);
+                    if (parsed != null) offers.add(parsed);
                 }
             }
         }
-        return offers;
+    }
+
+    /**
+     * Считает сущности, переданные слушателю, для метрики этапа разбора
+     */
+    /**
+     * Считает строки и останавливает замер разбора на время обработчика: запись в БД из обработчика
+     * учитывается в своих этапах (upsert_*), а не в parse
+     */
+    private static class CountingListener implements FeedListener {
+
+        private final FeedListener delegate;
+        private final StageTimer timer;
+        private long rows;
+
+        CountingListener(FeedListener delegate, StageTimer timer) {
+            this.delegate = delegate;
+            this.timer = timer;
+        }
+
+        @Override
+        public void onTable(String tableName) {
+            timer.pause();
+            try {
+                delegate.onTable(tableName);
+            } finally {
+                timer.resume();
+            }
+        }
+
+        @Override
+        public void onCurrency(CurrencyData currency) {
+            rows++;
+            timer.pause();
+            try {
+                delegate.onCurrency(currency);
+            } finally {
+                timer.resume();
+            }
+        }
+
+        @Override
+        public void onCategory(CategoryData category) {
+            rows++;
+            timer.pause();
+            try {
+                delegate.onCategory(category);
+            } finally {
+                timer.resume();
+            }
+        }
+
+        @Override
+        public void onOffer(OfferData offer) {
+            rows++;
+            timer.pause();
+            try {
+                delegate.onOffer(offer);
+            } finally {
+                timer.resume();
+            }
+        }
+
+        @Override
+        public void onRejected(RejectedRow row) {
+            rows++;
+            timer.pause();
+            try {
+                delegate.onRejected(row);
+            } finally {
+                timer.resume();
+            }
+        }
     }
 
     private String extractAttribute(NodeChild node, String attrName) {
@@ -0,0 +1,10 @@
+package com.xmlservice.catalog;
+
+/**
+ * Итог обновления индекса предложений поставщика
+ *
+ * @param changed прочитанные из БД предложения (при первой загрузке - все)
+ * @param removed убранные из индекса предложения
+ */
+public record IndexRefresh(String supplierId, int changed, int removed, long elapsedMs) {
+}
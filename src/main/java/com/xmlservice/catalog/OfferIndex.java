@@ -0,0 +1,202 @@
+package com.xmlservice.catalog;
+
+import com.xmlservice.data.OfferData;
+import com.xmlservice.metrics.Metrics;
+import com.xmlservice.metrics.StageTimer;
+import com.xmlservice.service.DatabaseService;
+import com.xmlservice.service.OfferChanges;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Копия таблицы offers в памяти для API чтения: vendorCode -> предложение и categoryId -> предложения,
+ * отдельно по каждому поставщику. Запросы не нагружают Postgres, в который пишет синхронизация.
+ * <p>
+ * Первый {@link #refresh(String)} читает все предложения поставщика, следующие дочитывают только
+ * записанные и удаленные синхронизацией строки ({@link OfferChanges}); ключ, которого нет среди прочитанных,
+ * убирается из индекса.
+ * Списки по категориям кэшируются; кэш привязан к версии категории, которая меняется
+ * при каждом изменении ее предложений, поэтому обновление индекса не сбрасывает кэш целиком.
+ */
+public class OfferIndex {
+
+    private final DatabaseService dbService;
+    private final Map<String, SupplierOffers> suppliers = new ConcurrentHashMap<>();
+    private final LruCache<CategoryKey, List<OfferData>> categoryCache;
+    private final AtomicLong versions = new AtomicLong();
+
+    /**
+     * @param dbService    сервис основного поставщика; остальные читаются через его пул
+     * @param maxCacheSize сколько списков по категориям хранить в кэше
+     */
+    public OfferIndex(DatabaseService dbService, int maxCacheSize) {
+        this.dbService = dbService;
+        this.categoryCache = new LruCache<>(maxCacheSize);
+    }
+
+    public boolean isLoaded(String supplierId) {
+        return suppliers.containsKey(supplierId);
+    }
+
+    /**
+     * Читает все предложения поставщика заново
+     */
+    public IndexRefresh refresh(String supplierId) {
+        return refresh(supplierId, null);
+    }
+
+    /**
+     * Приводит индекс поставщика к содержимому таблицы offers. Вызывается после каждой синхронизации.
+     *
+     * @param changes записанные и удаленные синхронизацией предложения; null или полный набор -
+     *                перечитать все предложения поставщика
+     */
+    public synchronized IndexRefresh refresh(String supplierId, OfferChanges changes) {
+        try (StageTimer timer = Metrics.stage("index_refresh")) {
+            DatabaseService db = supplierId.equals(dbService.getSupplierId())
+                    ? dbService : dbService.forSupplier(supplierId);
+            SupplierOffers offers = suppliers.get(supplierId);
+            IndexRefresh refresh = offers == null || changes == null || changes.full()
+                    ? load(db, supplierId)
+                    : update(db, supplierId, offers, changes.vendorCodes());
+            timer.rows(refresh.changed() + refresh.removed());
+            timer.success();
+            return refresh;
+        }
+    }
+
+    private IndexRefresh load(DatabaseService db, String supplierId) {
+        long start = System.nanoTime();
+        SupplierOffers loaded = new SupplierOffers();
+        db.readOffers(null, (offer, hash) -> put(loaded, offer, hash));
+        SupplierOffers previous = suppliers.put(supplierId, loaded);
+        int removed = 0;
+        if (previous != null) {
+            for (String vendorCode : previous.byVendorCode.keySet()) {
+                if (!loaded.byVendorCode.containsKey(vendorCode)) removed++;
+            }
+        }
+        return new IndexRefresh(supplierId, loaded.byVendorCode.size(), removed, elapsedMs(start));
+    }
+
+    /**
+     * Перечитывает предложения по ключам; удаленные и помеченные удаленными не читаются и убираются из индекса
+     */
+    private IndexRefresh update(DatabaseService db, String supplierId, SupplierOffers offers,
+                                Collection<String> vendorCodes) {
+        long start = System.nanoTime();
+        Set<String> found = new HashSet<>();
+        if (!vendorCodes.isEmpty()) {
+            db.readOffers(vendorCodes, (offer, hash) -> {
+                found.add(offer.getVendorCode());
+                IndexedOffer indexed = offers.byVendorCode.get(offer.getVendorCode());
+                if (indexed == null || indexed.hash() != hash) {
+                    put(offers, offer, hash);
+                }
+            });
+        }
+        int removed = 0;
+        for (String vendorCode : vendorCodes) {
+            if (!found.contains(vendorCode) && offers.byVendorCode.containsKey(vendorCode)) {
+                remove(offers, vendorCode);
+                removed++;
+            }
+        }
+        return new IndexRefresh(supplierId, found.size(), removed, elapsedMs(start));
+    }
+
+    public OfferData find(String supplierId, String vendorCode) {
+        SupplierOffers offers = suppliers.get(supplierId);
+        IndexedOffer indexed = offers != null ? offers.byVendorCode.get(vendorCode) : null;
+        return indexed != null ? indexed.offer() : null;
+    }
+
+    /**
+     * Предложения категории, упорядоченные по vendorCode; пустой список для неизвестной категории
+     */
+    public List<OfferData> findByCategory(String supplierId, String categoryId) {
+        SupplierOffers offers = suppliers.get(supplierId);
+        if (offers == null) return List.of();
+
+        // версия читается до сборки списка: если категорию изменят во время сборки, запись в кэше устареет сразу
+        CategoryKey key = new CategoryKey(supplierId, categoryId, offers.categoryVersions.getOrDefault(categoryId, 0L));
+        List<OfferData> cached = categoryCache.get(key);
+        if (cached != null) return cached;
+
+        List<OfferData> result = new ArrayList<>();
+        Set<String> vendorCodes = offers.byCategory.get(categoryId);
+        if (vendorCodes != null) {
+            for (String vendorCode : vendorCodes) {
+                IndexedOffer indexed = offers.byVendorCode.get(vendorCode);
+                if (indexed != null && categoryId.equals(indexed.offer().getCategoryId())) {
+                    result.add(indexed.offer());
+                }
+            }
+        }
+        result.sort(Comparator.comparing(OfferData::getVendorCode));
+        List<OfferData> offersInCategory = List.copyOf(result);
+        categoryCache.put(key, offersInCategory);
+        return offersInCategory;
+    }
+
+    private void put(SupplierOffers offers, OfferData offer, long hash) {
+        IndexedOffer previous = offers.byVendorCode.put(offer.getVendorCode(), new IndexedOffer(offer, hash));
+        if (previous != null && !Objects.equals(previous.offer().getCategoryId(), offer.getCategoryId())) {
+            unlink(offers, previous.offer());
+        }
+        String categoryId = offer.getCategoryId();
+        if (categoryId != null) {
+            offers.byCategory.computeIfAbsent(categoryId, id -> ConcurrentHashMap.newKeySet()).add(offer.getVendorCode());
+            touch(offers, categoryId);
+        }
+    }
+
+    private void remove(SupplierOffers offers, String vendorCode) {
+        IndexedOffer previous = offers.byVendorCode.remove(vendorCode);
+        if (previous != null) {
+            unlink(offers, previous.offer());
+        }
+    }
+
+    private void unlink(SupplierOffers offers, OfferData offer) {
+        String categoryId = offer.getCategoryId();
+        if (categoryId == null) return;
+        Set<String> vendorCodes = offers.byCategory.get(categoryId);
+        if (vendorCodes != null) {
+            vendorCodes.remove(offer.getVendorCode());
+        }
+        touch(offers, categoryId);
+    }
+
+    /**
+     * Новая версия категории после изменения ее предложений делает недействительными ее записи в кэше
+     */
+    private void touch(SupplierOffers offers, String categoryId) {
+        offers.categoryVersions.put(categoryId, versions.incrementAndGet());
+    }
+
+    private static long elapsedMs(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static final class SupplierOffers {
+        final Map<String, IndexedOffer> byVendorCode = new ConcurrentHashMap<>();
+        final Map<String, Set<String>> byCategory = new ConcurrentHashMap<>();
+        final Map<String, Long> categoryVersions = new ConcurrentHashMap<>();
+    }
+
+    private record IndexedOffer(OfferData offer, long hash) {
+    }
+
+    private record CategoryKey(String supplierId, String categoryId, long version) {
+    }
+}
@@ -1,8 +1,16 @@
 package com.xmlservice.config;
 
+import com.xmlservice.parser.OfferProjection;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 public class Config {
 
@@ -24,6 +32,78 @@ public class Config {
         return properties.getProperty("xml.url");
     }
 
+    /**
+     * Фиды поставщиков: xml.feeds=acme,globex и xml.feed.&lt;id&gt;.url для каждого.
+     * Без xml.feeds - один фид xml.url поставщика {@link FeedSource#DEFAULT_SUPPLIER}.
+     */
+    public static List<FeedSource> getFeeds() {
+        String ids = properties.getProperty("xml.feeds");
+        if (ids == null || ids.isBlank()) {
+            return List.of(new FeedSource(FeedSource.DEFAULT_SUPPLIER, getXmlUrl()));
+        }
+
+        List<FeedSource> feeds = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String id : ids.split(",")) {
+            String supplierId = id.trim();
+            if (supplierId.isEmpty()) continue;
+            if (!seen.add(supplierId)) {
+                throw new RuntimeException("Supplier " + supplierId + " is listed in xml.feeds more than once");
+            }
+            String url = properties.getProperty("xml.feed." + supplierId + ".url");
+            feeds.add(new FeedSource(supplierId, url != null ? url.trim() : null));
+        }
+        if (feeds.isEmpty()) {
+            throw new RuntimeException("xml.feeds does not list any supplier");
+        }
+        return feeds;
+    }
+
+    /**
+     * Сколько фидов синхронизируется одновременно
+     */
+    public static int getFeedParallelism() {
+        return getInt("sync.feed.parallelism", 4);
+    }
+
+    /**
+     * stream - потоковый StAX разбор, parallel - потоковый с разбором offers частями на нескольких потоках,
+     * tree - построение дерева XmlSlurper
+     */
+    public static String getXmlParserMode() {
+        return properties.getProperty("xml.parser.mode", "tree");
+    }
+
+    /**
+     * Потоков разбора в режиме parallel; по умолчанию по числу ядер
+     */
+    public static int getXmlParseThreads() {
+        return getInt("xml.parser.threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Примерный размер части секции offers в режиме parallel, байт
+     */
+    public static int getXmlShardSize() {
+        return getInt("xml.parser.shard.size", 4 * 1024 * 1024);
+    }
+
+    /**
+     * Дополнительные поля предложений: xml.offer.extras=oldprice,available=@available,url
+     * (колонка=элемент или колонка=@атрибут offer); по умолчанию только основные поля
+     */
+    public static OfferProjection getOfferProjection() {
+        return OfferProjection.parse(properties.getProperty("xml.offer.extras"));
+    }
+
+    /**
+     * Каталог локальной копии фида и ее метаданных (ETag, Last-Modified), null - временный каталог
+     */
+    public static Path getXmlCacheDir() {
+        String dir = properties.getProperty("xml.cache.dir");
+        return dir != null && !dir.isBlank() ? Paths.get(dir.trim()) : null;
+    }
+
     public static String getDbJdbcUrl() {
         return properties.getProperty("db.jdbc.url");
     }
@@ -35,4 +115,111 @@ public class Config {
     public static String getDbPassword() {
         return properties.getProperty("db.password");
     }
+
+    public static int getDbPoolSize() {
+        return getInt("db.pool.size", 8);
+    }
+
+    public static long getDbPoolIdleTimeoutMs() {
+        return getLong("db.pool.idle.timeout.ms", 300_000);
+    }
+
+    public static int getDbPoolValidationTimeoutSec() {
+        return getInt("db.pool.validation.timeout.sec", 2);
+    }
+
+    public static long getDbPoolBorrowTimeoutMs() {
+        return getLong("db.pool.borrow.timeout.ms", 30_000);
+    }
+
+    public static int getDbBatchSize() {
+        return getInt("db.batch.size", 1000);
+    }
+
+    public static int getDbWriteParallelism() {
+        return getInt("db.write.parallelism", 4);
+    }
+
+    /**
+     * off, delete или soft - см. {@link com.xmlservice.service.SweepMode}
+     */
+    public static String getSyncSweepMode() {
+        return properties.getProperty("sync.sweep.mode", "off");
+    }
+
+    /**
+     * Контрольные точки полной синхронизации: порционная запись и продолжение прерванной загрузки
+     */
+    public static boolean isSyncCheckpointEnabled() {
+        return Boolean.parseBoolean(properties.getProperty("sync.checkpoint", "false").trim());
+    }
+
+    public static int getPipelineWriters() {
+        return getInt("sync.pipeline.writers", 4);
+    }
+
+    public static int getPipelineQueueCapacity() {
+        return getInt("sync.pipeline.queue.capacity", 8);
+    }
+
+    public static long getDaemonIntervalSeconds() {
+        return getLong("daemon.interval.seconds", 300);
+    }
+
+    public static long getDaemonJitterSeconds() {
+        return getLong("daemon.jitter.seconds", 30);
+    }
+
+    public static long getDaemonShutdownTimeoutSeconds() {
+        return getLong("daemon.shutdown.timeout.seconds", 120);
+    }
+
+    public static int getHttpPort() {
+        return getInt("http.port", 8080);
+    }
+
+    /**
+     * API чтения предложений (/offers, /categories) в режиме демона, по умолчанию выключен:
+     * индекс держит все предложения в памяти
+     */
+    public static boolean isOfferApiEnabled() {
+        return Boolean.parseBoolean(properties.getProperty("api.offers.enabled", "false").trim());
+    }
+
+    /**
+     * Сколько результатов запросов по категориям хранит LRU кэш API чтения
+     */
+    public static int getOfferApiCacheSize() {
+        return getInt("api.offers.cache.size", 1024);
+    }
+
+    /**
+     * Реквизиты магазина в выгрузке YML (shop/name, shop/company, shop/url); null - не заданы
+     */
+    public static String getExportShopName() {
+        return getOptional("export.shop.name");
+    }
+
+    public static String getExportShopCompany() {
+        return getOptional("export.shop.company");
+    }
+
+    public static String getExportShopUrl() {
+        return getOptional("export.shop.url");
+    }
+
+    private static String getOptional(String key) {
+        String value = properties.getProperty(key);
+        return value != null && !value.isBlank() ? value.trim() : null;
+    }
+
+    private static int getInt(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    private static long getLong(String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        return value != null ? Long.parseLong(value.trim()) : defaultValue;
+    }
 }
@@ -0,0 +1,22 @@
+package com.xmlservice.config;
+
+import java.util.regex.Pattern;
+
+/**
+ * Фид поставщика; supplierId отделяет его строки в таблицах от строк других поставщиков
+ */
+public record FeedSource(String supplierId, String url) {
+
+    public static final String DEFAULT_SUPPLIER = "default";
+    private static final Pattern SUPPLIER_ID = Pattern.compile("[A-Za-z0-9_-]{1,50}");
+
+    public FeedSource {
+        if (supplierId == null || !SUPPLIER_ID.matcher(supplierId).matches()) {
+            throw new IllegalArgumentException("Invalid supplier id: " + supplierId
+                    + " (expected 1-50 latin letters, digits, '_' or '-')");
+        }
+        if (url == null || url.isBlank()) {
+            throw new IllegalArgumentException("Feed URL is not set for supplier " + supplierId);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.xmlservice.daemon;
+
+import com.xmlservice.Main;
+import com.xmlservice.catalog.IndexRefresh;
+import com.xmlservice.catalog.OfferIndex;
+import com.xmlservice.service.FeedSyncResult;
+import com.xmlservice.service.SyncResult;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Долгоживущий режим: синхронизирует фиды с заданным интервалом в одном прогретом процессе.
+ * Следующий запуск планируется только после завершения предыдущего, поэтому запуски не пересекаются.
+ * По SIGTERM новые запуски отменяются, текущий дорабатывает до конца (не дольше shutdownTimeoutMs).
+ */
+public class SyncDaemon {
+
+    private final Main app;
+    private final long intervalMs;
+    private final long jitterMs;
+    private final long shutdownTimeoutMs;
+    private final boolean pipeline;
+
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean stopping;
+
+    private volatile boolean running;
+    private volatile Instant lastStartedAt;
+    private volatile Instant lastFinishedAt;
+    private volatile List<FeedSyncResult> lastResults;
+    private volatile String lastError;
+    private OfferIndex offerIndex;
+
+    public SyncDaemon(Main app, long intervalMs, long jitterMs, long shutdownTimeoutMs, boolean pipeline) {
+        this.app = app;
+        this.intervalMs = intervalMs;
+        this.jitterMs = jitterMs;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+        this.pipeline = pipeline;
+
+        this.scheduler = new ScheduledThreadPoolExecutor(1, r -> new Thread(r, "sync-daemon"));
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Индекс API чтения: обновляется после каждой синхронизации поставщика по записанным ею предложениям
+     * (сервис БД должен их отслеживать, см. DatabaseService.setTrackOfferChanges) и загружается при первом
+     * запуске, даже если фид не изменился
+     */
+    public void setOfferIndex(OfferIndex offerIndex) {
+        this.offerIndex = offerIndex;
+    }
+
+    /**
+     * Запускает цикл синхронизации и блокирует вызывающий поток до остановки.
+     * Завершением владеет только обработчик SIGTERM: он останавливает цикл, дожидается текущей синхронизации
+     * и лишь затем закрывает resources (HTTP сервер, пул соединений); вызывающий поток возвращается после этого.
+     */
+    public void run(AutoCloseable resources) throws InterruptedException {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(resources), "sync-daemon-shutdown"));
+        schedule(0);
+        stopped.await();
+    }
+
+    private void shutdown(AutoCloseable resources) {
+        try {
+            stop();
+            resources.close();
+        } catch (Exception e) {
+            System.err.println(Instant.now() + " [daemon] Shutdown failed: " + e.getMessage());
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Отменяет следующие запуски и ждет текущий; если он не уложился в shutdownTimeoutMs, прерывает его
+     * и ждет еще столько же, чтобы не закрыть пул под работающей синхронизацией
+     */
+    public void stop() {
+        if (stopping) return;
+        stopping = true;
+        log("Stopping, waiting for the current sync to finish");
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(shutdownTimeoutMs, TimeUnit.MILLISECONDS)) {
+                log("Current sync did not finish in " + shutdownTimeoutMs + " ms, interrupting");
+                scheduler.shutdownNow();
+                if (!scheduler.awaitTermination(shutdownTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    log("Current sync did not stop after interrupt, closing resources anyway");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void schedule(long delayMs) {
+        if (stopping) return;
+        scheduler.schedule(this::syncOnce, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void syncOnce() {
+        running = true;
+        lastStartedAt = Instant.now();
+        try {
+            List<FeedSyncResult> results = app.getFeedSyncService().syncAll(false, pipeline);
+            lastResults = results;
+            lastError = null;
+            for (FeedSyncResult feedResult : results) {
+                String prefix = results.size() > 1 ? "[" + feedResult.supplierId() + "] " : "";
+                if (feedResult.failed()) {
+                    lastError = feedResult.error().getMessage();
+                    System.err.println(Instant.now() + " [daemon] " + prefix + "Sync failed: " + lastError);
+                    continue;
+                }
+                SyncResult result = feedResult.result();
+                refreshIndex(feedResult.supplierId(), result);
+                if (result.skipped()) {
+                    log(prefix + "Feed not modified, sync skipped");
+                } else {
+                    log(String.format("%sSynced %d currencies, %d categories, %d offers (%d removed%s%s) in %d ms",
+                            prefix, result.currencyCount(), result.categoryCount(), result.offerCount(),
+                            result.removedCount(),
+                            result.resumedCount() > 0 ? ", " + result.resumedCount() + " resumed" : "",
+                            result.quarantinedCount() > 0 ? ", " + result.quarantinedCount() + " quarantined" : "",
+                            result.elapsedMs()));
+                }
+            }
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            System.err.println(Instant.now() + " [daemon] Sync failed: " + e.getMessage());
+        } finally {
+            running = false;
+            lastFinishedAt = Instant.now();
+            schedule(nextDelayMs());
+        }
+    }
+
+    private void refreshIndex(String supplierId, SyncResult result) {
+        if (offerIndex == null || (result.skipped() && offerIndex.isLoaded(supplierId))) return;
+        try {
+            IndexRefresh refresh = offerIndex.refresh(supplierId, result.offerChanges());
+            log(String.format("Offer index [%s]: %d loaded, %d removed in %d ms",
+                    supplierId, refresh.changed(), refresh.removed(), refresh.elapsedMs()));
+        } catch (RuntimeException e) {
+            System.err.println(Instant.now() + " [daemon] Offer index refresh failed for " + supplierId
+                    + ": " + e.getMessage());
+        }
+    }
+
+    private long nextDelayMs() {
+        return intervalMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+    }
+
+    /**
+     * Состояние для /health в формате JSON; last* - суммы по всем фидам, suppliers - по каждому
+     */
+    public String healthJson() {
+        List<FeedSyncResult> results = lastResults;
+        String totals = "\"lastSkipped\":null,\"lastOffers\":null,\"lastRemoved\":null,\"suppliers\":[]";
+        if (results != null) {
+            boolean skipped = true;
+            long offers = 0;
+            long removed = 0;
+            StringBuilder suppliers = new StringBuilder();
+            for (FeedSyncResult feedResult : results) {
+                SyncResult result = feedResult.result();
+                if (result != null) {
+                    skipped &= result.skipped();
+                    offers += result.offerCount();
+                    removed += result.removedCount();
+                } else {
+                    skipped = false;
+                }
+                if (!suppliers.isEmpty()) suppliers.append(',');
+                suppliers.append(String.format(
+                        "{\"id\":%s,\"skipped\":%s,\"offers\":%s,\"removed\":%s,\"quarantined\":%s,\"error\":%s}",
+                        quote(feedResult.supplierId()),
+                        result != null ? result.skipped() : "null",
+                        result != null ? result.offerCount() : "null",
+                        result != null ? result.removedCount() : "null",
+                        result != null ? result.quarantinedCount() : "null",
+                        quote(feedResult.failed() ? feedResult.error().getMessage() : null)));
+            }
+            totals = String.format("\"lastSkipped\":%b,\"lastOffers\":%d,\"lastRemoved\":%d,\"suppliers\":[%s]",
+                    skipped, offers, removed, suppliers);
+        }
+        return String.format(
+                "{\"status\":\"%s\",\"running\":%b,\"lastStartedAt\":%s,\"lastFinishedAt\":%s,%s,\"lastError\":%s}",
+                lastError == null ? "UP" : "DEGRADED", running,
+                quote(lastStartedAt), quote(lastFinishedAt), totals, quote(lastError));
+    }
+
+    private static String quote(Object value) {
+        if (value == null) return "null";
+        return "\"" + value.toString().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static void log(String message) {
+        System.out.println(Instant.now() + " [daemon] " + message);
+    }
+}
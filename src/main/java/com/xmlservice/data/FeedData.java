@@ -0,0 +1,28 @@
+package com.xmlservice.data;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class FeedData {
+
+    private final List<CurrencyData> currencies = new ArrayList<>();
+    private final List<CategoryData> categories = new ArrayList<>();
+    private final List<OfferData> offers = new ArrayList<>();
+    /** Строки, отклоненные при разборе (нечитаемая цена, курс) */
+    private final List<RejectedRow> rejected = new ArrayList<>();
+
+    public int getCurrencyCount() {
+        return currencies.size();
+    }
+
+    public int getCategoryCount() {
+        return categories.size();
+    }
+
+    public int getOfferCount() {
+        return offers.size();
+    }
+}
@@ -1,16 +1,163 @@
 package com.xmlservice.data;
 
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 
+/**
+ * Предложение фида. Цена хранится как масштабированный long (unscaled * 10^-scale),
+ * BigDecimal создается только при обращении к {@link #getPrice()} - на границе с JDBC.
+ * Идентификаторы категории и валюты парсеры передают из словаря, одна строка на значение.
+ */
 @Data
-@AllArgsConstructor
+@NoArgsConstructor
 public class OfferData {
+
+    /** priceScale отсутствующей цены */
+    private static final byte NO_PRICE = -1;
+    /** Больший масштаб (и значения вне long) округляются до масштаба колонки price */
+    private static final int MAX_SCALE = 18;
+    private static final int DB_SCALE = 2;
+    private static final int MAX_LONG_DIGITS = 18;
+
     private String vendorCode;
     private String name;
     private String categoryId;
-    private BigDecimal price;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private long priceUnscaled;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private byte priceScale = NO_PRICE;
     private String currencyCode;
+    /** Дополнительные поля в порядке {@link com.xmlservice.parser.OfferProjection#getExtras()}, null - без них */
+    private String[] extras;
+
+    public OfferData(String vendorCode, String name, String categoryId, BigDecimal price, String currencyCode) {
+        this.vendorCode = vendorCode;
+        this.name = name;
+        this.categoryId = categoryId;
+        this.currencyCode = currencyCode;
+        setPrice(price);
+    }
+
+    public boolean hasPrice() {
+        return priceScale != NO_PRICE;
+    }
+
+    public long getPriceUnscaled() {
+        return priceUnscaled;
+    }
+
+    public int getPriceScale() {
+        return priceScale;
+    }
+
+    @ToString.Include(name = "price")
+    public BigDecimal getPrice() {
+        return hasPrice() ? BigDecimal.valueOf(priceUnscaled, priceScale) : null;
+    }
+
+    public void setPrice(BigDecimal price) {
+        if (price == null) {
+            priceUnscaled = 0;
+            priceScale = NO_PRICE;
+            return;
+        }
+        if (price.scale() < 0) {
+            price = price.setScale(0, RoundingMode.UNNECESSARY);
+        }
+        if (price.scale() > MAX_SCALE || price.unscaledValue().bitLength() > 63) {
+            price = price.setScale(DB_SCALE, RoundingMode.HALF_UP);
+        }
+        if (price.unscaledValue().bitLength() > 63) {
+            throw new NumberFormatException("Price out of range: " + price.toPlainString());
+        }
+        priceUnscaled = price.unscaledValue().longValue();
+        priceScale = (byte) price.scale();
+    }
+
+    /**
+     * Разбирает цену из текста без промежуточных String и BigDecimal; формат как у new BigDecimal(text.trim()).
+     * Обычная запись (знак, до 18 цифр, точка) разбирается сразу, остальное - через BigDecimal.
+     */
+    public void setPrice(CharSequence text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) start++;
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+
+        long unscaled = 0;
+        int scale = 0;
+        int significant = 0;
+        boolean digits = false;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                unscaled = unscaled * 10 + (c - '0');
+                digits = true;
+                if (unscaled != 0) significant++;
+                if (fraction) scale++;
+                if (significant > MAX_LONG_DIGITS || scale > MAX_SCALE) break;
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (i < end || !digits) {
+            setPrice(new BigDecimal(text.subSequence(start, end).toString()));
+            return;
+        }
+        priceUnscaled = negative ? -unscaled : unscaled;
+        priceScale = (byte) scale;
+    }
+
+    /**
+     * Пишет цену в виде BigDecimal.toPlainString(); stripTrailingZeros - без незначащих нулей дробной части
+     */
+    public void appendPrice(Appendable out, boolean stripTrailingZeros) throws IOException {
+        if (!hasPrice()) return;
+        long unscaled = priceUnscaled;
+        int scale = priceScale;
+        if (stripTrailingZeros) {
+            while (scale > 0 && unscaled % 10 == 0) {
+                unscaled /= 10;
+                scale--;
+            }
+        }
+
+        String digits = Long.toString(unscaled);
+        if (unscaled < 0) {
+            out.append('-');
+            digits = digits.substring(1);
+        }
+        if (scale == 0) {
+            out.append(digits);
+        } else if (digits.length() > scale) {
+            out.append(digits, 0, digits.length() - scale).append('.').append(digits, digits.length() - scale, digits.length());
+        } else {
+            out.append("0.");
+            for (int zeros = scale - digits.length(); zeros > 0; zeros--) out.append('0');
+            out.append(digits);
+        }
+    }
 }
@@ -0,0 +1,22 @@
+package com.xmlservice.data;
+
+/**
+ * Строка фида, которая не записывается в БД и попадает в карантин (таблица sync_quarantine)
+ *
+ * @param table  таблица, в которую шла строка (currency/categories/offers)
+ * @param key    идентификатор строки в фиде (код валюты, id категории, vendorCode)
+ * @param reason почему строка отклонена
+ */
+public record RejectedRow(String table, String key, String reason) {
+
+    private static final int MAX_VALUE_LENGTH = 100;
+
+    /**
+     * Строка с нечитаемым значением поля; слишком длинное значение в причине обрезается
+     */
+    public static RejectedRow invalidValue(String table, String key, String field, CharSequence value) {
+        String text = value.toString().trim();
+        if (text.length() > MAX_VALUE_LENGTH) text = text.substring(0, MAX_VALUE_LENGTH) + "...";
+        return new RejectedRow(table, key, "invalid " + field + ": '" + text + "'");
+    }
+}
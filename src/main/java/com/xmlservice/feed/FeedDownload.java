@@ -0,0 +1,132 @@
+package com.xmlservice.feed;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Получение фида, которое можно разбирать во время загрузки (см. {@link FeedFetcher#open()}).
+ * Либо фид уже получен ({@link #result()}), либо его тело читается из {@link #body()}: прочитанные байты
+ * сразу пишутся в копию для кэша, а {@link #finish()} дочитывает ответ и заменяет копию в кэше.
+ */
+public class FeedDownload implements AutoCloseable {
+
+    @FunctionalInterface
+    interface Completion {
+        FetchResult complete() throws IOException;
+    }
+
+    private final FetchResult result;
+    private final InputStream in;
+    private final OutputStream copy;
+    private final Path part;
+    private final Completion completion;
+    private InputStream body;
+    private long bytes;
+    private boolean closed;
+
+    FeedDownload(FetchResult result) {
+        this.result = result;
+        this.in = null;
+        this.copy = null;
+        this.part = null;
+        this.completion = null;
+    }
+
+    FeedDownload(InputStream in, OutputStream copy, Path part, Completion completion) {
+        this.result = null;
+        this.in = in;
+        this.copy = copy;
+        this.part = part;
+        this.completion = completion;
+    }
+
+    /**
+     * Уже полученный фид, null - фид загружается через {@link #body()}
+     */
+    public FetchResult result() {
+        return result;
+    }
+
+    /**
+     * Тело ответа; закрывать его не нужно, соединение закрывает {@link #finish()} или {@link #close()}
+     */
+    public InputStream body() {
+        if (in == null) throw new IllegalStateException("Feed is already fetched");
+        if (body == null) {
+            body = new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        copy.write(b);
+                        bytes++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        copy.write(b, off, n);
+                        bytes += n;
+                    }
+                    return n;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    // пропущенные байты тоже нужны копии
+                    return Math.max(read(new byte[(int) Math.min(n, 8192)]), 0);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+        return body;
+    }
+
+    /**
+     * Дочитывает ответ (разбор мог остановиться раньше конца тела) и сохраняет копию в кэше
+     */
+    public FetchResult finish() throws IOException {
+        if (result != null) return result;
+        body().transferTo(OutputStream.nullOutputStream());
+        in.close();
+        copy.close();
+        closed = true;
+        try {
+            return completion.complete();
+        } catch (IOException e) {
+            Files.deleteIfExists(part);
+            throw e;
+        }
+    }
+
+    /**
+     * Сколько байт тела прочитано
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Прерывает незавершенную загрузку: копия в кэше остается прежней
+     */
+    @Override
+    public void close() throws IOException {
+        if (result != null || closed) return;
+        closed = true;
+        try (copy) {
+            in.close();
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.xmlservice.feed;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+
+/**
+ * Получает фид с условным HTTP запросом (If-None-Match / If-Modified-Since) и хранит его копию на диске.
+ * Поддерживает file:// URL и обычные пути к заранее скачанному файлу.
+ * Версия, для которой синхронизация завершилась успешно, запоминается через {@link #markSynced(FetchResult)}.
+ */
+public class FeedFetcher {
+
+    private static final int CONNECT_TIMEOUT_MS = 30_000;
+    private static final int READ_TIMEOUT_MS = 300_000;
+
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String VERSION = "version";
+    private static final String SYNCED_VERSION = "syncedVersion";
+
+    private final String xmlUrl;
+    private final Path cacheDir;
+
+    public FeedFetcher(String xmlUrl, Path cacheDir) {
+        this.xmlUrl = xmlUrl;
+        this.cacheDir = cacheDir != null ? cacheDir : defaultCacheDir();
+    }
+
+    public static Path defaultCacheDir() {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "xml-service-cache");
+    }
+
+    public FetchResult fetch() throws IOException {
+        Files.createDirectories(cacheDir);
+        Path local = localPath(xmlUrl);
+        Properties meta = loadMeta();
+
+        if (local != null) {
+            return fetchLocal(local, meta);
+        }
+        return fetchRemote(meta);
+    }
+
+    /**
+     * Как {@link #fetch()}, но новое тело HTTP ответа не скачивается заранее: его можно разбирать
+     * во время загрузки через {@link FeedDownload#body()}. Так получается только фид, для которого сервер
+     * присылает ETag или Last-Modified: тогда неизменный фид определяется ответом 304. Без них новизну
+     * покажет только хэш содержимого, поэтому фид, как и локальный, получается целиком ({@link FeedDownload#result()}).
+     */
+    public FeedDownload open() throws IOException {
+        Files.createDirectories(cacheDir);
+        Path local = localPath(xmlUrl);
+        Properties meta = loadMeta();
+
+        if (local != null) {
+            return new FeedDownload(fetchLocal(local, meta));
+        }
+        Path cached = cacheFile(".xml");
+        URLConnection connection = connect(meta, cached);
+        if (connection == null) {
+            return new FeedDownload(cachedResult(cached, meta));
+        }
+        if (connection.getHeaderField("ETag") == null && connection.getHeaderField("Last-Modified") == null) {
+            return new FeedDownload(store(connection, cached, meta));
+        }
+        Path part = Files.createTempFile(cacheDir, "feed-", ".part");
+        MessageDigest digest = sha256();
+        OutputStream copy = new DigestOutputStream(Files.newOutputStream(part), digest);
+        InputStream body;
+        try {
+            body = connection.getInputStream();
+        } catch (IOException e) {
+            copy.close();
+            Files.deleteIfExists(part);
+            throw e;
+        }
+        return new FeedDownload(body, copy, part, () -> {
+            Files.move(part, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return saveVersion(connection, cached, meta, HexFormat.of().formatHex(digest.digest()));
+        });
+    }
+
+    /**
+     * Запоминает версию фида как успешно синхронизированную
+     */
+    public void markSynced(FetchResult result) throws IOException {
+        Properties meta = loadMeta();
+        meta.setProperty(SYNCED_VERSION, result.version());
+        saveMeta(meta);
+    }
+
+    private FetchResult fetchLocal(Path local, Properties meta) throws IOException {
+        String version = Files.size(local) + "-" + Files.getLastModifiedTime(local).toMillis();
+        return new FetchResult(local, version, !version.equals(meta.getProperty(SYNCED_VERSION)), 0);
+    }
+
+    private FetchResult fetchRemote(Properties meta) throws IOException {
+        Path cached = cacheFile(".xml");
+        URLConnection connection = connect(meta, cached);
+        if (connection == null) {
+            return cachedResult(cached, meta);
+        }
+        return store(connection, cached, meta);
+    }
+
+    /**
+     * Отправляет условный запрос
+     *
+     * @return соединение с новым телом ответа или null, если копия в кэше актуальна (HTTP 304)
+     */
+    private URLConnection connect(Properties meta, Path cached) throws IOException {
+        URLConnection connection = URI.create(xmlUrl).toURL().openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        // Сжатое тело сохраняется как есть и распаковывается при разборе (см. FeedStreams)
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+
+        boolean haveCopy = Files.exists(cached) && meta.getProperty(VERSION) != null;
+        if (haveCopy) {
+            if (meta.getProperty(ETAG) != null) {
+                connection.setRequestProperty("If-None-Match", meta.getProperty(ETAG));
+            }
+            if (meta.getProperty(LAST_MODIFIED) != null) {
+                connection.setRequestProperty("If-Modified-Since", meta.getProperty(LAST_MODIFIED));
+            }
+        }
+
+        if (connection instanceof HttpURLConnection http) {
+            int status = http.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && haveCopy) {
+                http.disconnect();
+                return null;
+            }
+            if (status >= 400) {
+                http.disconnect();
+                throw new IOException("HTTP " + status + " while fetching " + xmlUrl);
+            }
+        }
+        return connection;
+    }
+
+    private FetchResult store(URLConnection connection, Path cached, Properties meta) throws IOException {
+        return saveVersion(connection, cached, meta, download(connection, cached));
+    }
+
+    private FetchResult saveVersion(URLConnection connection, Path cached, Properties meta, String version)
+            throws IOException {
+        setOrRemove(meta, ETAG, connection.getHeaderField("ETag"));
+        setOrRemove(meta, LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+        meta.setProperty(VERSION, version);
+        saveMeta(meta);
+
+        return new FetchResult(cached, version, !version.equals(meta.getProperty(SYNCED_VERSION)),
+                Files.size(cached));
+    }
+
+    private FetchResult cachedResult(Path cached, Properties meta) {
+        String version = meta.getProperty(VERSION);
+        return new FetchResult(cached, version, !version.equals(meta.getProperty(SYNCED_VERSION)), 0);
+    }
+
+    /**
+     * Скачивает тело ответа во временный файл и атомарно заменяет им копию в кэше.
+     * Возвращает SHA-256 содержимого, чтобы повторно скачанный неизмененный фид не считался новым.
+     */
+    private String download(URLConnection connection, Path target) throws IOException {
+        Path part = Files.createTempFile(cacheDir, "feed-", ".part");
+        MessageDigest digest = sha256();
+        try (InputStream in = connection.getInputStream();
+             OutputStream out = new DigestOutputStream(Files.newOutputStream(part), digest)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(part);
+            throw e;
+        }
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private Properties loadMeta() throws IOException {
+        Properties meta = new Properties();
+        Path file = cacheFile(".properties");
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                meta.load(in);
+            }
+        }
+        return meta;
+    }
+
+    private void saveMeta(Properties meta) throws IOException {
+        Path file = cacheFile(".properties");
+        Path part = Files.createTempFile(cacheDir, "meta-", ".part");
+        try (OutputStream out = Files.newOutputStream(part)) {
+            meta.store(out, xmlUrl);
+        }
+        Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path cacheFile(String suffix) {
+        byte[] hash = sha256().digest(xmlUrl.getBytes(StandardCharsets.UTF_8));
+        return cacheDir.resolve("feed-" + HexFormat.of().formatHex(hash, 0, 8) + suffix);
+    }
+
+    private static void setOrRemove(Properties meta, String key, String value) {
+        if (value != null) meta.setProperty(key, value);
+        else meta.remove(key);
+    }
+
+    /**
+     * Возвращает путь к локальному файлу для file:// URL и путей без схемы, иначе null
+     */
+    static Path localPath(String xmlUrl) {
+        if (xmlUrl.startsWith("file:")) {
+            return Paths.get(URI.create(xmlUrl));
+        }
+        int scheme = xmlUrl.indexOf("://");
+        return scheme < 0 ? Paths.get(xmlUrl) : null;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.xmlservice.feed;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Генератор синтетического YML каталога любого размера для нагрузочных прогонов.
+ * Пишет потоково, память не зависит от числа предложений; при одинаковом seed результат одинаков.
+ * <p>
+ * Испорченные строки - предложения, которые парсер и запись должны пережить:
+ * без id, с повтором уже выданного id, без цены, без категории.
+ */
+public class FeedGenerator {
+
+    private static final String[] CURRENCY_CODES = {"RUR", "USD", "EUR", "KZT", "BYN", "UAH", "CNY", "GBP"};
+    private static final String[] VENDORS = {"Acme", "Globex", "Initech", "Umbrella", "Hooli", "Stark", "Wayne"};
+    private static final String[] WORDS = {"Smart", "Mini", "Pro", "Max", "Lite", "Ultra", "Classic", "Eco",
+            "Turbo", "Air", "Home", "Sport"};
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int offers;
+    private final int categories;
+    private final int currencies;
+    private final int badRows;
+    private final long seed;
+
+    public FeedGenerator(int offers, int categories, int currencies, int badRows, long seed) {
+        if (offers < 0 || badRows < 0) {
+            throw new IllegalArgumentException("Offer and bad row counts must not be negative");
+        }
+        if (categories < 1 || currencies < 1) {
+            throw new IllegalArgumentException("At least one category and one currency are required");
+        }
+        this.offers = offers;
+        this.categories = categories;
+        this.currencies = currencies;
+        this.badRows = Math.min(badRows, offers);
+        this.seed = seed;
+    }
+
+    /**
+     * Записывает фид в файл; при расширении .gz - сжатый gzip
+     */
+    public void write(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            if (file.getFileName().toString().endsWith(".gz")) {
+                try (GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE)) {
+                    write(gzip);
+                }
+            } else {
+                write(out);
+            }
+        }
+    }
+
+    public void write(OutputStream out) throws IOException {
+        BufferedOutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newFactory().createXMLStreamWriter(buffered, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement("yml_catalog");
+            writer.writeAttribute("date", "2024-01-01 00:00");
+            writer.writeStartElement("shop");
+            writeText(writer, "name", "Synthetic Shop");
+            writeText(writer, "company", "Synthetic Shop LLC");
+            writeText(writer, "url", "https://shop.example.com");
+
+            Random random = new Random(seed);
+            writeCurrencies(writer, random);
+            writeCategories(writer, random);
+            writeOffers(writer, random);
+
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error writing synthetic feed: " + e.getMessage(), e);
+        }
+        buffered.flush();
+    }
+
+    public static String currencyCode(int index) {
+        return index < CURRENCY_CODES.length ? CURRENCY_CODES[index] : "C" + index;
+    }
+
+    private void writeCurrencies(XMLStreamWriter writer, Random random) throws XMLStreamException {
+        writer.writeStartElement("currencies");
+        for (int i = 0; i < currencies; i++) {
+            writer.writeEmptyElement("currency");
+            writer.writeAttribute("id", currencyCode(i));
+            writer.writeAttribute("rate", i == 0 ? "1" : BigDecimal.valueOf(1 + random.nextInt(99_999), 3).toPlainString());
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Категории образуют дерево: у каждой, кроме первых десяти корневых, есть родитель с меньшим id
+     */
+    private void writeCategories(XMLStreamWriter writer, Random random) throws XMLStreamException {
+        writer.writeStartElement("categories");
+        for (int id = 1; id <= categories; id++) {
+            writer.writeStartElement("category");
+            writer.writeAttribute("id", String.valueOf(id));
+            if (id > 10) {
+                writer.writeAttribute("parentId", String.valueOf(1 + random.nextInt(id - 1)));
+            }
+            writer.writeCharacters(WORDS[random.nextInt(WORDS.length)] + " category " + id);
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeOffers(XMLStreamWriter writer, Random random) throws XMLStreamException {
+        writer.writeStartElement("offers");
+        // испорченные строки распределены по фиду равномерно, а не собраны в конце
+        long badStep = badRows > 0 ? Math.max(1, offers / badRows) : Long.MAX_VALUE;
+        int badWritten = 0;
+
+        for (int i = 0; i < offers; i++) {
+            boolean bad = badWritten < badRows && i % badStep == badStep - 1;
+            writeOffer(writer, random, i, bad ? badWritten++ % 4 : -1);
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * @param badKind -1 - корректное предложение, 0 - без id, 1 - повтор id, 2 - без цены, 3 - без категории
+     */
+    private void writeOffer(XMLStreamWriter writer, Random random, int index, int badKind) throws XMLStreamException {
+        writer.writeCharacters("\n");
+        writer.writeStartElement("offer");
+        if (badKind != 0) {
+            int id = badKind == 1 && index > 0 ? random.nextInt(index) : index;
+            writer.writeAttribute("id", "SKU-" + id);
+        }
+        writer.writeAttribute("available", random.nextInt(10) > 0 ? "true" : "false");
+
+        String vendor = VENDORS[random.nextInt(VENDORS.length)];
+        String name = vendor + " " + WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                + " " + index;
+
+        writeText(writer, "url", "https://shop.example.com/p/" + index);
+        if (badKind != 2) {
+            writeText(writer, "price", BigDecimal.valueOf(100 + random.nextInt(10_000_000), 2).toPlainString());
+            if (random.nextInt(4) == 0) {
+                writeText(writer, "oldprice", BigDecimal.valueOf(200 + random.nextInt(20_000_000), 2).toPlainString());
+            }
+        }
+        writeText(writer, "currencyId", currencyCode(random.nextInt(currencies)));
+        if (badKind != 3) {
+            writeText(writer, "categoryId", String.valueOf(1 + random.nextInt(categories)));
+        }
+        writeText(writer, "picture", "https://img.example.com/" + index + ".jpg");
+        writeText(writer, "name", name);
+        writeText(writer, "vendor", vendor);
+        writer.writeStartElement("description");
+        writer.writeCData("<p>" + name + " - synthetic description &amp; specs</p>");
+        writer.writeEndElement();
+        writer.writeStartElement("param");
+        writer.writeAttribute("name", "Weight");
+        writer.writeAttribute("unit", "kg");
+        writer.writeCharacters(String.valueOf(1 + random.nextInt(50)));
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    private static void writeText(XMLStreamWriter writer, String name, String text) throws XMLStreamException {
+        writer.writeStartElement(name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+}
@@ -0,0 +1,77 @@
+package com.xmlservice.feed;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Прозрачная распаковка фида на лету по сигнатуре содержимого (gzip, zip), без временных файлов
+ */
+public final class FeedStreams {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private FeedStreams() {
+    }
+
+    public static InputStream decompress(InputStream raw) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(raw, BUFFER_SIZE);
+        in.mark(4);
+        int b0 = in.read();
+        int b1 = in.read();
+        int b2 = in.read();
+        int b3 = in.read();
+        in.reset();
+
+        if (isGzip(b0, b1)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        if (isZip(b0, b1, b2, b3)) {
+            return openZipEntry(new ZipInputStream(in));
+        }
+        return in;
+    }
+
+    /**
+     * Сжат ли файл фида (gzip, zip); несжатый можно читать напрямую по позициям
+     */
+    public static boolean isCompressed(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] head = in.readNBytes(4);
+            int b0 = head.length > 0 ? head[0] & 0xff : -1;
+            int b1 = head.length > 1 ? head[1] & 0xff : -1;
+            int b2 = head.length > 2 ? head[2] & 0xff : -1;
+            int b3 = head.length > 3 ? head[3] & 0xff : -1;
+            return isGzip(b0, b1) || isZip(b0, b1, b2, b3);
+        }
+    }
+
+    private static boolean isGzip(int b0, int b1) {
+        return b0 == 0x1f && b1 == 0x8b;
+    }
+
+    private static boolean isZip(int b0, int b1, int b2, int b3) {
+        return b0 == 'P' && b1 == 'K' && b2 == 0x03 && b3 == 0x04;
+    }
+
+    /**
+     * Позиционирует архив на первом .xml или .yml файле
+     */
+    private static InputStream openZipEntry(ZipInputStream zip) throws IOException {
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.isDirectory()) continue;
+            String name = entry.getName().toLowerCase();
+            if (name.endsWith(".xml") || name.endsWith(".yml")) {
+                return zip;
+            }
+        }
+        zip.close();
+        throw new IOException("Zip archive does not contain an .xml or .yml feed");
+    }
+}
@@ -0,0 +1,14 @@
+package com.xmlservice.feed;
+
+import java.nio.file.Path;
+
+/**
+ * Локальная копия фида
+ *
+ * @param file     файл с содержимым фида
+ * @param version  версия содержимого: SHA-256 для загруженных по HTTP фидов, размер и время изменения для локальных
+ * @param modified версия отличается от последней успешно синхронизированной
+ * @param downloadedBytes сколько байт скачано при получении (0 для копии из кэша и локальных файлов)
+ */
+public record FetchResult(Path file, String version, boolean modified, long downloadedBytes) {
+}
@@ -0,0 +1,209 @@
+package com.xmlservice.feed;
+
+import com.xmlservice.data.CategoryData;
+import com.xmlservice.data.CurrencyData;
+import com.xmlservice.data.OfferData;
+import com.xmlservice.parser.FeedListener;
+import com.xmlservice.parser.OfferProjection;
+import com.xmlservice.service.DatabaseService;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Выгрузка каталога поставщика из БД в YML (yml_catalog/shop). Строки читаются курсорами порциями
+ * ({@link DatabaseService#readCatalog}) и сразу пишутся XMLStreamWriter, память не зависит от числа предложений.
+ * Дополнительные поля предложений выводятся теми же элементами и атрибутами offer, из которых были прочитаны.
+ */
+public class YmlExporter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final DateTimeFormatter CATALOG_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final DatabaseService dbService;
+    private final String shopName;
+    private final String company;
+    private final String url;
+
+    /**
+     * @param url адрес магазина, null - без элемента url
+     */
+    public YmlExporter(DatabaseService dbService, String shopName, String company, String url) {
+        this.dbService = dbService;
+        this.shopName = shopName;
+        this.company = company;
+        this.url = url;
+    }
+
+    /**
+     * Записывает каталог в файл; при расширении .gz - сжатый gzip
+     *
+     * @return число выгруженных предложений
+     */
+    public long export(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            if (file.getFileName().toString().endsWith(".gz")) {
+                try (GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE)) {
+                    return export(gzip);
+                }
+            }
+            return export(out);
+        }
+    }
+
+    public long export(OutputStream out) throws IOException {
+        BufferedOutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+        CatalogWriter catalog;
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newFactory().createXMLStreamWriter(buffered, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement("yml_catalog");
+            writer.writeAttribute("date", LocalDateTime.now().format(CATALOG_DATE));
+            writer.writeStartElement("shop");
+            writeText(writer, "name", shopName);
+            writeText(writer, "company", company);
+            if (url != null) {
+                writeText(writer, "url", url);
+            }
+
+            catalog = new CatalogWriter(writer, dbService.getOfferProjection());
+            dbService.readCatalog(catalog);
+            catalog.endSection();
+
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error writing YML: " + e.getMessage(), e);
+        }
+        buffered.flush();
+        return catalog.offers;
+    }
+
+    /**
+     * Пишет строки таблиц в секции shop по мере чтения из БД
+     */
+    private static final class CatalogWriter implements FeedListener {
+
+        private final XMLStreamWriter writer;
+        private final List<OfferProjection.Extra> extras;
+        private boolean inSection;
+        private long offers;
+
+        CatalogWriter(XMLStreamWriter writer, OfferProjection projection) {
+            this.writer = writer;
+            this.extras = projection.getExtras();
+        }
+
+        @Override
+        public void onTable(String tableName) {
+            try {
+                endSection();
+                writer.writeCharacters("\n");
+                writer.writeStartElement(sectionElement(tableName));
+                inSection = true;
+            } catch (XMLStreamException e) {
+                throw new RuntimeException("Error writing YML: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void onCurrency(CurrencyData currency) {
+            try {
+                writer.writeCharacters("\n");
+                writer.writeEmptyElement("currency");
+                writer.writeAttribute("id", currency.getCode());
+                writer.writeAttribute("rate", currency.getRate().stripTrailingZeros().toPlainString());
+            } catch (XMLStreamException e) {
+                throw new RuntimeException("Error writing YML: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void onCategory(CategoryData category) {
+            try {
+                writer.writeCharacters("\n");
+                writer.writeStartElement("category");
+                writer.writeAttribute("id", category.getId());
+                writer.writeCharacters(category.getName());
+                writer.writeEndElement();
+            } catch (XMLStreamException e) {
+                throw new RuntimeException("Error writing YML: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Атрибуты offer пишутся до дочерних элементов; пустые поля не выводятся
+         */
+        @Override
+        public void onOffer(OfferData offer) {
+            try {
+                String[] values = offer.getExtras();
+                writer.writeCharacters("\n");
+                writer.writeStartElement("offer");
+                writer.writeAttribute("id", offer.getVendorCode());
+                for (int i = 0; values != null && i < extras.size(); i++) {
+                    if (extras.get(i).attribute() && values[i] != null) {
+                        writer.writeAttribute(extras.get(i).source(), values[i]);
+                    }
+                }
+                if (offer.hasPrice()) {
+                    writeText(writer, "price", offer.getPrice().toPlainString());
+                }
+                writeOptional("currencyId", offer.getCurrencyCode());
+                writeOptional("categoryId", offer.getCategoryId());
+                writeText(writer, "name", offer.getName());
+                for (int i = 0; values != null && i < extras.size(); i++) {
+                    if (!extras.get(i).attribute()) {
+                        writeOptional(extras.get(i).source(), values[i]);
+                    }
+                }
+                writer.writeEndElement();
+                offers++;
+            } catch (XMLStreamException e) {
+                throw new RuntimeException("Error writing YML: " + e.getMessage(), e);
+            }
+        }
+
+        void endSection() throws XMLStreamException {
+            if (!inSection) return;
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            inSection = false;
+        }
+
+        private void writeOptional(String name, String text) throws XMLStreamException {
+            if (text != null) writeText(writer, name, text);
+        }
+
+        private static String sectionElement(String tableName) {
+            return switch (tableName) {
+                case "currency" -> "currencies";
+                case "categories", "offers" -> tableName;
+                default -> throw new IllegalArgumentException("Unknown table: " + tableName);
+            };
+        }
+    }
+
+    private static void writeText(XMLStreamWriter writer, String name, String text) throws XMLStreamException {
+        writer.writeStartElement(name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+}
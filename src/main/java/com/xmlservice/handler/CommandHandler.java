@@ -1,36 +1,78 @@
 package com.xmlservice.handler;
 
 import com.xmlservice.Main;
+import com.xmlservice.catalog.OfferIndex;
+import com.xmlservice.config.Config;
+import com.xmlservice.config.FeedSource;
+import com.xmlservice.daemon.SyncDaemon;
+import com.xmlservice.feed.FeedGenerator;
+import com.xmlservice.feed.YmlExporter;
+import com.xmlservice.harness.PhaseResult;
+import com.xmlservice.harness.SyncHarness;
+import com.xmlservice.http.OfferApi;
+import com.xmlservice.http.StatusServer;
+import com.xmlservice.metrics.Metrics;
+import com.xmlservice.metrics.StageTimer;
+import com.xmlservice.service.DatabaseService;
+import com.xmlservice.service.DeltaStats;
+import com.xmlservice.service.FeedSyncResult;
+import com.xmlservice.service.SyncResult;
+import com.xmlservice.service.WriteMode;
+import com.xmlservice.service.WriteStats;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class CommandHandler {
 
-    public static void handleCommand(String[] args, String xmlUrl, String defaultJdbc,
+    /**
+     * Опции, за которыми следует значение: оно не считается позиционным аргументом
+     */
+    private static final Set<String> VALUE_OPTIONS = Set.of(
+            "--offers", "--categories", "--currencies", "--bad-rows", "--seed", "--report", "--supplier");
+
+    public static void handleCommand(String[] args, List<FeedSource> feeds, String defaultJdbc,
                                      String defaultUser, String defaultPassword) {
         String command = args[0].toLowerCase();
 
-        try {
-            Main app = new Main(
-                    xmlUrl,
-                    getEnvOrDefault("JDBC_URL", defaultJdbc),
-                    getEnvOrDefault("DB_USER", defaultUser),
-                    getEnvOrDefault("DB_PASSWORD", defaultPassword)
-            );
+        try (Main app = new Main(
+                feeds,
+                getEnvOrDefault("JDBC_URL", defaultJdbc),
+                getEnvOrDefault("DB_USER", defaultUser),
+                getEnvOrDefault("DB_PASSWORD", defaultPassword)
+        )) {
 
             switch (command) {
                 case "tables" -> showTables(app);
                 case "ddl" -> showDDL(app, args);
-                case "create" -> createTables(app);
+                case "create" -> createTables(app, args);
                 case "update" -> updateTables(app, args);
                 case "columns" -> showColumns(app, args);
                 case "validate" -> validateStructure(app);
+                case "daemon" -> runDaemon(app, args);
+                case "generate" -> generateFeed(args);
+                case "export" -> exportFeed(app, args);
+                case "harness" -> runHarness(app, args);
 //                case "help" -> HelpPrinter.printHelp();
                 default -> handleUnknownCommand(command);
             }
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
         }
+        printTimingSummary();
+    }
+
+    private static void printTimingSummary() {
+        if (!Metrics.isEmpty()) {
+            System.out.print("Timing summary:\n" + Metrics.summary());
+        }
     }
 
     private static void showTables(Main app) {
@@ -45,23 +87,81 @@ public class CommandHandler {
         }
     }
 
-    private static void createTables(Main app) {
+    /**
+     * С --bulk после создания таблиц выполняет начальную загрузку, как update --bulk
+     */
+    private static void createTables(Main app, String[] args) {
         List<String> tables = app.getParser().getTableNames();
         app.getDbService().createTables(tables);
         System.out.println("Tables created/verified: " + tables);
+        if (hasFlag(args, "--bulk")) {
+            updateTables(app, args);
+        }
     }
 
     private static void updateTables(Main app, String[] args) {
-        app.getDbService().validateDatabaseStructure(app.getParser().getTableNames());
+        configureWrites(app, args);
 
-        if (args.length > 1) {
-            updateSpecificTable(app, args[1]);
+        String table = positionalArg(args, 1);
+        if (table != null) {
+            app.getDbService().validateDatabaseStructure(app.getParser().getTableNames());
+            updateSpecificTable(app, table);
         } else {
-            updateAllTables(app);
+            List<FeedSyncResult> results = app.getFeedSyncService().syncAll(
+                    hasFlag(args, "--force"), hasFlag(args, "--pipeline"));
+            if (results.size() == 1 && results.get(0).failed()) {
+                throw results.get(0).error();
+            }
+            for (FeedSyncResult result : results) {
+                printSyncResult(results.size() > 1 ? "[" + result.supplierId() + "] " : "", result);
+            }
+        }
+        printWriteStats(app);
+    }
+
+    private static void printSyncResult(String prefix, FeedSyncResult feedResult) {
+        if (feedResult.failed()) {
+            System.err.println(prefix + "Sync failed: " + feedResult.error().getMessage());
+            return;
+        }
+        SyncResult result = feedResult.result();
+        if (result.skipped()) {
+            System.out.println(prefix + "Feed not modified since last sync, skipping update");
+            return;
+        }
+        System.out.printf("%sAll tables updated successfully: %d currencies, %d categories, %d offers%n",
+                prefix, result.currencyCount(), result.categoryCount(), result.offerCount());
+        if (result.resumedCount() > 0) {
+            System.out.println(prefix + "Resumed interrupted sync, offers already written: " + result.resumedCount());
+        }
+        if (result.removedCount() > 0) {
+            System.out.println(prefix + "Offers removed from feed: " + result.removedCount());
+        }
+        if (result.quarantinedCount() > 0) {
+            System.out.println(prefix + "Rows quarantined (see sync_quarantine): " + result.quarantinedCount());
+        }
+    }
+
+    /**
+     * Применяет флаги способа записи: --copy, --delta, --parallel, --bulk
+     */
+    private static void configureWrites(Main app, String[] args) {
+        if (hasFlag(args, "--copy")) {
+            app.getDbService().setWriteMode(WriteMode.COPY);
+        }
+        if (hasFlag(args, "--delta")) {
+            app.getDbService().setDeltaSync(true);
+        }
+        if (hasFlag(args, "--parallel")) {
+            app.getDbService().setWriteParallelism(Config.getDbWriteParallelism());
+        }
+        if (hasFlag(args, "--bulk")) {
+            app.getDbService().setBulkLoad(true);
         }
     }
 
     private static void updateSpecificTable(Main app, String table) {
+        long quarantined = app.getDbService().getQuarantinedCount();
         switch (table) {
             case "currency" -> {
                 app.getDbService().upsertCurrencies(app.getParser().parseCurrencies());
@@ -77,13 +177,22 @@ public class CommandHandler {
             }
             default -> System.out.println("Unknown table: " + table);
         }
+        app.getDbService().quarantine(app.getParser().takeRejected());
+        quarantined = app.getDbService().getQuarantinedCount() - quarantined;
+        if (quarantined > 0) {
+            System.out.println("Rows quarantined (see sync_quarantine): " + quarantined);
+        }
     }
 
-    private static void updateAllTables(Main app) {
-        app.getDbService().upsertCurrencies(app.getParser().parseCurrencies());
-        app.getDbService().upsertCategories(app.getParser().parseCategories());
-        app.getDbService().upsertOffers(app.getParser().parseOffers());
-        System.out.println("All tables updated successfully");
+    private static void printWriteStats(Main app) {
+        WriteStats stats = app.getDbService().getWriteStats();
+        if (!stats.isEmpty()) {
+            System.out.print("Write throughput:\n" + stats.summary());
+        }
+        DeltaStats delta = app.getDbService().getDeltaStats();
+        if (!delta.isEmpty()) {
+            System.out.println("Offers delta: " + delta);
+        }
     }
 
     private static void showColumns(Main app, String[] args) {
@@ -102,11 +211,179 @@ public class CommandHandler {
         System.out.println("Database structure is valid");
     }
 
+    private static void runDaemon(Main app, String[] args) throws Exception {
+        configureWrites(app, args);
+        app.getFeedSyncService().checkPoolCapacity(hasFlag(args, "--pipeline"));
+        SyncDaemon daemon = new SyncDaemon(app,
+                TimeUnit.SECONDS.toMillis(Config.getDaemonIntervalSeconds()),
+                TimeUnit.SECONDS.toMillis(Config.getDaemonJitterSeconds()),
+                TimeUnit.SECONDS.toMillis(Config.getDaemonShutdownTimeoutSeconds()),
+                hasFlag(args, "--pipeline"));
+
+        StatusServer server = new StatusServer(Config.getHttpPort());
+        try {
+            server.addResource("/health", "application/json", daemon::healthJson);
+            server.addResource("/metrics", "text/plain; version=0.0.4", Metrics::prometheus);
+            if (Config.isOfferApiEnabled()) {
+                app.getDbService().setTrackOfferChanges(true);
+                OfferIndex offerIndex = new OfferIndex(app.getDbService(), Config.getOfferApiCacheSize());
+                daemon.setOfferIndex(offerIndex);
+                new OfferApi(offerIndex, app.getFeeds().stream().map(FeedSource::supplierId).toList())
+                        .register(server);
+            }
+            server.start();
+        } catch (RuntimeException e) {
+            server.close();
+            throw e;
+        }
+        System.out.println("Daemon started, sync interval " + Config.getDaemonIntervalSeconds()
+                + " s, HTTP port " + Config.getHttpPort());
+        // сервер и пул закрывает обработчик завершения после остановки цикла; повторное app.close() в
+        // handleCommand после этого ничего не делает
+        daemon.run(() -> {
+            server.close();
+            app.close();
+        });
+    }
+
+    private static void generateFeed(String[] args) throws IOException {
+        String file = positionalArg(args, 1);
+        if (file == null) {
+            System.out.println("Usage: java -jar app.jar generate <file[.gz]> [--offers N] [--categories N]"
+                    + " [--currencies N] [--bad-rows N] [--seed N]");
+            return;
+        }
+        long start = System.nanoTime();
+        int offers = intOption(args, "--offers", 100_000);
+        feedGenerator(args).write(Paths.get(file));
+        System.out.printf("Generated %s: %d offers in %d ms%n", file, offers, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Выгружает каталог поставщика (по умолчанию основного) из БД в YML
+     */
+    private static void exportFeed(Main app, String[] args) throws IOException {
+        String file = positionalArg(args, 1);
+        if (file == null) {
+            System.out.println("Usage: java -jar app.jar export <file[.gz]> [--supplier id]");
+            return;
+        }
+        String supplierId = optionValue(args, "--supplier");
+        DatabaseService dbService = supplierId == null || supplierId.equals(app.getDbService().getSupplierId())
+                ? app.getDbService() : app.getDbService().forSupplier(supplierId);
+
+        String shopName = Config.getExportShopName() != null ? Config.getExportShopName() : dbService.getSupplierId();
+        String company = Config.getExportShopCompany() != null ? Config.getExportShopCompany() : shopName;
+        long start = System.nanoTime();
+        long offers;
+        try (StageTimer timer = Metrics.stage("export")) {
+            offers = new YmlExporter(dbService, shopName, company, Config.getExportShopUrl()).export(Paths.get(file));
+            timer.rows(offers).bytes(Files.size(Paths.get(file)));
+            timer.success();
+        }
+        System.out.printf("Exported %s: %d offers in %d ms%n", file, offers, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static FeedGenerator feedGenerator(String[] args) {
+        return new FeedGenerator(
+                intOption(args, "--offers", 100_000),
+                intOption(args, "--categories", 1_000),
+                intOption(args, "--currencies", 3),
+                intOption(args, "--bad-rows", 0),
+                intOption(args, "--seed", 42));
+    }
+
+    /**
+     * create, update и повторный update на синтетическом (или указанном) фиде против БД из настроек
+     */
+    private static void runHarness(Main app, String[] args) throws IOException {
+        configureWrites(app, args);
+
+        Path workDir = Files.createTempDirectory("xml-harness");
+        try {
+            String feedArg = positionalArg(args, 1);
+            Path feed;
+            if (feedArg != null) {
+                feed = Paths.get(feedArg);
+            } else {
+                feed = workDir.resolve("feed.xml");
+                feedGenerator(args).write(feed);
+                System.out.println("Generated synthetic feed: " + Files.size(feed) / (1024 * 1024) + " MB");
+            }
+
+            Path cacheDir = workDir.resolve("cache");
+            SyncHarness harness = new SyncHarness(app.getDbService(), app.getSyncService(),
+                    () -> Main.createParser(feed.toString(), cacheDir, app.getDbService().getOfferProjection()),
+                    hasFlag(args, "--pipeline"));
+
+            List<PhaseResult> results = harness.run(hasFlag(args, "--clean"));
+            System.out.print(SyncHarness.format(results));
+            if (!harness.isPeakPerPhase()) {
+                System.out.println("Peak RSS could not be reset between phases, values are since process start");
+            }
+
+            String report = optionValue(args, "--report");
+            if (report != null) {
+                SyncHarness.appendCsv(Paths.get(report), String.join(" ", args), results);
+                System.out.println("Results appended to " + report);
+            }
+            printWriteStats(app);
+        } finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
     private static void handleUnknownCommand(String command) {
         System.out.println("Unknown command: " + command);
 //        HelpPrinter.printHelp();
     }
 
+    private static boolean hasFlag(String[] args, String flag) {
+        for (String arg : args) {
+            if (arg.equalsIgnoreCase(flag)) return true;
+        }
+        return false;
+    }
+
+    private static String optionValue(String[] args, String option) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equalsIgnoreCase(option)) return args[i + 1];
+        }
+        return null;
+    }
+
+    private static int intOption(String[] args, String option, int defaultValue) {
+        String value = optionValue(args, option);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.replace("_", ""));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option " + option + " expects a number: " + value);
+        }
+    }
+
+    /**
+     * Возвращает позиционный аргумент с указанным индексом, не считая флагов вида --name и значений опций
+     */
+    private static String positionalArg(String[] args, int index) {
+        int position = 0;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--")) {
+                if (VALUE_OPTIONS.contains(arg.toLowerCase())) i++;
+                continue;
+            }
+            if (position++ == index) return arg;
+        }
+        return null;
+    }
+
     private static String getEnvOrDefault(String name, String defaultValue) {
         String value = System.getenv(name);
         return value != null ? value : defaultValue;
@@ -0,0 +1,18 @@
+package com.xmlservice.harness;
+
+/**
+ * Замер одной фазы нагрузочного прогона
+ *
+ * @param rows      записанные строки (валюты, категории, предложения), 0 для create
+ * @param peakRssKb пиковый RSS за фазу, -1 если недоступен
+ */
+public record PhaseResult(String phase, long wallMs, long rows, long peakRssKb) {
+
+    public long rowsPerSecond() {
+        return wallMs > 0 ? rows * 1000 / wallMs : rows;
+    }
+
+    public String peakRssMb() {
+        return peakRssKb >= 0 ? String.valueOf(peakRssKb / 1024) : "n/a";
+    }
+}
@@ -0,0 +1,114 @@
+package com.xmlservice.harness;
+
+import com.xmlservice.XmlParser;
+import com.xmlservice.service.DatabaseService;
+import com.xmlservice.service.SyncResult;
+import com.xmlservice.service.SyncService;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Нагрузочный прогон полной синхронизации: create, update и повторный update того же фида.
+ * Для каждой фазы фиксирует время, строки в секунду и пиковый RSS процесса.
+ * <p>
+ * Оба update выполняются принудительно, иначе повторный был бы пропущен проверкой версии фида
+ * и не показал бы стоимость записи неизмененных данных (в т.ч. с --delta).
+ */
+public class SyncHarness {
+
+    private static final List<String> TABLES = List.of("currency", "categories", "offers");
+
+    private final DatabaseService dbService;
+    private final SyncService syncService;
+    private final Supplier<XmlParser> parsers;
+    private final boolean pipeline;
+    private boolean peakResettable;
+
+    /**
+     * @param parsers новый парсер синтетического фида на каждую фазу
+     */
+    public SyncHarness(DatabaseService dbService, SyncService syncService, Supplier<XmlParser> parsers,
+                       boolean pipeline) {
+        this.dbService = dbService;
+        this.syncService = syncService;
+        this.parsers = parsers;
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * @param clean удалить таблицы перед create, чтобы первый update был загрузкой в пустую БД
+     */
+    public List<PhaseResult> run(boolean clean) {
+        if (clean) {
+            dbService.dropTables(TABLES);
+        }
+
+        List<PhaseResult> results = new ArrayList<>();
+        results.add(phase("create", () -> {
+            dbService.createTables(parsers.get().getTableNames());
+            return 0;
+        }));
+        results.add(phase("update", this::sync));
+        results.add(phase("update-unchanged", this::sync));
+        return results;
+    }
+
+    /**
+     * false - ядро не дало сбросить пик RSS, и он считается с запуска процесса
+     */
+    public boolean isPeakPerPhase() {
+        return peakResettable;
+    }
+
+    private long sync() {
+        SyncResult result = syncService.syncAll(parsers.get(), true, pipeline);
+        return result.currencyCount() + result.categoryCount() + result.offerCount();
+    }
+
+    private PhaseResult phase(String name, LongSupplier action) {
+        peakResettable = ProcessMemory.resetPeak();
+        long start = System.nanoTime();
+        long rows = action.getAsLong();
+        long wallMs = (System.nanoTime() - start) / 1_000_000;
+        return new PhaseResult(name, wallMs, rows, ProcessMemory.peakRssKb());
+    }
+
+    public static String format(List<PhaseResult> results) {
+        StringBuilder out = new StringBuilder(String.format("%-18s %10s %12s %10s %12s%n",
+                "phase", "wall ms", "rows", "rows/s", "peak RSS MB"));
+        for (PhaseResult r : results) {
+            out.append(String.format("%-18s %10d %12d %10d %12s%n",
+                    r.phase(), r.wallMs(), r.rows(), r.rowsPerSecond(), r.peakRssMb()));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Дописывает результаты в CSV, чтобы регрессии были видны между прогонами
+     *
+     * @param label описание прогона (размер фида, флаги записи)
+     */
+    public static void appendCsv(Path file, String label, List<PhaseResult> results) throws IOException {
+        boolean header = !Files.exists(file) || Files.size(file) == 0;
+        try (Writer out = Files.newBufferedWriter(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (header) {
+                out.write("timestamp,label,phase,wall_ms,rows,rows_per_sec,peak_rss_kb\n");
+            }
+            String timestamp = Instant.now().toString();
+            for (PhaseResult r : results) {
+                out.write(String.join(",", timestamp, "\"" + label.replace("\"", "\"\"") + "\"", r.phase(),
+                        String.valueOf(r.wallMs()), String.valueOf(r.rows()),
+                        String.valueOf(r.rowsPerSecond()), String.valueOf(r.peakRssKb())) + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.xmlservice.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.xmlservice.catalog.OfferIndex;
+import com.xmlservice.data.OfferData;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * API чтения предложений из {@link OfferIndex}:
+ * <ul>
+ *     <li>GET /offers/{vendorCode}?supplier=id - предложение с ценой</li>
+ *     <li>GET /categories/{categoryId}/offers?supplier=id&amp;offset=0&amp;limit=100 - предложения категории</li>
+ * </ul>
+ * Без supplier используется основной поставщик.
+ */
+public class OfferApi {
+
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+
+    private final OfferIndex index;
+    private final Set<String> suppliers;
+    private final String defaultSupplier;
+
+    public OfferApi(OfferIndex index, List<String> suppliers) {
+        this.index = index;
+        this.suppliers = Set.copyOf(suppliers);
+        this.defaultSupplier = suppliers.get(0);
+    }
+
+    public void register(StatusServer server) {
+        server.addHandler("/offers/", this::handleOffer);
+        server.addHandler("/categories/", this::handleCategory);
+    }
+
+    private void handleOffer(HttpExchange exchange) throws IOException {
+        String vendorCode = pathParam(exchange, "/offers/", "");
+        String supplierId = supplier(exchange);
+        if (supplierId == null || vendorCode == null) return;
+
+        OfferData offer = index.find(supplierId, vendorCode);
+        if (offer == null) {
+            sendError(exchange, 404, "Offer not found: " + vendorCode);
+            return;
+        }
+        StringBuilder json = new StringBuilder(256);
+        appendOffer(json.append("{\"supplier\":").append(quote(supplierId)).append(",\"offer\":"), offer);
+        StatusServer.send(exchange, 200, "application/json", json.append('}').toString());
+    }
+
+    private void handleCategory(HttpExchange exchange) throws IOException {
+        String categoryId = pathParam(exchange, "/categories/", "/offers");
+        String supplierId = supplier(exchange);
+        if (supplierId == null || categoryId == null) return;
+
+        Map<String, String> query = query(exchange);
+        int offset;
+        int limit;
+        try {
+            offset = Integer.parseInt(query.getOrDefault("offset", "0"));
+            limit = Integer.parseInt(query.getOrDefault("limit", String.valueOf(DEFAULT_LIMIT)));
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "offset and limit must be numbers");
+            return;
+        }
+        if (offset < 0 || limit < 1 || limit > MAX_LIMIT) {
+            sendError(exchange, 400, "offset must be >= 0 and limit between 1 and " + MAX_LIMIT);
+            return;
+        }
+
+        List<OfferData> offers = index.findByCategory(supplierId, categoryId);
+        List<OfferData> page = offers.subList(Math.min(offset, offers.size()), Math.min(offset + limit, offers.size()));
+        StringBuilder json = new StringBuilder(128 + page.size() * 160);
+        json.append("{\"supplier\":").append(quote(supplierId))
+                .append(",\"categoryId\":").append(quote(categoryId))
+                .append(",\"total\":").append(offers.size())
+                .append(",\"offset\":").append(offset)
+                .append(",\"limit\":").append(limit)
+                .append(",\"offers\":[");
+        for (int i = 0; i < page.size(); i++) {
+            if (i > 0) json.append(',');
+            appendOffer(json, page.get(i));
+        }
+        StatusServer.send(exchange, 200, "application/json", json.append("]}").toString());
+    }
+
+    /**
+     * Идентификатор из пути prefix{id}suffix; при неверном методе или пути отправляет ошибку и возвращает null
+     */
+    private static String pathParam(HttpExchange exchange, String prefix, String suffix) throws IOException {
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            sendError(exchange, 405, "Method not allowed");
+            return null;
+        }
+        String path = exchange.getRequestURI().getPath();
+        if (!path.startsWith(prefix) || !path.endsWith(suffix) || path.length() <= prefix.length() + suffix.length()) {
+            sendError(exchange, 404, "Not found: " + path);
+            return null;
+        }
+        String id = path.substring(prefix.length(), path.length() - suffix.length());
+        if (id.indexOf('/') >= 0) {
+            sendError(exchange, 404, "Not found: " + path);
+            return null;
+        }
+        return id;
+    }
+
+    private String supplier(HttpExchange exchange) throws IOException {
+        String supplierId = query(exchange).getOrDefault("supplier", defaultSupplier);
+        if (!suppliers.contains(supplierId)) {
+            sendError(exchange, 404, "Unknown supplier: " + supplierId);
+            return null;
+        }
+        if (!index.isLoaded(supplierId)) {
+            sendError(exchange, 503, "Offer index for supplier " + supplierId + " is not loaded yet");
+            return null;
+        }
+        return supplierId;
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq >= 0 ? pair.substring(0, eq) : pair, StandardCharsets.UTF_8);
+            String value = eq >= 0 ? URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8) : "";
+            params.putIfAbsent(name, value);
+        }
+        return params;
+    }
+
+    private static void appendOffer(StringBuilder json, OfferData offer) throws IOException {
+        json.append("{\"vendorCode\":").append(quote(offer.getVendorCode()))
+                .append(",\"name\":").append(quote(offer.getName()))
+                .append(",\"categoryId\":").append(quote(offer.getCategoryId()))
+                .append(",\"price\":");
+        if (offer.hasPrice()) {
+            offer.appendPrice(json, false);
+        } else {
+            json.append("null");
+        }
+        json.append(",\"currency\":").append(quote(offer.getCurrencyCode())).append('}');
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StatusServer.send(exchange, status, "application/json", "{\"error\":" + quote(message) + "}");
+    }
+
+    private static String quote(String value) {
+        if (value == null) return "null";
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return out.append('"').toString();
+    }
+}
@@ -0,0 +1,114 @@
+package com.xmlservice.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики этапов синхронизации (загрузка, разбор, валидация, запись) за время жизни процесса.
+ * Отдаются в формате Prometheus на /metrics и печатаются сводкой после команд CLI.
+ */
+public final class Metrics {
+
+    private static final String PREFIX = "xml_service_stage_";
+    private static final Map<String, StageStats> STAGES = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    static class StageStats {
+        final LongAdder runs = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final AtomicLong lastNanos = new AtomicLong();
+        final AtomicLong lastRows = new AtomicLong();
+    }
+
+    /**
+     * Начинает замер этапа; этап без вызова {@link StageTimer#success()} считается неудачным
+     */
+    public static StageTimer stage(String name) {
+        return new StageTimer(name);
+    }
+
+    static void record(String stage, long nanos, long rows, long bytes, boolean success) {
+        StageStats stats = STAGES.computeIfAbsent(stage, s -> new StageStats());
+        stats.runs.increment();
+        stats.nanos.add(nanos);
+        stats.rows.add(rows);
+        stats.bytes.add(bytes);
+        stats.lastNanos.set(nanos);
+        stats.lastRows.set(rows);
+        if (!success) {
+            stats.failures.increment();
+        }
+    }
+
+    public static boolean isEmpty() {
+        return STAGES.isEmpty();
+    }
+
+    public static void reset() {
+        STAGES.clear();
+    }
+
+    /**
+     * Текстовый формат экспозиции Prometheus
+     */
+    public static String prometheus() {
+        StringBuilder sb = new StringBuilder();
+        counter(sb, "runs_total", "Completed stage executions", s -> s.runs.sum());
+        counter(sb, "failures_total", "Failed stage executions", s -> s.failures.sum());
+        counter(sb, "duration_seconds_total", "Total time spent in the stage", s -> seconds(s.nanos.sum()));
+        counter(sb, "rows_total", "Rows processed by the stage", s -> s.rows.sum());
+        counter(sb, "bytes_total", "Bytes read by the stage", s -> s.bytes.sum());
+        gauge(sb, "last_duration_seconds", "Duration of the last execution", s -> seconds(s.lastNanos.get()));
+        gauge(sb, "last_rows_per_second", "Throughput of the last execution", Metrics::lastRowsPerSecond);
+        return sb.toString();
+    }
+
+    public static String summary() {
+        StringBuilder sb = new StringBuilder();
+        STAGES.forEach((stage, stats) -> sb.append(String.format(
+                "  %-18s %10.3f s %10d rows %12.0f rows/s %12d bytes%s%n",
+                stage, seconds(stats.nanos.sum()), stats.rows.sum(),
+                rowsPerSecond(stats.rows.sum(), stats.nanos.sum()), stats.bytes.sum(),
+                stats.failures.sum() > 0 ? "  failures: " + stats.failures.sum() : "")));
+        return sb.toString();
+    }
+
+    private interface Value {
+        Number get(StageStats stats);
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, Value value) {
+        family(sb, name, help, "counter", value);
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, Value value) {
+        family(sb, name, help, "gauge", value);
+    }
+
+    private static void family(StringBuilder sb, String name, String help, String type, Value value) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+        STAGES.forEach((stage, stats) -> sb.append(PREFIX).append(name)
+                .append("{stage=\"").append(stage).append("\"} ")
+                .append(value.get(stats)).append('\n'));
+    }
+
+    private static double lastRowsPerSecond(StageStats stats) {
+        return rowsPerSecond(stats.lastRows.get(), stats.lastNanos.get());
+    }
+
+    private static double rowsPerSecond(long rows, long nanos) {
+        return nanos > 0 ? rows / seconds(nanos) : 0;
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1_000_000_000.0;
+    }
+}
@@ -0,0 +1,55 @@
+package com.xmlservice.metrics;
+
+/**
+ * Замер одного выполнения этапа, используется в try-with-resources
+ */
+public class StageTimer implements AutoCloseable {
+
+    private final String stage;
+    private final long start = System.nanoTime();
+    private long rows;
+    private long bytes;
+    private boolean success;
+    private boolean closed;
+    private long pausedNanos;
+    private long pausedAt = -1;
+
+    StageTimer(String stage) {
+        this.stage = stage;
+    }
+
+    public StageTimer rows(long rows) {
+        this.rows = rows;
+        return this;
+    }
+
+    public StageTimer bytes(long bytes) {
+        this.bytes = bytes;
+        return this;
+    }
+
+    public void success() {
+        this.success = true;
+    }
+
+    /**
+     * Не учитывает время до {@link #resume()}: этап вызывает код, который замеряется как другой этап
+     */
+    public void pause() {
+        pausedAt = System.nanoTime();
+    }
+
+    public void resume() {
+        if (pausedAt < 0) return;
+        pausedNanos += System.nanoTime() - pausedAt;
+        pausedAt = -1;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        resume();
+        Metrics.record(stage, System.nanoTime() - start - pausedNanos, rows, bytes, success);
+    }
+}
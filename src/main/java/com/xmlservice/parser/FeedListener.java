@@ -0,0 +1,33 @@
+package com.xmlservice.parser;
+
+import com.xmlservice.data.CategoryData;
+import com.xmlservice.data.CurrencyData;
+import com.xmlservice.data.OfferData;
+import com.xmlservice.data.RejectedRow;
+
+/**
+ * Получает сущности фида по мере чтения XML потоковым парсером
+ */
+public interface FeedListener {
+
+    /**
+     * Вызывается при входе в секцию shop, соответствующую таблице (currency/categories/offers)
+     */
+    default void onTable(String tableName) {
+    }
+
+    default void onCurrency(CurrencyData currency) {
+    }
+
+    default void onCategory(CategoryData category) {
+    }
+
+    default void onOffer(OfferData offer) {
+    }
+
+    /**
+     * Строка, которую не удалось разобрать; разбор фида продолжается
+     */
+    default void onRejected(RejectedRow row) {
+    }
+}
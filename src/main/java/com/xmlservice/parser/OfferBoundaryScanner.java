@@ -0,0 +1,240 @@
+package com.xmlservice.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Побайтовый поиск границ дочерних элементов секции offers в XML, который поступает частями.
+ * Разметка должна кодироваться как в ASCII (UTF-8, windows-1251 ...). Комментарии, CDATA,
+ * инструкции обработки, DOCTYPE и значения атрибутов в кавычках пропускаются, поэтому "&lt;offer"
+ * внутри них не считается границей. До первой непустой секции offers запоминаются открытые элементы,
+ * внутри нее сообщается о начале каждого прямого потомка, после ее закрывающего тега поиск прекращается.
+ */
+final class OfferBoundaryScanner {
+
+    interface Listener {
+
+        /**
+         * Открывающий тег секции offers закончился, ее содержимое начинается с region.contentStart()
+         */
+        void onOffersStart(Region region);
+
+        /**
+         * Прямой потомок offers начинается с '&lt;' в позиции position
+         */
+        void onChild(long position);
+
+        /**
+         * Закрывающий тег offers занимает байты [start, end)
+         */
+        void onOffersEnd(long start, long end);
+    }
+
+    /**
+     * Открывающий тег элемента-предка offers: байты [start, end) и имя
+     */
+    record OpenTag(long start, long end, byte[] name) {
+    }
+
+    /**
+     * @param rootStart    начало корневого элемента (до него - пролог: объявление XML, DOCTYPE, комментарии)
+     * @param offersStart  начало открывающего тега offers
+     * @param contentStart первый байт после открывающего тега offers
+     * @param ancestors    открытые элементы от корня до родителя offers
+     */
+    record Region(long rootStart, long offersStart, long contentStart, List<OpenTag> ancestors) {
+    }
+
+    private static final byte[] OFFERS = "offers".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int TEXT = 0;
+    private static final int MARKUP = 1;
+    private static final int OPEN_NAME = 2;
+    private static final int OPEN_TAG = 3;
+    private static final int CLOSE_TAG = 4;
+    private static final int BANG = 5;
+    private static final int COMMENT = 6;
+    private static final int CDATA = 7;
+    private static final int PI = 8;
+    private static final int DOCTYPE = 9;
+    private static final int DONE = 10;
+
+    private final Listener listener;
+    private final List<OpenTag> ancestors = new ArrayList<>();
+    private final ByteArrayOutputStream tagName = new ByteArrayOutputStream();
+
+    private int state = TEXT;
+    private long tagStart;
+    private long rootStart = -1;
+    private byte quote;
+    private byte previous;
+    private int run;
+    private int bracketDepth;
+    private boolean inOffers;
+    private int depth;
+
+    OfferBoundaryScanner(Listener listener) {
+        this.listener = listener;
+    }
+
+    boolean isDone() {
+        return state == DONE;
+    }
+
+    /**
+     * Обрабатывает очередную часть документа; offset - позиция buffer[from] в документе
+     */
+    void scan(byte[] buffer, int from, int length, long offset) {
+        for (int i = from; i < from + length && state != DONE; i++) {
+            byte b = buffer[i];
+            long position = offset + (i - from);
+            switch (state) {
+                case TEXT -> {
+                    if (b == '<') {
+                        state = MARKUP;
+                        tagStart = position;
+                    }
+                }
+                case MARKUP -> {
+                    if (b == '/') {
+                        state = CLOSE_TAG;
+                    } else if (b == '!') {
+                        state = BANG;
+                    } else if (b == '?') {
+                        state = PI;
+                        previous = 0;
+                    } else {
+                        state = OPEN_NAME;
+                        tagName.reset();
+                        openName(b, position);
+                    }
+                }
+                case OPEN_NAME -> openName(b, position);
+                case OPEN_TAG -> openTag(b, position);
+                case CLOSE_TAG -> {
+                    if (b == '>') closeTag(position + 1);
+                }
+                case BANG -> {
+                    // "<!--" - комментарий, "<![CDATA[" - CDATA, иначе DOCTYPE
+                    if (b == '-') {
+                        state = COMMENT;
+                        run = -1;
+                    } else if (b == '[') {
+                        state = CDATA;
+                        run = 0;
+                    } else {
+                        state = DOCTYPE;
+                        quote = 0;
+                        bracketDepth = 0;
+                    }
+                }
+                case COMMENT -> {
+                    if (b == '-') {
+                        run++;
+                    } else {
+                        if (b == '>' && run >= 2) state = TEXT;
+                        run = 0;
+                    }
+                }
+                case CDATA -> {
+                    if (b == ']') {
+                        run++;
+                    } else {
+                        if (b == '>' && run >= 2) state = TEXT;
+                        run = 0;
+                    }
+                }
+                case PI -> {
+                    if (b == '>' && previous == '?') state = TEXT;
+                    previous = b;
+                }
+                case DOCTYPE -> doctype(b);
+                default -> {
+                }
+            }
+        }
+    }
+
+    private void openName(byte b, long position) {
+        if (b == '>' || b == '/' || isWhitespace(b)) {
+            state = OPEN_TAG;
+            quote = 0;
+            previous = 0;
+            openTag(b, position);
+        } else if (!inOffers) {
+            tagName.write(b);
+        }
+    }
+
+    private void openTag(byte b, long position) {
+        if (quote != 0) {
+            if (b == quote) {
+                quote = 0;
+                previous = b;
+            }
+            return;
+        }
+        if (b == '"' || b == '\'') {
+            quote = b;
+        } else if (b == '>') {
+            state = TEXT;
+            endOpenTag(previous == '/', position + 1);
+        } else if (!isWhitespace(b)) {
+            previous = b;
+        }
+    }
+
+    private void endOpenTag(boolean selfClosing, long end) {
+        if (inOffers) {
+            if (depth == 0) listener.onChild(tagStart);
+            if (!selfClosing) depth++;
+            return;
+        }
+        if (rootStart < 0) rootStart = tagStart;
+        if (selfClosing) return;
+
+        byte[] name = tagName.toByteArray();
+        if (Arrays.equals(name, OFFERS)) {
+            inOffers = true;
+            listener.onOffersStart(new Region(rootStart, tagStart, end, List.copyOf(ancestors)));
+        } else {
+            ancestors.add(new OpenTag(tagStart, end, name));
+        }
+    }
+
+    private void closeTag(long end) {
+        state = TEXT;
+        if (!inOffers) {
+            if (!ancestors.isEmpty()) ancestors.remove(ancestors.size() - 1);
+        } else if (depth > 0) {
+            depth--;
+        } else {
+            state = DONE;
+            listener.onOffersEnd(tagStart, end);
+        }
+    }
+
+    /**
+     * DOCTYPE заканчивается на '&gt;' вне кавычек и внутреннего подмножества [...]
+     */
+    private void doctype(byte b) {
+        if (quote != 0) {
+            if (b == quote) quote = 0;
+        } else if (b == '"' || b == '\'') {
+            quote = b;
+        } else if (b == '[') {
+            bracketDepth++;
+        } else if (b == ']') {
+            bracketDepth--;
+        } else if (b == '>' && bracketDepth == 0) {
+            state = TEXT;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -0,0 +1,127 @@
+package com.xmlservice.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Какие поля предложения читает парсер. Основные поля (атрибут id, name, categoryId, price, currencyId)
+ * читаются всегда; дополнительные задаются списком "колонка=элемент" или "колонка=@атрибут"
+ * (например oldprice, available=@available, url) и хранятся в одноименных колонках offers.
+ * Все остальные дочерние элементы offer пропускаются, не превращаясь ни в строки, ни в узлы дерева.
+ */
+public final class OfferProjection {
+
+    public static final OfferProjection BASE = new OfferProjection(List.of());
+
+    private static final Set<String> BASE_ELEMENTS = Set.of("name", "categoryId", "price", "currencyId");
+    private static final Set<String> RESERVED_COLUMNS = Set.of("supplier_id", "vendorcode", "name", "category_id",
+            "price", "currency_code", "row_hash", "sync_generation", "price_base", "deleted_at");
+    private static final Pattern COLUMN = Pattern.compile("[a-z_][a-z0-9_]{0,62}");
+    private static final Pattern SOURCE = Pattern.compile("[A-Za-z_][A-Za-z0-9_.-]*");
+
+    /**
+     * @param source    имя дочернего элемента или атрибута offer
+     * @param attribute true - source это атрибут offer
+     */
+    public record Extra(String column, String source, boolean attribute) {
+    }
+
+    private final List<Extra> extras;
+    private final Map<String, Integer> elementSlots = new HashMap<>();
+
+    private OfferProjection(List<Extra> extras) {
+        this.extras = List.copyOf(extras);
+        for (int i = 0; i < extras.size(); i++) {
+            if (!extras.get(i).attribute()) elementSlots.put(extras.get(i).source(), i);
+        }
+    }
+
+    /**
+     * Разбирает список дополнительных полей; без "колонка=" колонка называется как элемент (атрибут)
+     * в нижнем регистре. Пустая строка или null - только основные поля.
+     */
+    public static OfferProjection parse(String spec) {
+        if (spec == null || spec.isBlank()) return BASE;
+
+        List<Extra> extras = new ArrayList<>();
+        Set<String> columns = new HashSet<>();
+        for (String item : spec.split(",")) {
+            String entry = item.trim();
+            if (entry.isEmpty()) continue;
+
+            int eq = entry.indexOf('=');
+            String source = (eq >= 0 ? entry.substring(eq + 1) : entry).trim();
+            boolean attribute = source.startsWith("@");
+            if (attribute) source = source.substring(1);
+            String column = eq >= 0 ? entry.substring(0, eq).trim() : source.toLowerCase().replace('-', '_').replace('.', '_');
+
+            if (!SOURCE.matcher(source).matches()) {
+                throw new IllegalArgumentException("Invalid offer field: " + entry);
+            }
+            if (!attribute && BASE_ELEMENTS.contains(source)) {
+                throw new IllegalArgumentException("Offer field " + source + " is always read");
+            }
+            if (!COLUMN.matcher(column).matches() || RESERVED_COLUMNS.contains(column)) {
+                throw new IllegalArgumentException("Invalid column for offer field " + entry + ": " + column
+                        + " (expected lowercase latin letters, digits or '_', not an offers key column)");
+            }
+            if (!columns.add(column)) {
+                throw new IllegalArgumentException("Offer column " + column + " is mapped more than once");
+            }
+            extras.add(new Extra(column, source, attribute));
+        }
+        return extras.isEmpty() ? BASE : new OfferProjection(extras);
+    }
+
+    public List<Extra> getExtras() {
+        return extras;
+    }
+
+    public int size() {
+        return extras.size();
+    }
+
+    public boolean isEmpty() {
+        return extras.isEmpty();
+    }
+
+    public List<String> getColumns() {
+        return extras.stream().map(Extra::column).toList();
+    }
+
+    /**
+     * Колонки для текста SQL: в кавычках, поэтому имена вроде group или order не конфликтуют с ключевыми словами
+     */
+    public List<String> getSqlColumns() {
+        return extras.stream().map(extra -> '"' + extra.column() + '"').toList();
+    }
+
+    /**
+     * Позиция дополнительного поля из дочернего элемента offer, -1 если элемент не нужен
+     */
+    public int elementSlot(String element) {
+        Integer slot = elementSlots.get(element);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * Нужен ли парсеру дочерний элемент offer
+     */
+    public boolean keepsElement(String element) {
+        return BASE_ELEMENTS.contains(element) || elementSlots.containsKey(element);
+    }
+
+    /**
+     * Значение дополнительного поля как оно хранится в БД: без пробелов по краям, пустое - null
+     */
+    public static String normalize(String value) {
+        if (value == null) return null;
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+}
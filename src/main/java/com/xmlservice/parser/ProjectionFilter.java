@@ -0,0 +1,83 @@
+package com.xmlservice.parser;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * SAX фильтр перед XmlSlurper: не передает дальше дочерние элементы offers/offer, которых нет
+ * в {@link OfferProjection}, вместе с их поддеревом и текстом. Дерево документа в режиме tree
+ * содержит только читаемые поля предложений.
+ */
+public class ProjectionFilter extends XMLFilterImpl {
+
+    private final OfferProjection projection;
+    private final Deque<String> path = new ArrayDeque<>();
+    private int skipDepth;
+
+    public ProjectionFilter(XMLReader parent, OfferProjection projection) {
+        super(parent);
+        this.projection = projection;
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        path.clear();
+        skipDepth = 0;
+        super.startDocument();
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        if (skipDepth > 0) {
+            skipDepth++;
+            return;
+        }
+        if (isOfferChild() && !projection.keepsElement(localName)) {
+            skipDepth = 1;
+            return;
+        }
+        path.push(localName);
+        super.startElement(uri, localName, qName, atts);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (skipDepth > 0) {
+            skipDepth--;
+            return;
+        }
+        path.pop();
+        super.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (skipDepth == 0) super.characters(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        if (skipDepth == 0) super.ignorableWhitespace(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+        if (skipDepth == 0) super.processingInstruction(target, data);
+    }
+
+    /**
+     * Текущий элемент - offer внутри offers
+     */
+    private boolean isOfferChild() {
+        if (path.size() < 2 || !"offer".equals(path.peek())) return false;
+        String offer = path.pop();
+        boolean inOffers = "offers".equals(path.peek());
+        path.push(offer);
+        return inOffers;
+    }
+}
@@ -0,0 +1,503 @@
+package com.xmlservice.parser;
+
+import com.xmlservice.data.CategoryData;
+import com.xmlservice.data.CurrencyData;
+import com.xmlservice.data.OfferData;
+import com.xmlservice.data.RejectedRow;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Параллельный разбор фида. Несжатый файл фида делится на части прямо на диске, распакованный поток
+ * сначала копируется во временный файл. По мере чтения секция offers делится на части по границам предложений
+ * ({@link OfferBoundaryScanner}), и каждая прочитанная часть разбирается на ForkJoinPool позиционным чтением
+ * файла, пока поиск границ продолжается. Часть оборачивается в пролог и открывающие теги предков offers и самой
+ * offers, поэтому объявления пространств имен и сущностей действуют, как в целом фиде.
+ * Результаты частей передаются слушателю в порядке фида; одновременно в работе не больше 2 * threads частей,
+ * поэтому память ограничена, как при потоковом разборе. Начало фида до offers (валюты, категории) и остаток
+ * после нее разбираются {@link StaxFeedReader} как отдельные документы с теми же корневыми элементами.
+ * Фид в кодировке, не совместимой с ASCII (UTF-16), разбирается последовательно.
+ */
+public class ShardedFeedReader {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int PROLOG_PROBE = 4096;
+    private static final byte[] OFFERS_CLOSE = "</offers>".getBytes(StandardCharsets.US_ASCII);
+    private static final XMLInputFactory PROBE_FACTORY = createProbeFactory();
+
+    private final OfferProjection projection;
+    private final int threads;
+    private final int shardBytes;
+
+    /**
+     * @param threads    потоков разбора частей
+     * @param shardBytes примерный размер части секции offers в байтах
+     */
+    public ShardedFeedReader(OfferProjection projection, int threads, int shardBytes) {
+        if (threads < 1 || shardBytes < 1) {
+            throw new IllegalArgumentException("Parse threads and shard size must be positive");
+        }
+        this.projection = projection;
+        this.threads = threads;
+        this.shardBytes = shardBytes;
+    }
+
+    private static XMLInputFactory createProbeFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Разбирает распакованный поток фида, копируя его во временный файл
+     */
+    public void read(InputStream is, FeedListener listener) throws IOException, XMLStreamException {
+        BufferedInputStream in = new BufferedInputStream(is, CHUNK_SIZE);
+        in.mark(PROLOG_PROBE);
+        byte[] prolog = in.readNBytes(PROLOG_PROBE);
+        in.reset();
+        if (!isAsciiCompatible(prolog)) {
+            new StaxFeedReader(projection).read(in, listener);
+            return;
+        }
+
+        Path spool = Files.createTempFile("feed-spool-", ".xml");
+        try (ShardedRead read = new ShardedRead(spool, in)) {
+            read.run(listener);
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    /**
+     * Разбирает несжатый файл фида на месте, без копии
+     */
+    public void read(Path file, FeedListener listener) throws IOException, XMLStreamException {
+        byte[] prolog;
+        try (InputStream in = Files.newInputStream(file)) {
+            prolog = in.readNBytes(PROLOG_PROBE);
+        }
+        if (!isAsciiCompatible(prolog)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file), CHUNK_SIZE)) {
+                new StaxFeedReader(projection).read(in, listener);
+            }
+            return;
+        }
+
+        try (ShardedRead read = new ShardedRead(file, null)) {
+            read.run(listener);
+        }
+    }
+
+    /**
+     * Размечена ли кодировка фида как ASCII: только тогда границы ищутся по байтам
+     */
+    private static boolean isAsciiCompatible(byte[] prolog) {
+        try {
+            XMLStreamReader reader = PROBE_FACTORY.createXMLStreamReader(new ByteArrayInputStream(prolog));
+            String encoding = reader.getCharacterEncodingScheme() != null
+                    ? reader.getCharacterEncodingScheme() : reader.getEncoding();
+            reader.close();
+            Charset charset = encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8;
+            byte[] markup = "<offer id='1'/>".getBytes(StandardCharsets.US_ASCII);
+            return Arrays.equals(new String(markup, StandardCharsets.US_ASCII).getBytes(charset), markup);
+        } catch (XMLStreamException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Часть секции offers: позиция в фиде и разобранные строки (OfferData и RejectedRow в порядке фида)
+     */
+    private record Shard(long start, Future<List<Object>> result) {
+    }
+
+    private static final Shard END_OF_OFFERS = new Shard(-1, null);
+
+    /**
+     * Один разбор: поток чтения фида (с копированием в файл, если фид пришел потоком) со сканером границ
+     * и разбор частей на пуле
+     */
+    private final class ShardedRead implements OfferBoundaryScanner.Listener, AutoCloseable {
+
+        private final Path file;
+        private final InputStream in;
+        private final FileChannel channel;
+        private final ForkJoinPool pool = new ForkJoinPool(threads);
+        private final Semaphore window = new Semaphore(threads * 2);
+        private final BlockingQueue<Shard> shards = new LinkedBlockingQueue<>();
+        private final CompletableFuture<OfferBoundaryScanner.Region> region = new CompletableFuture<>();
+        private final CompletableFuture<Long> spooled = new CompletableFuture<>();
+        private final OfferBoundaryScanner scanner = new OfferBoundaryScanner(this);
+        private final Thread spooler;
+
+        // поток чтения фида
+        private volatile byte[] prolog;
+        private volatile byte[] opening;
+        private volatile byte[] closing;
+        private long shardStart = -1;
+        private volatile long offersEnd = -1;
+
+        /**
+         * @param in поток фида для копирования в file, null - фид уже в file
+         */
+        ShardedRead(Path file, InputStream in) throws IOException {
+            this.file = file;
+            this.in = in;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.spooler = Thread.ofPlatform().name("feed-spool").daemon().unstarted(this::readFeed);
+        }
+
+        void run(FeedListener listener) throws IOException, XMLStreamException {
+            spooler.start();
+            OfferBoundaryScanner.Region offers = await(region);
+            if (offers == null) {
+                long size = await(spooled);
+                new StaxFeedReader(projection).read(new ChannelStream(channel, 0, size), listener);
+                return;
+            }
+
+            HeadListener head = new HeadListener(listener);
+            new StaxFeedReader(projection).read(headDocument(offers), head);
+            if (head.offersStarted) {
+                emitShards(listener);
+            } else {
+                // offers не в shop: последовательный разбор эту секцию тоже пропустил бы
+                drainShards();
+            }
+
+            long size = await(spooled);
+            if (offersEnd < 0) {
+                throw new XMLStreamException("Unexpected end of feed inside <offers>");
+            }
+            new StaxFeedReader(projection).read(tailDocument(offers, size), listener);
+        }
+
+        private void readFeed() {
+            try {
+                spooled.complete(in != null ? spool() : scan());
+            } catch (Throwable e) {
+                spooled.completeExceptionally(e);
+            } finally {
+                region.complete(null);
+                shards.add(END_OF_OFFERS);
+            }
+        }
+
+        /**
+         * Копирует поток в файл; сканер получает только записанные байты, найденную часть можно сразу читать
+         *
+         * @return размер фида
+         */
+        private long spool() throws IOException {
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                long position = 0;
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+                    while (chunk.hasRemaining()) {
+                        out.write(chunk);
+                    }
+                    if (!scanner.isDone()) scanner.scan(buffer, 0, n, position);
+                    position += n;
+                }
+                return position;
+            }
+        }
+
+        /**
+         * Ищет границы в файле фида; после конца секции offers файл дальше не читается
+         *
+         * @return размер фида
+         */
+        private long scan() throws IOException {
+            long size = channel.size();
+            InputStream source = new ChannelStream(channel, 0, size);
+            byte[] buffer = new byte[CHUNK_SIZE];
+            long position = 0;
+            int n;
+            while (!scanner.isDone() && (n = source.read(buffer)) > 0) {
+                scanner.scan(buffer, 0, n, position);
+                position += n;
+            }
+            return size;
+        }
+
+        @Override
+        public void onOffersStart(OfferBoundaryScanner.Region offers) {
+            try {
+                prolog = readBytes(0, offers.rootStart());
+                ByteArrayOutputStream tags = new ByteArrayOutputStream();
+                tags.writeBytes(prolog);
+                for (OfferBoundaryScanner.OpenTag tag : offers.ancestors()) {
+                    tags.writeBytes(readBytes(tag.start(), tag.end()));
+                }
+                tags.writeBytes(readBytes(offers.offersStart(), offers.contentStart()));
+                opening = tags.toByteArray();
+            } catch (IOException e) {
+                throw new RuntimeException("Error reading feed prolog: " + e.getMessage(), e);
+            }
+            closing = closingTags(offers);
+            region.complete(offers);
+        }
+
+        @Override
+        public void onChild(long position) {
+            if (shardStart < 0) {
+                shardStart = position;
+            } else if (position - shardStart >= shardBytes) {
+                submit(shardStart, position);
+                shardStart = position;
+            }
+        }
+
+        @Override
+        public void onOffersEnd(long start, long end) {
+            if (shardStart >= 0) {
+                submit(shardStart, start);
+                shardStart = -1;
+            }
+            offersEnd = end;
+        }
+
+        /**
+         * Отдает часть [start, end) пулу, ожидая, пока слушатель заберет одну из предыдущих
+         */
+        private void submit(long start, long end) {
+            try {
+                window.acquire();
+                shards.add(new Shard(start, pool.submit(() -> parseShard(start, end))));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while splitting offers", e);
+            }
+        }
+
+        /**
+         * Разбирает часть [start, end), читая ее из файла по позициям (без отображения в память)
+         */
+        private List<Object> parseShard(long start, long end) throws XMLStreamException {
+            List<Object> rows = new ArrayList<>();
+            InputStream document = concat(new ByteArrayInputStream(opening),
+                    new BufferedInputStream(new ChannelStream(channel, start, end), CHUNK_SIZE),
+                    new ByteArrayInputStream(closing));
+            new StaxFeedReader(projection).readOfferFragment(document, new FeedListener() {
+                @Override
+                public void onOffer(OfferData offer) {
+                    rows.add(offer);
+                }
+
+                @Override
+                public void onRejected(RejectedRow row) {
+                    rows.add(row);
+                }
+            });
+            return rows;
+        }
+
+        private void emitShards(FeedListener listener) throws XMLStreamException {
+            for (Shard shard = takeShard(); shard != END_OF_OFFERS; shard = takeShard()) {
+                List<Object> rows;
+                try {
+                    rows = shard.result().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new XMLStreamException("Interrupted while parsing offers", e);
+                } catch (ExecutionException e) {
+                    throw new XMLStreamException("Error parsing offers at byte " + shard.start() + ": "
+                            + e.getCause().getMessage(), e.getCause());
+                }
+                window.release();
+                for (Object row : rows) {
+                    if (row instanceof OfferData offer) {
+                        listener.onOffer(offer);
+                    } else {
+                        listener.onRejected((RejectedRow) row);
+                    }
+                }
+            }
+        }
+
+        private void drainShards() throws XMLStreamException {
+            for (Shard shard = takeShard(); shard != END_OF_OFFERS; shard = takeShard()) {
+                shard.result().cancel(true);
+                window.release();
+            }
+        }
+
+        private Shard takeShard() throws XMLStreamException {
+            try {
+                return shards.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XMLStreamException("Interrupted while parsing offers", e);
+            }
+        }
+
+        /**
+         * Начало фида до содержимого offers, пустая секция offers и закрывающие теги предков
+         */
+        private InputStream headDocument(OfferBoundaryScanner.Region offers) {
+            return concat(new ChannelStream(channel, 0, offers.contentStart()), new ByteArrayInputStream(closing));
+        }
+
+        /**
+         * Закрывающие теги offers и ее предков
+         */
+        private byte[] closingTags(OfferBoundaryScanner.Region offers) {
+            ByteArrayOutputStream tags = new ByteArrayOutputStream();
+            tags.writeBytes(OFFERS_CLOSE);
+            List<OfferBoundaryScanner.OpenTag> ancestors = offers.ancestors();
+            for (int i = ancestors.size() - 1; i >= 0; i--) {
+                tags.write('<');
+                tags.write('/');
+                tags.writeBytes(ancestors.get(i).name());
+                tags.write('>');
+            }
+            return tags.toByteArray();
+        }
+
+        /**
+         * Пролог, открывающие теги предков offers и остаток фида после закрывающего тега offers
+         */
+        private InputStream tailDocument(OfferBoundaryScanner.Region offers, long size) throws IOException {
+            ByteArrayOutputStream opening = new ByteArrayOutputStream();
+            opening.writeBytes(prolog);
+            for (OfferBoundaryScanner.OpenTag tag : offers.ancestors()) {
+                opening.writeBytes(readBytes(tag.start(), tag.end()));
+            }
+            return concat(new ByteArrayInputStream(opening.toByteArray()), new ChannelStream(channel, offersEnd, size));
+        }
+
+        private byte[] readBytes(long start, long end) throws IOException {
+            return new ChannelStream(channel, start, end).readAllBytes();
+        }
+
+        private <T> T await(CompletableFuture<T> future) throws IOException, XMLStreamException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XMLStreamException("Interrupted while reading feed", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) throw io;
+                throw new IOException("Error reading feed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            spooler.interrupt();
+            pool.shutdownNow();
+            try {
+                spooler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Пропускает события начала фида, запоминая, дошел ли разбор до секции offers в shop
+     */
+    private static final class HeadListener implements FeedListener {
+
+        private final FeedListener delegate;
+        private boolean offersStarted;
+
+        HeadListener(FeedListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onTable(String tableName) {
+            if ("offers".equals(tableName)) offersStarted = true;
+            delegate.onTable(tableName);
+        }
+
+        @Override
+        public void onCurrency(CurrencyData currency) {
+            delegate.onCurrency(currency);
+        }
+
+        @Override
+        public void onCategory(CategoryData category) {
+            delegate.onCategory(category);
+        }
+
+        @Override
+        public void onOffer(OfferData offer) {
+            delegate.onOffer(offer);
+        }
+
+        @Override
+        public void onRejected(RejectedRow row) {
+            delegate.onRejected(row);
+        }
+    }
+
+    private static InputStream concat(InputStream... parts) {
+        return new SequenceInputStream(Collections.enumeration(List.of(parts)));
+    }
+
+    /**
+     * Байты [position, end) файла; позиционное чтение не мешает потоку копирования
+     */
+    private static final class ChannelStream extends InputStream {
+
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        ChannelStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (position >= end) return -1;
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n < 0) return -1;
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.xmlservice.parser;
+
+import com.xmlservice.data.CategoryData;
+import com.xmlservice.data.CurrencyData;
+import com.xmlservice.data.OfferData;
+import com.xmlservice.data.RejectedRow;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Потоковый (StAX) разбор YML фида с постоянным потреблением памяти.
+ * Сущности передаются в {@link FeedListener} сразу после чтения и нигде не накапливаются.
+ * Идентификаторы категорий и валют берутся из словаря, цена разбирается из буфера без промежуточных строк.
+ * Из предложения читаются только поля {@link OfferProjection}; текст остальных элементов не склеивается
+ * (разбор без coalescing) и не превращается в строки, поэтому длинные description и param почти бесплатны.
+ * Валюта или предложение с нечитаемым курсом (ценой) передается в {@link FeedListener#onRejected}, разбор продолжается.
+ */
+public class StaxFeedReader {
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final OfferProjection projection;
+    private final StringDictionary ids = new StringDictionary();
+    private final StringBuilder textBuffer = new StringBuilder(64);
+
+    public StaxFeedReader() {
+        this(OfferProjection.BASE);
+    }
+
+    public StaxFeedReader(OfferProjection projection) {
+        this.projection = projection;
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_VALIDATING, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    public void read(InputStream is, FeedListener listener) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(is);
+        try {
+            if (moveToShop(reader)) {
+                readShop(reader, listener);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Таблицы фида по секциям shop. Чтение останавливается, как только найдены все три секции: по порядку
+     * элементов shop в YML это открывающий тег offers, поэтому предложения не проходятся. Если какой-то секции
+     * нет, содержимое остальных пропускается без разбора до конца shop.
+     */
+    public List<String> readTableNames(InputStream is) throws XMLStreamException {
+        List<String> tables = new ArrayList<>(3);
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(is);
+        try {
+            if (!moveToShop(reader)) return tables;
+            while (nextChild(reader)) {
+                String table = switch (reader.getLocalName()) {
+                    case "currencies" -> "currency";
+                    case "categories", "offers" -> reader.getLocalName();
+                    default -> null;
+                };
+                if (table != null && !tables.contains(table)) tables.add(table);
+                if (tables.size() == 3) break;
+                skipElement(reader);
+            }
+            return tables;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Разбирает часть секции offers фида (см. {@link ShardedFeedReader}): документ из открывающих тегов предков
+     * offers, самой offers и ее части, в каждом элементе до offers ровно один дочерний
+     */
+    void readOfferFragment(InputStream is, FeedListener listener) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(is);
+        try {
+            while (nextChild(reader)) {
+                if ("offers".equals(reader.getLocalName())) {
+                    readOffers(reader, listener);
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Ищет узел shop: корневой, дочерний к корню или yml_catalog/shop
+     */
+    private boolean moveToShop(XMLStreamReader reader) throws XMLStreamException {
+        if (!nextChild(reader)) return false;
+        if ("shop".equals(reader.getLocalName())) return true;
+
+        while (nextChild(reader)) {
+            String name = reader.getLocalName();
+            if ("shop".equals(name)) return true;
+
+            if ("yml_catalog".equals(name)) {
+                while (nextChild(reader)) {
+                    if ("shop".equals(reader.getLocalName())) return true;
+                    skipElement(reader);
+                }
+            } else {
+                skipElement(reader);
+            }
+        }
+        return false;
+    }
+
+    private void readShop(XMLStreamReader reader, FeedListener listener) throws XMLStreamException {
+        while (nextChild(reader)) {
+            switch (reader.getLocalName()) {
+                case "currencies" -> {
+                    listener.onTable("currency");
+                    readCurrencies(reader, listener);
+                }
+                case "categories" -> {
+                    listener.onTable("categories");
+                    readCategories(reader, listener);
+                }
+                case "offers" -> {
+                    listener.onTable("offers");
+                    readOffers(reader, listener);
+                }
+                default -> skipElement(reader);
+            }
+        }
+    }
+
+    private void readCurrencies(XMLStreamReader reader, FeedListener listener) throws XMLStreamException {
+        while (nextChild(reader)) {
+            if ("currency".equals(reader.getLocalName())) {
+                String code = reader.getAttributeValue(null, "id");
+                String rateStr = reader.getAttributeValue(null, "rate");
+
+                if (code != null && rateStr != null) {
+                    // код без пробелов по краям и для карантина, как при разборе дерева
+                    String id = ids.get(code);
+                    try {
+                        listener.onCurrency(new CurrencyData(id, new BigDecimal(rateStr.trim())));
+                    } catch (NumberFormatException e) {
+                        listener.onRejected(RejectedRow.invalidValue("currency", id, "rate", rateStr));
+                    }
+                }
+            }
+            skipElement(reader);
+        }
+    }
+
+    private void readCategories(XMLStreamReader reader, FeedListener listener) throws XMLStreamException {
+        while (nextChild(reader)) {
+            if (!"category".equals(reader.getLocalName())) {
+                skipElement(reader);
+                continue;
+            }
+            String id = reader.getAttributeValue(null, "id");
+            String name = readText(reader);
+
+            if (id != null && !name.isEmpty()) {
+                listener.onCategory(new CategoryData(ids.get(id), name.trim()));
+            }
+        }
+    }
+
+    private void readOffers(XMLStreamReader reader, FeedListener listener) throws XMLStreamException {
+        while (nextChild(reader)) {
+            if ("offer".equals(reader.getLocalName())) {
+                readOffer(reader, listener);
+            } else {
+                skipElement(reader);
+            }
+        }
+    }
+
+    private void readOffer(XMLStreamReader reader, FeedListener listener) throws XMLStreamException {
+        String vendorCode = reader.getAttributeValue(null, "id");
+        OfferData offer = new OfferData();
+        String name = null;
+        String invalidPrice = null;
+        String[] extras = readExtraAttributes(reader);
+
+        while (nextChild(reader)) {
+            String element = reader.getLocalName();
+            switch (element) {
+                case "name" -> name = readText(reader);
+                case "categoryId" -> offer.setCategoryId(ids.get(readTextBuffer(reader)));
+                case "price" -> {
+                    CharSequence price = readTextBuffer(reader);
+                    try {
+                        offer.setPrice(price);
+                    } catch (NumberFormatException e) {
+                        invalidPrice = price.toString();
+                    }
+                }
+                case "currencyId" -> offer.setCurrencyCode(ids.get(readTextBuffer(reader)));
+                default -> {
+                    int slot = extras != null ? projection.elementSlot(element) : -1;
+                    if (slot >= 0) {
+                        extras[slot] = OfferProjection.normalize(readText(reader));
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+            }
+        }
+        offer.setExtras(extras);
+
+        if (vendorCode == null) return;
+        if (invalidPrice != null) {
+            listener.onRejected(RejectedRow.invalidValue("offers", vendorCode.trim(), "price", invalidPrice));
+            return;
+        }
+        offer.setVendorCode(vendorCode.trim());
+        offer.setName(name != null ? name.trim() : "");
+        listener.onOffer(offer);
+    }
+
+    /**
+     * Массив дополнительных полей с уже прочитанными атрибутами offer; null, если их нет в проекции
+     */
+    private String[] readExtraAttributes(XMLStreamReader reader) {
+        if (projection.isEmpty()) return null;
+        String[] extras = new String[projection.size()];
+        for (int i = 0; i < extras.length; i++) {
+            OfferProjection.Extra extra = projection.getExtras().get(i);
+            if (extra.attribute()) {
+                extras[i] = OfferProjection.normalize(reader.getAttributeValue(null, extra.source()));
+            }
+        }
+        return extras;
+    }
+
+    /**
+     * Переходит к следующему дочернему элементу текущего узла.
+     * Возвращает false, если достигнут конец текущего узла или документа.
+     */
+    private boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) return true;
+            if (event == XMLStreamConstants.END_ELEMENT) return false;
+        }
+        return false;
+    }
+
+    /**
+     * Пропускает текущий элемент вместе с поддеревом, останавливаясь на его закрывающем теге
+     */
+    private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+        }
+    }
+
+    /**
+     * Читает весь текст текущего элемента в переиспользуемый буфер, не создавая строку;
+     * буфер действителен до следующего вызова
+     */
+    private CharSequence readTextBuffer(XMLStreamReader reader) throws XMLStreamException {
+        textBuffer.setLength(0);
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT -> depth++;
+                case XMLStreamConstants.END_ELEMENT -> depth--;
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE ->
+                        textBuffer.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                // getTextCharacters для ссылки на сущность не определен
+                case XMLStreamConstants.ENTITY_REFERENCE -> textBuffer.append(reader.getText());
+                default -> {
+                }
+            }
+        }
+        return textBuffer;
+    }
+
+    /**
+     * Читает весь текст текущего элемента, включая текст вложенных узлов
+     */
+    private String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = null;
+        String single = null;
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT -> depth++;
+                case XMLStreamConstants.END_ELEMENT -> depth--;
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA,
+                     XMLStreamConstants.SPACE, XMLStreamConstants.ENTITY_REFERENCE -> {
+                    String chunk = reader.getText();
+                    if (single == null && text == null) {
+                        single = chunk;
+                    } else {
+                        if (text == null) text = new StringBuilder(single);
+                        text.append(chunk);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        if (text != null) return text.toString();
+        return single != null ? single : "";
+    }
+}
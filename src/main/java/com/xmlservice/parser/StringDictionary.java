@@ -0,0 +1,89 @@
+package com.xmlservice.parser;
+
+/**
+ * Словарь повторяющихся значений (идентификаторы категорий и валют) на время одного разбора:
+ * одинаковые значения получают один и тот же экземпляр String, повторное значение из буфера
+ * парсера не создает новую строку. Пробелы по краям отбрасываются, как при trim().
+ * После maxSize разных значений новые строки создаются без запоминания. Не потокобезопасен.
+ */
+public final class StringDictionary {
+
+    private static final int DEFAULT_MAX_SIZE = 1 << 16;
+
+    private final int maxSize;
+    private String[] table = new String[64];
+    private int size;
+
+    public StringDictionary() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public StringDictionary(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param text значение, например переиспользуемый буфер парсера; в словарь попадает его копия
+     */
+    public String get(CharSequence text) {
+        if (text == null) return null;
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+
+        int mask = table.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            String value = table[slot];
+            if (value == null) {
+                return add(slot, text instanceof String s && start == 0 && end == s.length()
+                        ? s : text.subSequence(start, end).toString());
+            }
+            if (value.hashCode() == hash && equals(value, text, start, end)) {
+                return value;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private String add(int slot, String value) {
+        if (size >= maxSize) return value;
+        table[slot] = value;
+        if (++size * 2 > table.length) {
+            resize();
+        }
+        return value;
+    }
+
+    private void resize() {
+        String[] old = table;
+        table = new String[old.length * 2];
+        int mask = table.length - 1;
+        for (String value : old) {
+            if (value == null) continue;
+            int slot = spread(value.hashCode()) & mask;
+            while (table[slot] != null) slot = (slot + 1) & mask;
+            table[slot] = value;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String value, CharSequence text, int start, int end) {
+        if (value.length() != end - start) return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) != text.charAt(start + i)) return false;
+        }
+        return true;
+    }
+}
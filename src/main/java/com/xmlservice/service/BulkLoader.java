@@ -0,0 +1,120 @@
+package com.xmlservice.service;
+
+import com.xmlservice.data.CategoryData;
+import com.xmlservice.data.CurrencyData;
+import com.xmlservice.data.OfferData;
+import com.xmlservice.data.RejectedRow;
+import com.xmlservice.parser.FeedListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Начальная загрузка фида ({@link DatabaseService#setBulkLoad}): строки поставщика копируются через COPY
+ * порциями по db.batch.size в таблицы загрузки без первичных и внешних ключей, поэтому запись не проверяет
+ * ограничения по строкам и не обновляет индексы. После разбора {@link #finish()} один раз проверяет строки
+ * и переносит их в основные таблицы одной транзакцией (см. {@link DatabaseService#finishBulkLoad(List)}).
+ * Валюты загружаются до первого предложения, чтобы цена в базовой валюте считалась при копировании.
+ */
+public class BulkLoader implements FeedListener {
+
+    private final DatabaseService dbService;
+    private final List<CurrencyData> currencies = new ArrayList<>();
+    private final List<CategoryData> categories = new ArrayList<>();
+    private final List<RejectedRow> rejected = new ArrayList<>();
+    private final List<String> tables = new ArrayList<>();
+    private final List<OfferData> offers;
+
+    private int currencyCount;
+    private int categoryCount;
+    private int offerCount;
+
+    public BulkLoader(DatabaseService dbService) {
+        this.dbService = dbService;
+        this.offers = new ArrayList<>(dbService.getBatchSize());
+    }
+
+    @Override
+    public void onTable(String tableName) {
+        if (!tables.contains(tableName)) tables.add(tableName);
+        if ("offers".equals(tableName)) {
+            flushReferences();
+        }
+    }
+
+    @Override
+    public void onCurrency(CurrencyData currency) {
+        currencies.add(currency);
+    }
+
+    @Override
+    public void onCategory(CategoryData category) {
+        categories.add(category);
+    }
+
+    @Override
+    public void onRejected(RejectedRow row) {
+        rejected.add(row);
+        if (rejected.size() >= dbService.getBatchSize()) {
+            flushRejected();
+        }
+    }
+
+    @Override
+    public void onOffer(OfferData offer) {
+        offers.add(offer);
+        if (offers.size() >= dbService.getBatchSize()) {
+            flushOffers();
+        }
+    }
+
+    /**
+     * Загружает остаток буферов, проверяет строки и переносит их в основные таблицы.
+     * Таблицы фида известны по секциям, встреченным за тот же проход разбора.
+     *
+     * @return число удаленных (помеченных) предложений поставщика, которых больше нет в фиде
+     */
+    public long finish() {
+        flushReferences();
+        flushOffers();
+        flushRejected();
+        return dbService.finishBulkLoad(tables);
+    }
+
+    private void flushRejected() {
+        dbService.quarantine(rejected);
+        rejected.clear();
+    }
+
+    private void flushReferences() {
+        if (!currencies.isEmpty()) {
+            dbService.bulkLoadCurrencies(currencies);
+            currencyCount += currencies.size();
+            currencies.clear();
+        }
+        if (!categories.isEmpty()) {
+            dbService.bulkLoadCategories(categories);
+            categoryCount += categories.size();
+            categories.clear();
+        }
+    }
+
+    private void flushOffers() {
+        if (offers.isEmpty()) return;
+        dbService.bulkLoadOffers(offers);
+        offerCount += offers.size();
+        offers.clear();
+    }
+
+    public int getCurrencyCount() {
+        return currencyCount;
+    }
+
+    public int getCategoryCount() {
+        return categoryCount;
+    }
+
+    public int getOfferCount() {
+        return offerCount;
+    }
+}
@@ -0,0 +1,86 @@
+package com.xmlservice.service;
+
+import com.xmlservice.data.OfferData;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ведет контрольную точку загрузки предложений одного фида. Парсер нумерует порции предложений
+ * в порядке фида, писатели сообщают о фиксации порций (в конвейере - в любом порядке), а в БД
+ * сохраняется конец самой длинной непрерывной последовательности зафиксированных порций.
+ * Запись предложений идемпотентна, поэтому точка может отставать от БД, но не опережать ее:
+ * после сбоя порции за ней будут просто записаны повторно.
+ * <p>
+ * При продолжении той же версии фида первые resumeFrom предложений не записываются заново.
+ */
+public class CheckpointTracker {
+
+    private final DatabaseService dbService;
+    private final String feedVersion;
+    private final long resumeFrom;
+    private final Long generation;
+
+    // поток парсера
+    private long position;
+    private long resumed;
+    private long nextChunk;
+
+    private final Map<Long, Long> chunkEnds = new HashMap<>();
+    private final Set<Long> committed = new HashSet<>();
+    private long nextToSave;
+
+    /**
+     * @param resumeFrom позиция, с которой продолжается загрузка (0 - с начала)
+     * @param generation поколение синхронизации, сохраняемое вместе с позицией
+     */
+    public CheckpointTracker(DatabaseService dbService, String feedVersion, long resumeFrom, Long generation) {
+        this.dbService = dbService;
+        this.feedVersion = feedVersion;
+        this.resumeFrom = resumeFrom;
+        this.generation = generation;
+    }
+
+    /**
+     * Сколько предложений пропущено как уже записанные прерванным запуском
+     */
+    public long getResumedCount() {
+        return resumed;
+    }
+
+    /**
+     * Учитывает очередное предложение фида; true - оно уже записано прерванным запуском и пропускается
+     */
+    boolean skip(OfferData offer) {
+        position++;
+        if (position > resumeFrom) return false;
+        resumed++;
+        dbService.markOfferResumed(offer);
+        return true;
+    }
+
+    /**
+     * Номер порции, которая заканчивается текущим предложением
+     */
+    synchronized long chunk() {
+        chunkEnds.put(nextChunk, position);
+        return nextChunk++;
+    }
+
+    /**
+     * Порция зафиксирована в БД; сохраняет точку, если непрерывная последовательность продлилась
+     */
+    synchronized void committed(long chunk) {
+        committed.add(chunk);
+        Long end = null;
+        while (committed.remove(nextToSave)) {
+            end = chunkEnds.remove(nextToSave);
+            nextToSave++;
+        }
+        if (end != null) {
+            dbService.saveCheckpoint(new SyncCheckpoint(feedVersion, end, generation));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.xmlservice.service;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Простой пул JDBC соединений: ограничение размера, проверка соединения при выдаче
+ * и закрытие соединений, простаивающих дольше idleTimeoutMs.
+ * Выданное соединение возвращается в пул вызовом close().
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final String jdbcUrl;
+    private final Properties connectionProperties = new Properties();
+    private final long idleTimeoutMs;
+    private final int validationTimeoutSec;
+    private final long borrowTimeoutMs;
+    private final int maxSize;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    private record IdleConnection(Connection connection, long releasedAt) {
+    }
+
+    public ConnectionPool(String jdbcUrl, String dbUser, String dbPassword, int maxSize,
+                          long idleTimeoutMs, int validationTimeoutSec, long borrowTimeoutMs) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+        }
+        this.jdbcUrl = jdbcUrl;
+        if (dbUser != null) connectionProperties.setProperty("user", dbUser);
+        if (dbPassword != null) connectionProperties.setProperty("password", dbPassword);
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.validationTimeoutSec = validationTimeoutSec;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "db-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeoutMs / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a database connection after " + borrowTimeoutMs + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            return wrap(borrowPhysical());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Connection borrowPhysical() throws SQLException {
+        IdleConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            Connection conn = candidate.connection();
+            if (isExpired(candidate) || !conn.isValid(validationTimeoutSec)) {
+                closeQuietly(conn);
+                continue;
+            }
+            return conn;
+        }
+        return DriverManager.getConnection(jdbcUrl, connectionProperties);
+    }
+
+    private void release(Connection conn) {
+        try {
+            if (closed || conn.isClosed()) {
+                closeQuietly(conn);
+                return;
+            }
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+            idle.offerFirst(new IdleConnection(conn, System.currentTimeMillis()));
+        } catch (SQLException e) {
+            closeQuietly(conn);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean isExpired(IdleConnection candidate) {
+        return System.currentTimeMillis() - candidate.releasedAt() > idleTimeoutMs;
+    }
+
+    private void evictIdle() {
+        Iterator<IdleConnection> it = idle.iterator();
+        while (it.hasNext()) {
+            IdleConnection candidate = it.next();
+            if (isExpired(candidate) && idle.remove(candidate)) {
+                closeQuietly(candidate.connection());
+            }
+        }
+    }
+
+    /**
+     * Оборачивает соединение так, чтобы close() возвращал его в пул, а не закрывал
+     */
+    private Connection wrap(Connection physical) {
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean released;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close" -> {
+                        if (!released) {
+                            released = true;
+                            release(physical);
+                        }
+                        return null;
+                    }
+                    case "isClosed" -> {
+                        return released || physical.isClosed();
+                    }
+                    default -> {
+                        if (released && method.getDeclaringClass() != Object.class) throw new SQLException("Connection has been returned to the pool");
+                    }
+                }
+                try {
+                    return method.invoke(physical, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handler);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        IdleConnection candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            closeQuietly(candidate.connection());
+        }
+    }
+
+    private static void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
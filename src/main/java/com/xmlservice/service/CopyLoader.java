@@ -0,0 +1,183 @@
+package com.xmlservice.service;
+
+import com.xmlservice.data.CategoryData;
+import com.xmlservice.data.CurrencyData;
+import com.xmlservice.data.OfferData;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Загрузка строк через COPY FROM STDIN во временную таблицу с последующим
+ * слиянием в основную таблицу одним INSERT ... SELECT ... ON CONFLICT.
+ * При начальной загрузке строки копируются напрямую в таблицу загрузки без ключей.
+ */
+class CopyLoader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String CURRENCY_COLUMNS = "supplier_id, code, rate";
+    private static final String CATEGORY_COLUMNS = "supplier_id, category_id, name";
+
+    @FunctionalInterface
+    private interface RowWriter<T> {
+        void write(Writer out, T row) throws IOException;
+    }
+
+    void upsertCurrencies(Connection conn, String supplierId, List<CurrencyData> currencies)
+            throws SQLException, IOException {
+        load(conn, "currency", CURRENCY_COLUMNS, DatabaseService.CURRENCY_CONFLICT,
+                DatabaseService.distinct(currencies, CurrencyData::getCode), currencyRow(supplierId));
+    }
+
+    void upsertCategories(Connection conn, String supplierId, List<CategoryData> categories)
+            throws SQLException, IOException {
+        load(conn, "categories", CATEGORY_COLUMNS, DatabaseService.CATEGORY_CONFLICT,
+                DatabaseService.distinct(categories, CategoryData::getId), categoryRow(supplierId));
+    }
+
+    /**
+     * Копирует валюты в таблицу без ключей как есть; повторы убираются после загрузки
+     */
+    void copyCurrencies(Connection conn, String table, String supplierId, List<CurrencyData> currencies)
+            throws SQLException, IOException {
+        copy(conn, table, CURRENCY_COLUMNS, currencies, currencyRow(supplierId));
+    }
+
+    void copyCategories(Connection conn, String table, String supplierId, List<CategoryData> categories)
+            throws SQLException, IOException {
+        copy(conn, table, CATEGORY_COLUMNS, categories, categoryRow(supplierId));
+    }
+
+    private static RowWriter<CurrencyData> currencyRow(String supplierId) {
+        return (out, currency) -> {
+            writeText(out, supplierId);
+            out.write(',');
+            writeText(out, currency.getCode());
+            out.write(',');
+            writeNumber(out, currency.getRate());
+        };
+    }
+
+    private static RowWriter<CategoryData> categoryRow(String supplierId) {
+        return (out, category) -> {
+            writeText(out, supplierId);
+            out.write(',');
+            writeText(out, category.getId());
+            out.write(',');
+            writeText(out, category.getName());
+        };
+    }
+
+    /**
+     * @param basePrice цена предложения в базовой валюте (колонка price_base)
+     * @param columns   колонки offers в порядке {@link DatabaseService#offerColumns()}
+     * @param extras    число дополнительных колонок после price_base
+     */
+    void upsertOffers(Connection conn, String supplierId, List<OfferData> offers, Long generation,
+                      Function<OfferData, BigDecimal> basePrice, String columns, String conflictClause, int extras)
+            throws SQLException, IOException {
+        load(conn, "offers", columns, conflictClause, DatabaseService.distinct(offers, OfferData::getVendorCode),
+                offerRow(supplierId, generation, basePrice, extras));
+    }
+
+    /**
+     * Копирует предложения в таблицу без ключей как есть; колонки и значения - как в {@link #upsertOffers}
+     */
+    void copyOffers(Connection conn, String table, String supplierId, List<OfferData> offers, Long generation,
+                    Function<OfferData, BigDecimal> basePrice, String columns, int extras)
+            throws SQLException, IOException {
+        copy(conn, table, columns, offers, offerRow(supplierId, generation, basePrice, extras));
+    }
+
+    private static RowWriter<OfferData> offerRow(String supplierId, Long generation,
+                                                 Function<OfferData, BigDecimal> basePrice, int extras) {
+        String generationField = generation != null ? generation.toString() : "";
+        return (out, offer) -> {
+            writeText(out, supplierId);
+            out.write(',');
+            writeText(out, offer.getVendorCode());
+            out.write(',');
+            writeText(out, offer.getName());
+            out.write(',');
+            writeText(out, offer.getCategoryId());
+            out.write(',');
+            offer.appendPrice(out, false);
+            out.write(',');
+            writeText(out, offer.getCurrencyCode());
+            out.write(',');
+            out.write(Long.toString(OfferFingerprint.of(offer)));
+            out.write(',');
+            out.write(generationField);
+            out.write(',');
+            writeNumber(out, basePrice.apply(offer));
+            String[] values = offer.getExtras();
+            for (int i = 0; i < extras; i++) {
+                out.write(',');
+                writeText(out, values != null ? values[i] : null);
+            }
+        };
+    }
+
+    /**
+     * Временная таблица создается заново на каждую загрузку: сохраненная в сессии пула копия
+     * не увидела бы колонки, добавленные в основную таблицу позже
+     */
+    private <T> void load(Connection conn, String table, String columns, String conflictClause,
+                          Collection<T> rows, RowWriter<T> rowWriter) throws SQLException, IOException {
+        String stage = table + "_stage";
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS pg_temp." + stage);
+            stmt.execute("CREATE TEMP TABLE " + stage + " (LIKE " + table + " INCLUDING DEFAULTS) ON COMMIT DROP");
+        }
+
+        copy(conn, stage, columns, rows, rowWriter);
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("INSERT INTO " + table + " (" + columns + ") SELECT " + columns
+                    + " FROM " + stage + " " + conflictClause);
+        }
+    }
+
+    private <T> void copy(Connection conn, String table, String columns, Collection<T> rows,
+                          RowWriter<T> rowWriter) throws SQLException, IOException {
+        PGConnection pgConn = conn.unwrap(PGConnection.class);
+        String copySql = "COPY " + table + " (" + columns + ") FROM STDIN (FORMAT csv)";
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new PGCopyOutputStream(pgConn, copySql, BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            for (T row : rows) {
+                rowWriter.write(out, row);
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * null пишется как пустое поле без кавычек, строки - всегда в кавычках, чтобы отличать "" от NULL
+     */
+    static void writeText(Writer out, String value) throws IOException {
+        if (value == null) return;
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') out.write('"');
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    static void writeNumber(Writer out, BigDecimal value) throws IOException {
+        if (value != null) out.write(value.toPlainString());
+    }
+}
@@ -1,28 +1,138 @@
 package com.xmlservice.service;
 
+import com.xmlservice.config.Config;
+import com.xmlservice.config.FeedSource;
 import com.xmlservice.data.CategoryData;
 import com.xmlservice.data.CurrencyData;
+import com.xmlservice.data.FeedData;
 import com.xmlservice.data.OfferData;
+import com.xmlservice.data.RejectedRow;
+import com.xmlservice.metrics.Metrics;
+import com.xmlservice.metrics.StageTimer;
+import com.xmlservice.parser.FeedListener;
+import com.xmlservice.parser.OfferProjection;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
-public class DatabaseService {
+public class DatabaseService implements AutoCloseable {
 
-    private final String jdbcUrl;
-    private final String dbUser;
-    private final String dbPassword;
+    private final ConnectionPool pool;
+    private final boolean ownsPool;
+    private final String supplierId;
+    private final CopyLoader copyLoader = new CopyLoader();
+    private final WriteStats writeStats;
+    private final int batchSize;
+    private WriteMode writeMode = WriteMode.BATCH;
+    private final DeltaStats deltaStats;
+    private boolean deltaSync;
+    private int writeParallelism = 1;
+    private final AtomicReference<ExecutorService> offerWriters;
+    private volatile Map<String, Long> offerFingerprints;
+    private volatile Map<String, BigDecimal> currencyRates;
+    private volatile Set<String> categoryIds;
+    private final AtomicBoolean offerColumnsEnsured;
+    private final AtomicBoolean quarantineEnsured;
+    private final LongAdder quarantinedRows = new LongAdder();
+    private SweepMode sweepMode = SweepMode.OFF;
+    private OfferProjection offerProjection = OfferProjection.BASE;
+    private boolean checkpointing;
+    private boolean bulkLoad;
+    private boolean trackOfferChanges;
+    private volatile Set<String> changedOfferKeys;
+    private volatile boolean bulkStarted;
+    private volatile Long offerGeneration;
+    private volatile Set<String> seenOfferKeys;
+    private final LongAdder generationOffers = new LongAdder();
+    private Connection transaction;
+    private final List<OfferDelta> transactionDeltas = new ArrayList<>();
+
+    static final String SUPPLIER_COLUMN = "supplier_id";
+    static final String CURRENCY_CONFLICT = "ON CONFLICT (supplier_id, code) DO UPDATE SET rate = EXCLUDED.rate";
+    static final String CATEGORY_CONFLICT = "ON CONFLICT (supplier_id, category_id) DO UPDATE SET name = EXCLUDED.name";
+    static final String OFFER_CONFLICT = """
+            ON CONFLICT (supplier_id, vendorCode) DO UPDATE SET
+                name = EXCLUDED.name,
+                category_id = EXCLUDED.category_id,
+                price = EXCLUDED.price,
+                currency_code = EXCLUDED.currency_code,
+                row_hash = EXCLUDED.row_hash,
+                sync_generation = EXCLUDED.sync_generation,
+                price_base = EXCLUDED.price_base,
+                deleted_at = NULL
+            """;
+
+    static final String CHECKPOINT_DDL = """
+            CREATE TABLE IF NOT EXISTS sync_checkpoint (
+                supplier_id VARCHAR(50) PRIMARY KEY,
+                feed_version TEXT NOT NULL,
+                offer_position BIGINT NOT NULL,
+                sync_generation BIGINT,
+                updated_at TIMESTAMP NOT NULL
+            )
+            """;
+
+    static final String QUARANTINE_DDL = """
+            CREATE TABLE IF NOT EXISTS sync_quarantine (
+                supplier_id VARCHAR(50) NOT NULL,
+                table_name VARCHAR(20) NOT NULL,
+                row_key TEXT NOT NULL,
+                reason TEXT NOT NULL,
+                quarantined_at TIMESTAMP NOT NULL,
+                PRIMARY KEY (supplier_id, table_name, row_key)
+            )
+            """;
+
+    /** Размеры колонок из DDL: строка, которая в них не помещается, уходит в карантин, а не роняет пакет */
+    private static final int CURRENCY_CODE_LENGTH = 10;
+    private static final int CATEGORY_ID_LENGTH = 50;
+    private static final int VENDOR_CODE_LENGTH = 100;
+    private static final int RATE_INTEGER_DIGITS = 12;
+    private static final int PRICE_INTEGER_DIGITS = 16;
+
+    /**
+     * Пересчет цены в базовой валюте по курсу из currency; дополняется условиями на строки offers
+     */
+    static final String REPRICE_OFFERS = """
+            UPDATE offers o SET price_base = round(o.price * c.rate, 2)
+            FROM currency c
+            WHERE c.supplier_id = o.supplier_id AND c.code = o.currency_code""";
+
+    /**
+     * Таблицы начальной загрузки в порядке переноса: offers ссылается на обе другие
+     */
+    private static final List<String> BULK_TABLES = List.of("currency", "categories", "offers");
+    private static final int BULK_TABLE_LENGTH = 63;
 
     private static final Map<String, List<String>> TABLE_COLUMNS = new HashMap<>();
     private static final Map<String, String> TABLE_ID_COLUMNS = new HashMap<>();
 
     static {
-        TABLE_COLUMNS.put("currency", List.of("code", "rate"));
-        TABLE_COLUMNS.put("categories", List.of("category_id", "name"));
-        TABLE_COLUMNS.put("offers", List.of("vendorCode", "name", "category_id", "price", "currency_code"));
+        TABLE_COLUMNS.put("currency", List.of(SUPPLIER_COLUMN, "code", "rate"));
+        TABLE_COLUMNS.put("categories", List.of(SUPPLIER_COLUMN, "category_id", "name"));
+        TABLE_COLUMNS.put("offers", List.of(SUPPLIER_COLUMN, "vendorCode", "name", "category_id", "price", "currency_code"));
 
         TABLE_ID_COLUMNS.put("currency", "code");
         TABLE_ID_COLUMNS.put("categories", "category_id");
@@ -30,13 +140,225 @@ public class DatabaseService {
     }
 
     public DatabaseService(String jdbcUrl, String dbUser, String dbPassword) {
-        this.jdbcUrl = jdbcUrl;
-        this.dbUser = dbUser;
-        this.dbPassword = dbPassword;
+        this(jdbcUrl, dbUser, dbPassword, FeedSource.DEFAULT_SUPPLIER);
+    }
+
+    public DatabaseService(String jdbcUrl, String dbUser, String dbPassword, String supplierId) {
+        this(new ConnectionPool(withBatchRewrite(jdbcUrl), dbUser, dbPassword, Config.getDbPoolSize(),
+                Config.getDbPoolIdleTimeoutMs(), Config.getDbPoolValidationTimeoutSec(),
+                Config.getDbPoolBorrowTimeoutMs()), Config.getDbBatchSize(), supplierId);
+    }
+
+    public DatabaseService(ConnectionPool pool, int batchSize) {
+        this(pool, batchSize, FeedSource.DEFAULT_SUPPLIER);
+    }
+
+    public DatabaseService(ConnectionPool pool, int batchSize, String supplierId) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.pool = pool;
+        this.ownsPool = true;
+        this.batchSize = batchSize;
+        this.supplierId = supplierId;
+        this.writeStats = new WriteStats();
+        this.deltaStats = new DeltaStats();
+        this.offerColumnsEnsured = new AtomicBoolean();
+        this.quarantineEnsured = new AtomicBoolean();
+        this.offerWriters = new AtomicReference<>();
+    }
+
+    private DatabaseService(DatabaseService parent, String supplierId) {
+        this.pool = parent.pool;
+        this.ownsPool = false;
+        this.batchSize = parent.batchSize;
+        this.supplierId = supplierId;
+        this.writeStats = parent.writeStats;
+        this.deltaStats = parent.deltaStats;
+        this.offerColumnsEnsured = parent.offerColumnsEnsured;
+        this.quarantineEnsured = parent.quarantineEnsured;
+        this.offerWriters = parent.offerWriters;
+        this.writeMode = parent.writeMode;
+        this.deltaSync = parent.deltaSync;
+        this.writeParallelism = parent.writeParallelism;
+        this.sweepMode = parent.sweepMode;
+        this.offerProjection = parent.offerProjection;
+        this.checkpointing = parent.checkpointing;
+        this.bulkLoad = parent.bulkLoad;
+        this.trackOfferChanges = parent.trackOfferChanges;
+    }
+
+    /**
+     * Сервис для строк другого поставщика на том же пуле соединений.
+     * Настройки записи копируются на момент вызова, статистика записи и потоки параллельной записи общие.
+     */
+    public DatabaseService forSupplier(String supplierId) {
+        return new DatabaseService(this, supplierId);
+    }
+
+    public String getSupplierId() {
+        return supplierId;
+    }
+
+    /**
+     * Включает reWriteBatchedInserts: драйвер склеивает пакет INSERT в многострочные VALUES
+     */
+    static String withBatchRewrite(String jdbcUrl) {
+        if (jdbcUrl == null || jdbcUrl.contains("reWriteBatchedInserts")) return jdbcUrl;
+        return jdbcUrl + (jdbcUrl.contains("?") ? "&" : "?") + "reWriteBatchedInserts=true";
     }
 
     private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(jdbcUrl, dbUser, dbPassword);
+        return pool.getConnection();
+    }
+
+    @Override
+    public void close() {
+        if (ownsPool) {
+            ExecutorService writers = offerWriters.getAndSet(null);
+            if (writers != null) {
+                writers.shutdown();
+            }
+            pool.close();
+        }
+    }
+
+    public int getPoolSize() {
+        return pool.getMaxSize();
+    }
+
+    public WriteMode getWriteMode() {
+        return writeMode;
+    }
+
+    public void setWriteMode(WriteMode writeMode) {
+        this.writeMode = writeMode;
+    }
+
+    public int getWriteParallelism() {
+        return writeParallelism;
+    }
+
+    /**
+     * Число потоков (и соединений) для записи предложений; 1 - запись в одном соединении.
+     * Потоки общие для всех поставщиков и писателей конвейера, поэтому параллельная запись предложений
+     * во всем процессе занимает не больше writeParallelism соединений; размер фиксируется при первой записи.
+     */
+    public void setWriteParallelism(int writeParallelism) {
+        if (writeParallelism < 1) {
+            throw new IllegalArgumentException("Write parallelism must be positive: " + writeParallelism);
+        }
+        this.writeParallelism = writeParallelism;
+    }
+
+    public boolean isDeltaSync() {
+        return deltaSync;
+    }
+
+    /**
+     * В режиме дельты в БД отправляются только новые предложения и предложения,
+     * у которых изменился отпечаток (см. {@link OfferFingerprint})
+     */
+    public void setDeltaSync(boolean deltaSync) {
+        this.deltaSync = deltaSync;
+    }
+
+    public SweepMode getSweepMode() {
+        return sweepMode;
+    }
+
+    /**
+     * Удаление (или пометка) предложений, пропавших из фида, после полной синхронизации
+     */
+    public void setSweepMode(SweepMode sweepMode) {
+        this.sweepMode = sweepMode;
+    }
+
+    public boolean isCheckpointing() {
+        return checkpointing;
+    }
+
+    /**
+     * Полная синхронизация фиксирует предложения порциями и сохраняет позицию в sync_checkpoint,
+     * чтобы прерванная загрузка той же версии фида продолжилась с нее
+     */
+    public void setCheckpointing(boolean checkpointing) {
+        this.checkpointing = checkpointing;
+    }
+
+    public boolean isBulkLoad() {
+        return bulkLoad;
+    }
+
+    /**
+     * Начальная загрузка: полная синхронизация пишет строки поставщика в таблицы без ключей,
+     * проверяет их один раз и переносит в основные таблицы одной транзакцией (см. {@link BulkLoader})
+     */
+    public void setBulkLoad(boolean bulkLoad) {
+        this.bulkLoad = bulkLoad;
+    }
+
+    /**
+     * Синхронизация запоминает ключи записанных и удаленных предложений и возвращает их
+     * в {@link SyncResult#offerChanges()}, чтобы индекс API чтения обновлялся только по ним
+     */
+    public void setTrackOfferChanges(boolean trackOfferChanges) {
+        this.trackOfferChanges = trackOfferChanges;
+    }
+
+    /**
+     * Начинает сбор ключей записанных и удаленных предложений, если он включен. Ключи упавшего запуска
+     * не сбрасываются: его зафиксированные порции тоже должны попасть в индекс.
+     */
+    void beginOfferChanges() {
+        if (!trackOfferChanges) {
+            changedOfferKeys = null;
+        } else if (changedOfferKeys == null) {
+            changedOfferKeys = ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    /**
+     * @param full записанные строки известны не все, индекс нужно перечитать целиком
+     * @return собранные с {@link #beginOfferChanges()} ключи, null - сбор выключен
+     */
+    OfferChanges takeOfferChanges(boolean full) {
+        Set<String> keys = changedOfferKeys;
+        changedOfferKeys = null;
+        return keys != null ? new OfferChanges(full, keys) : null;
+    }
+
+    public OfferProjection getOfferProjection() {
+        return offerProjection;
+    }
+
+    /**
+     * Дополнительные поля предложений: для каждого в offers добавляется колонка TEXT.
+     * Должна совпадать с проекцией парсера, иначе дополнительные колонки будут записаны как NULL.
+     */
+    public void setOfferProjection(OfferProjection offerProjection) {
+        this.offerProjection = offerProjection;
+    }
+
+    /**
+     * Колонки предложений в порядке записи: основные, отпечаток, поколение, цена в базовой валюте, дополнительные
+     */
+    String offerColumns() {
+        StringBuilder columns = new StringBuilder(
+                "supplier_id, vendorCode, name, category_id, price, currency_code, row_hash, sync_generation, price_base");
+        for (String column : offerProjection.getSqlColumns()) {
+            columns.append(", ").append(column);
+        }
+        return columns.toString();
+    }
+
+    String offerConflict() {
+        if (offerProjection.isEmpty()) return OFFER_CONFLICT;
+        StringBuilder conflict = new StringBuilder(OFFER_CONFLICT.stripTrailing());
+        for (String column : offerProjection.getSqlColumns()) {
+            conflict.append(",\n    ").append(column).append(" = EXCLUDED.").append(column);
+        }
+        return conflict.append('\n').toString();
     }
 
     /**
@@ -48,25 +370,35 @@ public class DatabaseService {
         return switch (tableName) {
             case "currency" -> """
                 CREATE TABLE IF NOT EXISTS currency (
-                    code VARCHAR(10) PRIMARY KEY,
-                    rate NUMERIC(18,6) NOT NULL
+                    supplier_id VARCHAR(50) NOT NULL DEFAULT 'default',
+                    code VARCHAR(10) NOT NULL,
+                    rate NUMERIC(18,6) NOT NULL,
+                    PRIMARY KEY (supplier_id, code)
                 );
                 """;
             case "categories" -> """
                 CREATE TABLE IF NOT EXISTS categories (
-                    category_id VARCHAR(50) PRIMARY KEY,
-                    name TEXT NOT NULL
+                    supplier_id VARCHAR(50) NOT NULL DEFAULT 'default',
+                    category_id VARCHAR(50) NOT NULL,
+                    name TEXT NOT NULL,
+                    PRIMARY KEY (supplier_id, category_id)
                 );
                 """;
             case "offers" -> """
                 CREATE TABLE IF NOT EXISTS offers (
-                    vendorCode VARCHAR(100) PRIMARY KEY,
+                    supplier_id VARCHAR(50) NOT NULL DEFAULT 'default',
+                    vendorCode VARCHAR(100) NOT NULL,
                     name TEXT NOT NULL,
                     category_id VARCHAR(50),
                     price NUMERIC(18,2),
                     currency_code VARCHAR(10),
-                    FOREIGN KEY (currency_code) REFERENCES currency(code),
-                    FOREIGN KEY (category_id) REFERENCES categories(category_id)
+                    row_hash BIGINT,
+                    sync_generation BIGINT,
+                    price_base NUMERIC(18,2),
+                    deleted_at TIMESTAMP,
+                    PRIMARY KEY (supplier_id, vendorCode),
+                    FOREIGN KEY (supplier_id, currency_code) REFERENCES currency(supplier_id, code),
+                    FOREIGN KEY (supplier_id, category_id) REFERENCES categories(supplier_id, category_id)
                 );
                 """;
             default -> throw new IllegalArgumentException("Unknown table: " + tableName);
@@ -77,17 +409,46 @@ public class DatabaseService {
         try (Connection conn = getConnection();
              Statement stmt = conn.createStatement()) {
 
+            migrateToSupplierScope(conn);
             for (String tableName : tableNames) {
                 String ddl = getTableDDL(tableName);
                 stmt.execute(ddl);
             }
+            if (tableNames.contains("offers")) {
+                ensureOfferColumns(conn);
+            }
         } catch (SQLException e) {
             throw new RuntimeException("Error creating tables: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Удаляет таблицы вместе с зависимыми ограничениями (используется нагрузочным прогоном с --clean)
+     */
+    public void dropTables(List<String> tableNames) {
+        tableNames.forEach(this::validateTableName);
+        if (tableNames.isEmpty()) return;
+
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + String.join(", ", tableNames) + " CASCADE");
+            if (tableNames.contains("offers")) {
+                stmt.execute("DROP TABLE IF EXISTS sync_checkpoint, sync_quarantine");
+                quarantineEnsured.set(false);
+            }
+            offerFingerprints = null;
+            currencyRates = null;
+            categoryIds = null;
+            offerColumnsEnsured.set(false);
+        } catch (SQLException e) {
+            throw new RuntimeException("Error dropping tables: " + e.getMessage(), e);
+        }
+    }
+
     public void validateDatabaseStructure(List<String> tableNames) {
-        try (Connection conn = getConnection()) {
+        try (StageTimer timer = Metrics.stage("validate");
+             Connection conn = getConnection()) {
+            timer.rows(tableNames.size());
             DatabaseMetaData metaData = conn.getMetaData();
             for (String tableName : tableNames) {
                 try (ResultSet rs = metaData.getColumns(null, null, tableName, null)) {
@@ -97,7 +458,7 @@ public class DatabaseService {
                     }
 
                     List<String> expectedColumns = TABLE_COLUMNS.get(tableName);
-                    if (!existingColumns.containsAll(expectedColumns)) {
+                    if (!existingColumns.containsAll(expectedColumns.stream().map(String::toLowerCase).toList())) {
                         throw new RuntimeException(
                                 String.format("Структура таблицы %s изменилась. Ожидаемые колонки: %s, Фактические: %s",
                                         tableName, expectedColumns, existingColumns)
@@ -105,6 +466,7 @@ public class DatabaseService {
                     }
                 }
             }
+            timer.success();
         } catch (SQLException e) {
             throw new RuntimeException("Ошибка валидации структуры БД: " + e.getMessage(), e);
         }
@@ -112,84 +474,1436 @@ public class DatabaseService {
 
     public void upsertCurrencies(List<CurrencyData> currencies) {
         if (currencies.isEmpty()) return;
+        inTransaction("currencies", conn -> writeCurrencies(conn, currencies));
+    }
 
-        String sql = """
-            INSERT INTO currency (code, rate) VALUES (?, ?) 
-            ON CONFLICT (code) DO UPDATE SET rate = EXCLUDED.rate
-            """;
+    public void upsertCategories(List<CategoryData> categories) {
+        if (categories.isEmpty()) return;
+        inTransaction("categories", conn -> writeCategories(conn, categories));
+    }
 
-        try (Connection conn = getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            for (CurrencyData currency : currencies) {
-                ps.setString(1, currency.getCode());
-                ps.setBigDecimal(2, currency.getRate());
-                ps.addBatch();
+    public void upsertOffers(List<OfferData> offers) {
+        if (offers.isEmpty()) return;
+        if (writeParallelism > 1 && transaction == null) {
+            writeOffersParallel(offers);
+            return;
+        }
+        OfferDelta delta = new OfferDelta();
+        inTransaction("offers", conn -> writeOffers(conn, offers, delta));
+        applyCommitted(delta);
+    }
+
+    /**
+     * Записывает валюты, категории и предложения в одной транзакции, чтобы фид не применялся частично.
+     * При параллельной записи предложений справочники фиксируются первыми, а каждая часть
+     * предложений - своей транзакцией. Отклоненные при разборе строки сохраняются в карантин вместе со справочниками.
+     */
+    public void upsertAll(FeedData feed) {
+        if (writeParallelism > 1) {
+            inTransaction("feed", conn -> {
+                writeQuarantine(conn, feed.getRejected());
+                writeCurrencies(conn, feed.getCurrencies());
+                writeCategories(conn, feed.getCategories());
+            });
+            upsertOffers(feed.getOffers());
+            return;
+        }
+        OfferDelta delta = new OfferDelta();
+        inTransaction("feed", conn -> {
+            writeQuarantine(conn, feed.getRejected());
+            writeCurrencies(conn, feed.getCurrencies());
+            writeCategories(conn, feed.getCategories());
+            writeOffers(conn, feed.getOffers(), delta);
+        });
+        applyCommitted(delta);
+    }
+
+    private void writeCurrencies(Connection conn, List<CurrencyData> feedCurrencies) throws SQLException, IOException {
+        if (feedCurrencies.isEmpty()) return;
+        long start = System.nanoTime();
+
+        List<CurrencyData> currencies = quarantineInvalid(conn, "currency", feedCurrencies, CurrencyData::getCode,
+                currency -> currency.getCode().length() > CURRENCY_CODE_LENGTH
+                        ? "code longer than " + CURRENCY_CODE_LENGTH + " characters"
+                        : exceedsDigits(currency.getRate(), 6, RATE_INTEGER_DIGITS) ? "rate out of range" : null);
+        if (currencies.isEmpty()) return;
+
+        Map<String, BigDecimal> rates = loadCurrencyRates(conn);
+        Set<String> changed = new LinkedHashSet<>();
+        for (CurrencyData currency : currencies) {
+            BigDecimal previous = rates.put(currency.getCode(), currency.getRate());
+            if (previous == null || previous.compareTo(currency.getRate()) != 0) {
+                changed.add(currency.getCode());
             }
-            ps.executeBatch();
-        } catch (SQLException e) {
-            throw new RuntimeException("Error upserting currencies: " + e.getMessage(), e);
         }
+
+        try (StageTimer timer = Metrics.stage("upsert_currency").rows(currencies.size())) {
+            if (writeMode == WriteMode.COPY) {
+                copyLoader.upsertCurrencies(conn, supplierId, currencies);
+            } else {
+                String sql = "INSERT INTO currency (supplier_id, code, rate) VALUES (?, ?, ?) " + CURRENCY_CONFLICT;
+                executeInChunks(conn, sql, distinct(currencies, CurrencyData::getCode), (ps, currency) -> {
+                    ps.setString(1, supplierId);
+                    ps.setString(2, currency.getCode());
+                    ps.setBigDecimal(3, currency.getRate());
+                });
+            }
+            timer.success();
+        }
+        writeStats.record("currency", currencies.size(), System.nanoTime() - start);
+        repriceOffers(conn, changed);
+        currencyRates = Map.copyOf(rates);
     }
 
-    public void upsertCategories(List<CategoryData> categories) {
-        if (categories.isEmpty()) return;
+    /**
+     * Пересчитывает price_base предложений в валютах, курс которых изменился, одним UPDATE ... FROM currency
+     * в транзакции записи курсов. Предложения в остальных валютах не затрагиваются.
+     */
+    private void repriceOffers(Connection conn, Set<String> currencyCodes) throws SQLException {
+        if (currencyCodes.isEmpty() || !tableExists(conn, "offers")) return;
+        ensureOfferColumns(conn);
+        try (StageTimer timer = Metrics.stage("reprice_offers");
+             PreparedStatement ps = conn.prepareStatement(REPRICE_OFFERS
+                     + " AND o.supplier_id = ? AND o.currency_code = ANY (?)"
+                     + " AND o.price_base IS DISTINCT FROM round(o.price * c.rate, 2)")) {
+            ps.setString(1, supplierId);
+            ps.setArray(2, conn.createArrayOf("varchar", currencyCodes.toArray()));
+            timer.rows(ps.executeUpdate());
+            timer.success();
+        }
+    }
 
-        String sql = """
-            INSERT INTO categories (category_id, name) VALUES (?, ?) 
-            ON CONFLICT (category_id) DO UPDATE SET name = EXCLUDED.name
-            """;
+    /**
+     * Курсы валют поставщика для расчета price_base и проверки внешнего ключа на currency; загружаются из БД,
+     * если в этом процессе валюты еще не записывались (например, update offers)
+     */
+    private Map<String, BigDecimal> currencyRates(Connection conn) throws SQLException {
+        Map<String, BigDecimal> rates = currencyRates;
+        if (rates == null) {
+            rates = Map.copyOf(loadCurrencyRates(conn));
+            currencyRates = rates;
+        }
+        return rates;
+    }
 
-        try (Connection conn = getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            for (CategoryData category : categories) {
-                ps.setString(1, category.getId());
-                ps.setString(2, category.getName());
-                ps.addBatch();
+    /**
+     * Идентификаторы категорий поставщика для проверки внешнего ключа на categories; загружаются так же, как курсы
+     */
+    private Set<String> categoryIds(Connection conn) throws SQLException {
+        Set<String> ids = categoryIds;
+        if (ids != null) return ids;
+
+        Set<String> loaded = new HashSet<>();
+        if (tableExists(conn, "categories")) {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT category_id FROM categories WHERE supplier_id = ?")) {
+                ps.setString(1, supplierId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        loaded.add(rs.getString(1));
+                    }
+                }
             }
-            ps.executeBatch();
-        } catch (SQLException e) {
-            throw new RuntimeException("Error upserting categories: " + e.getMessage(), e);
         }
+        ids = Set.copyOf(loaded);
+        categoryIds = ids;
+        return ids;
     }
 
-    public void upsertOffers(List<OfferData> offers) {
+    private Map<String, BigDecimal> loadCurrencyRates(Connection conn) throws SQLException {
+        Map<String, BigDecimal> rates = new HashMap<>();
+        if (!tableExists(conn, "currency")) return rates;
+        try (PreparedStatement ps = conn.prepareStatement("SELECT code, rate FROM currency WHERE supplier_id = ?")) {
+            ps.setString(1, supplierId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rates.put(rs.getString(1), rs.getBigDecimal(2));
+                }
+            }
+        }
+        return rates;
+    }
+
+    /**
+     * Цена в базовой валюте (с курсом 1): price * rate, округленная до копеек как round() в Postgres
+     */
+    static BigDecimal basePrice(OfferData offer, Map<String, BigDecimal> rates) {
+        if (!offer.hasPrice() || offer.getCurrencyCode() == null) return null;
+        BigDecimal rate = rates.get(offer.getCurrencyCode());
+        if (rate == null) return null;
+        BigDecimal price = offer.getPrice();
+        return (rate.compareTo(BigDecimal.ONE) == 0 ? price : price.multiply(rate)).setScale(2, RoundingMode.HALF_UP);
+    }
+
+    private void writeCategories(Connection conn, List<CategoryData> feedCategories) throws SQLException, IOException {
+        if (feedCategories.isEmpty()) return;
+        long start = System.nanoTime();
+
+        List<CategoryData> categories = quarantineInvalid(conn, "categories", feedCategories, CategoryData::getId,
+                category -> category.getId().length() > CATEGORY_ID_LENGTH
+                        ? "id longer than " + CATEGORY_ID_LENGTH + " characters" : null);
+        if (categories.isEmpty()) return;
+        Set<String> ids = new HashSet<>(categoryIds(conn));
+
+        try (StageTimer timer = Metrics.stage("upsert_categories").rows(categories.size())) {
+            if (writeMode == WriteMode.COPY) {
+                copyLoader.upsertCategories(conn, supplierId, categories);
+            } else {
+                String sql = "INSERT INTO categories (supplier_id, category_id, name) VALUES (?, ?, ?) "
+                        + CATEGORY_CONFLICT;
+                executeInChunks(conn, sql, distinct(categories, CategoryData::getId), (ps, category) -> {
+                    ps.setString(1, supplierId);
+                    ps.setString(2, category.getId());
+                    ps.setString(3, category.getName());
+                });
+            }
+            timer.success();
+        }
+        writeStats.record("categories", categories.size(), System.nanoTime() - start);
+        categories.forEach(category -> ids.add(category.getId()));
+        categoryIds = Set.copyOf(ids);
+    }
+
+    private void writeOffers(Connection conn, List<OfferData> offers, OfferDelta delta)
+            throws SQLException, IOException {
         if (offers.isEmpty()) return;
+        long start = System.nanoTime();
 
-        String sql = """
-            INSERT INTO offers (vendorCode, name, category_id, price, currency_code) 
-            VALUES (?, ?, ?, ?, ?) 
-            ON CONFLICT (vendorCode) DO UPDATE SET 
-                name = EXCLUDED.name, 
-                category_id = EXCLUDED.category_id, 
-                price = EXCLUDED.price, 
-                currency_code = EXCLUDED.currency_code
-            """;
+        try (StageTimer timer = Metrics.stage("upsert_offers")) {
+            int written = writeOfferRows(conn, offers, delta);
+            timer.rows(written);
+            timer.success();
+            writeStats.record("offers", written, System.nanoTime() - start);
+        }
+    }
 
-        try (Connection conn = getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            for (OfferData offer : offers) {
-                ps.setString(1, offer.getVendorCode());
-                ps.setString(2, offer.getName());
-                ps.setString(3, offer.getCategoryId());
-                ps.setBigDecimal(4, offer.getPrice());
-                ps.setString(5, offer.getCurrencyCode());
-                ps.addBatch();
+    /**
+     * Возвращает число отправленных в БД строк (в режиме дельты - только измененных)
+     *
+     * @param delta отпечатки записанных строк, которые попадут в кэш после фиксации транзакции
+     */
+    private int writeOfferRows(Connection conn, List<OfferData> feedOffers, OfferDelta delta)
+            throws SQLException, IOException {
+        ensureOfferColumns(conn);
+        Map<String, BigDecimal> rates = currencyRates(conn);
+        Set<String> categories = categoryIds(conn);
+        List<OfferData> offers = quarantineInvalid(conn, "offers", feedOffers, OfferData::getVendorCode,
+                offer -> rejectReason(offer, rates, categories));
+        if (offerGeneration != null) {
+            generationOffers.add(offers.size());
+        }
+        List<OfferData> changed = deltaSync ? selectChanged(conn, offers, delta) : offers;
+        if (changed.isEmpty()) return 0;
+        if (changedOfferKeys != null) {
+            changed.forEach(offer -> delta.written.add(offer.getVendorCode()));
+        }
+
+        if (writeMode == WriteMode.COPY) {
+            copyLoader.upsertOffers(conn, supplierId, changed, offerGeneration, offer -> basePrice(offer, rates),
+                    offerColumns(), offerConflict(), offerProjection.size());
+        } else {
+            int extras = offerProjection.size();
+            String sql = "INSERT INTO offers (" + offerColumns() + ")\nVALUES (?, ?, ?, ?, ?, ?, ?, ?, ?"
+                    + ", ?".repeat(extras) + ")\n" + offerConflict();
+            Long generation = offerGeneration;
+            executeInChunks(conn, sql, distinct(changed, OfferData::getVendorCode), (ps, offer) -> {
+                ps.setString(1, supplierId);
+                ps.setString(2, offer.getVendorCode());
+                ps.setString(3, offer.getName());
+                ps.setString(4, offer.getCategoryId());
+                ps.setBigDecimal(5, offer.getPrice());
+                ps.setString(6, offer.getCurrencyCode());
+                ps.setLong(7, OfferFingerprint.of(offer));
+                ps.setObject(8, generation, Types.BIGINT);
+                ps.setBigDecimal(9, basePrice(offer, rates));
+                String[] values = offer.getExtras();
+                for (int i = 0; i < extras; i++) {
+                    ps.setString(10 + i, values != null ? values[i] : null);
+                }
+            });
+        }
+        return changed.size();
+    }
+
+    /**
+     * Почему предложение нельзя записать, null - можно. Внешние ключи проверяются по валютам и категориям
+     * поставщика в памяти: это ровно то, что уже записано в БД, поэтому проверка совпадает с ограничениями offers.
+     */
+    static String rejectReason(OfferData offer, Map<String, BigDecimal> rates, Set<String> categories) {
+        if (offer.getVendorCode().length() > VENDOR_CODE_LENGTH) {
+            return "vendorCode longer than " + VENDOR_CODE_LENGTH + " characters";
+        }
+        if (offer.getCurrencyCode() != null && !rates.containsKey(offer.getCurrencyCode())) {
+            return "unknown currency: " + offer.getCurrencyCode();
+        }
+        if (offer.getCategoryId() != null && !categories.contains(offer.getCategoryId())) {
+            return "unknown category: " + offer.getCategoryId();
+        }
+        return priceRejectReason(offer, rates);
+    }
+
+    /**
+     * Проверки начальной загрузки, которые не зависят от других таблиц: внешние ключи проверяются в БД после загрузки
+     */
+    static String valueRejectReason(OfferData offer, Map<String, BigDecimal> rates) {
+        if (offer.getVendorCode().length() > VENDOR_CODE_LENGTH) {
+            return "vendorCode longer than " + VENDOR_CODE_LENGTH + " characters";
+        }
+        return priceRejectReason(offer, rates);
+    }
+
+    private static String priceRejectReason(OfferData offer, Map<String, BigDecimal> rates) {
+        if (offer.hasPrice() && (exceedsDigits(offer.getPrice(), 2, PRICE_INTEGER_DIGITS)
+                || exceedsDigits(basePrice(offer, rates), 2, PRICE_INTEGER_DIGITS))) {
+            return "price out of range: " + offer.getPrice().toPlainString();
+        }
+        return null;
+    }
+
+    /**
+     * Не помещается ли значение в NUMERIC с заданным масштабом и числом цифр целой части
+     */
+    private static boolean exceedsDigits(BigDecimal value, int scale, int integerDigits) {
+        return value != null && value.setScale(scale, RoundingMode.HALF_UP).precision() > scale + integerDigits;
+    }
+
+    /**
+     * Отделяет строки, которые нарушили бы ограничения таблицы, и сохраняет их в карантин в текущей транзакции:
+     * одна такая строка иначе уронила бы весь пакет. Возвращает исходный список, если отклонять нечего.
+     */
+    private <T> List<T> quarantineInvalid(Connection conn, String table, List<T> rows, Function<T, String> key,
+                                          Function<T, String> reasons) throws SQLException {
+        List<T> valid = null;
+        List<RejectedRow> rejected = null;
+        for (int i = 0; i < rows.size(); i++) {
+            T row = rows.get(i);
+            String reason = reasons.apply(row);
+            if (reason == null) {
+                if (valid != null) valid.add(row);
+                continue;
+            }
+            if (valid == null) {
+                valid = new ArrayList<>(rows.subList(0, i));
+                rejected = new ArrayList<>();
+            }
+            rejected.add(new RejectedRow(table, key.apply(row), reason));
+        }
+        if (rejected == null) return rows;
+        writeQuarantine(conn, rejected);
+        return valid;
+    }
+
+    /**
+     * Сохраняет отклоненные строки поставщика; повторно отклоненная строка обновляет причину и время
+     */
+    public void quarantine(List<RejectedRow> rows) {
+        if (rows.isEmpty()) return;
+        inTransaction("quarantine", conn -> writeQuarantine(conn, rows));
+    }
+
+    private void writeQuarantine(Connection conn, List<RejectedRow> rows) throws SQLException {
+        if (rows.isEmpty()) return;
+        ensureQuarantineTable(conn);
+        Collection<RejectedRow> unique = distinct(rows, row -> row.table() + ':' + row.key());
+        executeInChunks(conn, """
+                INSERT INTO sync_quarantine (supplier_id, table_name, row_key, reason, quarantined_at)
+                VALUES (?, ?, ?, ?, now())
+                ON CONFLICT (supplier_id, table_name, row_key) DO UPDATE SET
+                    reason = EXCLUDED.reason,
+                    quarantined_at = EXCLUDED.quarantined_at
+                """, unique, (ps, row) -> {
+            ps.setString(1, supplierId);
+            ps.setString(2, row.table());
+            ps.setString(3, row.key());
+            ps.setString(4, row.reason());
+        });
+        quarantinedRows.add(unique.size());
+    }
+
+    /**
+     * Удаляет карантин поставщика перед полной синхронизацией: в таблице остаются строки последнего фида
+     */
+    public void clearQuarantine() {
+        try (Connection conn = getConnection()) {
+            ensureQuarantineTable(conn);
+            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM sync_quarantine WHERE supplier_id = ?")) {
+                ps.setString(1, supplierId);
+                ps.executeUpdate();
             }
-            ps.executeBatch();
         } catch (SQLException e) {
-            throw new RuntimeException("Error upserting offers: " + e.getMessage(), e);
+            throw new RuntimeException("Error clearing quarantine: " + e.getMessage(), e);
         }
     }
 
-    // Дополнительные методы по желанию
-    public List<String> getColumnNames(String tableName) {
-        validateTableName(tableName);
+    /**
+     * Сколько строк этот сервис отправил в карантин с момента создания
+     */
+    public long getQuarantinedCount() {
+        return quarantinedRows.sum();
+    }
+
+    private void ensureQuarantineTable(Connection conn) throws SQLException {
+        if (quarantineEnsured.get()) return;
+        synchronized (quarantineEnsured) {
+            if (quarantineEnsured.get()) return;
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(QUARANTINE_DDL);
+            }
+            quarantineEnsured.set(true);
+        }
+    }
+
+    /**
+     * Делит предложения на writeParallelism частей по хэшу vendorCode и пишет каждую часть
+     * в своем потоке, соединении и транзакции. Части не пересекаются по ключам,
+     * поэтому писатели не блокируют строки друг друга и не попадают во взаимоблокировку.
+     */
+    private void writeOffersParallel(List<OfferData> offers) {
+        long start = System.nanoTime();
+        List<List<OfferData>> partitions = new ArrayList<>(writeParallelism);
+        for (int i = 0; i < writeParallelism; i++) {
+            partitions.add(new ArrayList<>(offers.size() / writeParallelism + 1));
+        }
+        for (OfferData offer : offers) {
+            partitions.get(Math.floorMod(offer.getVendorCode().hashCode(), writeParallelism)).add(offer);
+        }
+
+        AtomicInteger written = new AtomicInteger();
+        List<Future<?>> tasks = new ArrayList<>();
+        ExecutorService executor = offerWriters();
+        try (StageTimer timer = Metrics.stage("upsert_offers")) {
+            for (List<OfferData> partition : partitions) {
+                if (partition.isEmpty()) continue;
+                tasks.add(executor.submit(() -> {
+                    OfferDelta delta = new OfferDelta();
+                    inTransaction("offers", conn -> written.addAndGet(writeOfferRows(conn, partition, delta)));
+                    applyDelta(delta);
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            timer.rows(written.get());
+            timer.success();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while upserting offers", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : new RuntimeException(e.getCause());
+        }
+        writeStats.record("offers", written.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Потоки параллельной записи предложений, общие для сервисов всех поставщиков на этом пуле
+     */
+    private ExecutorService offerWriters() {
+        ExecutorService executor = offerWriters.get();
+        if (executor == null) {
+            synchronized (offerWriters) {
+                executor = offerWriters.get();
+                if (executor == null) {
+                    AtomicInteger threads = new AtomicInteger();
+                    executor = Executors.newFixedThreadPool(writeParallelism, r -> {
+                        Thread thread = new Thread(r, "offer-writer-" + threads.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    offerWriters.set(executor);
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Изменения кэша отпечатков, счетчиков дельты и ключи записанных строк в одной транзакции записи предложений
+     */
+    private static final class OfferDelta {
+        private final Map<String, Long> fingerprints = new HashMap<>();
+        private final List<String> written = new ArrayList<>();
+        private long inserted;
+        private long updated;
+        private long unchanged;
+    }
+
+    /**
+     * Отбирает предложения, которых нет в БД или чей отпечаток отличается от сохраненного в row_hash.
+     * Кэш отпечатков здесь не меняется: новые отпечатки копятся в delta до фиксации транзакции.
+     */
+    private List<OfferData> selectChanged(Connection conn, List<OfferData> offers, OfferDelta delta)
+            throws SQLException {
+        Map<String, Long> fingerprints = getOfferFingerprints(conn);
+        Set<String> seen = seenOfferKeys;
+        List<OfferData> changed = new ArrayList<>();
+
+        for (OfferData offer : offers) {
+            if (seen != null) seen.add(offer.getVendorCode());
+            long hash = OfferFingerprint.of(offer);
+            Long previous = delta.fingerprints.put(offer.getVendorCode(), hash);
+            if (previous == null) {
+                previous = fingerprints.get(offer.getVendorCode());
+            }
+            if (previous == null) {
+                delta.inserted++;
+                changed.add(offer);
+            } else if (previous != hash) {
+                delta.updated++;
+                changed.add(offer);
+            } else {
+                delta.unchanged++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Внутри общей транзакции ({@link #inSingleTransaction}) дельта откладывается до ее фиксации
+     */
+    private void applyCommitted(OfferDelta delta) {
+        if (transaction != null) {
+            transactionDeltas.add(delta);
+            return;
+        }
+        applyDelta(delta);
+    }
+
+    /**
+     * Переносит отпечатки зафиксированной транзакции в кэш, учитывает их в статистике дельты
+     * и запоминает записанные ключи. После отката не вызывается: кэш сбрасывается и перечитывается из БД.
+     */
+    private void applyDelta(OfferDelta delta) {
+        Set<String> changedKeys = changedOfferKeys;
+        if (changedKeys != null) {
+            changedKeys.addAll(delta.written);
+        }
+        if (delta.fingerprints.isEmpty()) return;
+        Map<String, Long> fingerprints = offerFingerprints;
+        if (fingerprints != null) {
+            fingerprints.putAll(delta.fingerprints);
+        }
+        deltaStats.addInserted(delta.inserted);
+        deltaStats.addUpdated(delta.updated);
+        deltaStats.addUnchanged(delta.unchanged);
+    }
+
+    /**
+     * Сбрасывает кэши прошлых запусков (отпечатки предложений, курсы, категории): в начале синхронизации
+     * они перечитываются из БД, чтобы строки, измененные между запусками демона другим процессом
+     * или вручную, не считались неизмененными
+     */
+    public void resetCaches() {
+        offerFingerprints = null;
+        currencyRates = null;
+        categoryIds = null;
+    }
+
+    private Map<String, Long> getOfferFingerprints(Connection conn) throws SQLException {
+        Map<String, Long> fingerprints = offerFingerprints;
+        if (fingerprints != null) return fingerprints;
+
+        synchronized (this) {
+            if (offerFingerprints == null) {
+                offerFingerprints = loadOfferFingerprints(conn);
+            }
+            return offerFingerprints;
+        }
+    }
+
+    /**
+     * Читает отпечатки курсором порциями; строки без row_hash получают отпечаток,
+     * который не совпадет ни с одним предложением, и будут перезаписаны.
+     * Помеченные удаленными строки не читаются: вернувшееся в фид предложение будет записано заново.
+     */
+    private Map<String, Long> loadOfferFingerprints(Connection conn) throws SQLException {
+        Map<String, Long> fingerprints = new ConcurrentHashMap<>();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT vendorCode, row_hash FROM offers WHERE supplier_id = ? AND deleted_at IS NULL")) {
+            ps.setFetchSize(batchSize);
+            ps.setString(1, supplierId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    long hash = rs.getLong(2);
+                    fingerprints.put(rs.getString(1), rs.wasNull() ? 0L : hash);
+                }
+            }
+        } finally {
+            if (autoCommit) {
+                conn.commit();
+                conn.setAutoCommit(true);
+            }
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Читает неудаленные предложения поставщика вместе с row_hash курсором порциями по batchSize
+     *
+     * @param vendorCodes только эти предложения (запрос порциями по batchSize ключей), null - все
+     */
+    public void readOffers(Collection<String> vendorCodes, OfferRowConsumer consumer) {
+        String sql = "SELECT vendorCode, name, category_id, price, currency_code, row_hash FROM offers"
+                + " WHERE supplier_id = ? AND deleted_at IS NULL"
+                + (vendorCodes != null ? " AND vendorCode = ANY (?)" : "");
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setFetchSize(batchSize);
+                ps.setString(1, supplierId);
+                if (vendorCodes == null) {
+                    readOfferRows(ps, consumer);
+                } else {
+                    List<String> keys = new ArrayList<>(vendorCodes);
+                    for (int from = 0; from < keys.size(); from += batchSize) {
+                        List<String> chunk = keys.subList(from, Math.min(from + batchSize, keys.size()));
+                        ps.setArray(2, conn.createArrayOf("varchar", chunk.toArray()));
+                        readOfferRows(ps, consumer);
+                    }
+                }
+            } finally {
+                conn.commit();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error reading offers: " + e.getMessage(), e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface OfferRowConsumer {
+        void accept(OfferData offer, long rowHash);
+    }
+
+    private static void readOfferRows(PreparedStatement ps, OfferRowConsumer consumer) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                OfferData offer = new OfferData();
+                offer.setVendorCode(rs.getString(1));
+                offer.setName(rs.getString(2));
+                offer.setCategoryId(rs.getString(3));
+                offer.setPrice(rs.getBigDecimal(4));
+                offer.setCurrencyCode(rs.getString(5));
+                long hash = rs.getLong(6);
+                consumer.accept(offer, rs.wasNull() ? 0L : hash);
+            }
+        }
+    }
+
+    /**
+     * Читает каталог поставщика в порядке потокового парсера: onTable, затем строки таблицы - валюты, категории
+     * и неудаленные предложения с дополнительными полями, каждая таблица по ключу. Все три таблицы читаются в одной
+     * транзакции REPEATABLE READ (один снимок, даже если параллельно идет синхронизация) курсорами по batchSize
+     * строк, поэтому память не зависит от размера каталога.
+     */
+    public void readCatalog(FeedListener listener) {
+        int extras = offerProjection.size();
+        StringBuilder offerSql = new StringBuilder("SELECT vendorCode, name, category_id, price, currency_code");
+        for (String column : offerProjection.getSqlColumns()) {
+            offerSql.append(", ").append(column);
+        }
+        offerSql.append(" FROM offers WHERE supplier_id = ? AND deleted_at IS NULL ORDER BY vendorCode");
+
+        try (Connection conn = getConnection()) {
+            int isolation = conn.getTransactionIsolation();
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            conn.setAutoCommit(false);
+            try {
+                listener.onTable("currency");
+                readRows(conn, "SELECT code, rate FROM currency WHERE supplier_id = ? ORDER BY code",
+                        rs -> listener.onCurrency(new CurrencyData(rs.getString(1), rs.getBigDecimal(2))));
+                listener.onTable("categories");
+                readRows(conn, "SELECT category_id, name FROM categories WHERE supplier_id = ? ORDER BY category_id",
+                        rs -> listener.onCategory(new CategoryData(rs.getString(1), rs.getString(2))));
+                listener.onTable("offers");
+                readRows(conn, offerSql.toString(), rs -> {
+                    OfferData offer = new OfferData(rs.getString(1), rs.getString(2), rs.getString(3),
+                            rs.getBigDecimal(4), rs.getString(5));
+                    if (extras > 0) {
+                        String[] values = new String[extras];
+                        for (int i = 0; i < extras; i++) {
+                            values[i] = rs.getString(6 + i);
+                        }
+                        offer.setExtras(values);
+                    }
+                    listener.onOffer(offer);
+                });
+            } finally {
+                // транзакция только читала
+                conn.rollback();
+                conn.setAutoCommit(true);
+                conn.setTransactionIsolation(isolation);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error reading catalog: " + e.getMessage(), e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowReader {
+        void read(ResultSet rs) throws SQLException;
+    }
+
+    private void readRows(Connection conn, String sql, RowReader reader) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setFetchSize(batchSize);
+            ps.setString(1, supplierId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    reader.read(rs);
+                }
+            }
+        }
+    }
+
+    /**
+     * Добавляет в существующую таблицу offers колонки, появившиеся после ее создания
+     */
+    private void ensureOfferColumns(Connection conn) throws SQLException {
+        if (offerColumnsEnsured.get()) return;
+        synchronized (offerColumnsEnsured) {
+            if (offerColumnsEnsured.get()) return;
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE offers ADD COLUMN IF NOT EXISTS row_hash BIGINT");
+                stmt.execute("ALTER TABLE offers ADD COLUMN IF NOT EXISTS sync_generation BIGINT");
+                stmt.execute("ALTER TABLE offers ADD COLUMN IF NOT EXISTS deleted_at TIMESTAMP");
+                stmt.execute("CREATE SEQUENCE IF NOT EXISTS offers_sync_generation_seq");
+                if (!hasColumn(conn, "offers", "price_base")) {
+                    stmt.execute("ALTER TABLE offers ADD COLUMN IF NOT EXISTS price_base NUMERIC(18,2)");
+                    // однократное заполнение для строк, записанных до появления колонки
+                    stmt.executeUpdate(REPRICE_OFFERS + " AND o.price IS NOT NULL");
+                }
+                for (String column : offerProjection.getSqlColumns()) {
+                    stmt.execute("ALTER TABLE offers ADD COLUMN IF NOT EXISTS " + column + " TEXT");
+                }
+            }
+            offerColumnsEnsured.set(true);
+        }
+    }
+
+    /**
+     * Переводит таблицы, созданные до появления поставщиков, на ключи (supplier_id, id):
+     * существующие строки относятся к поставщику default, внешние ключи offers пересоздаются составными
+     */
+    private void migrateToSupplierScope(Connection conn) throws SQLException {
+        Map<String, String> legacy = new LinkedHashMap<>();
+        for (String table : List.of("currency", "categories", "offers")) {
+            if (tableExists(conn, table) && !hasColumn(conn, table, SUPPLIER_COLUMN)) {
+                legacy.put(table, TABLE_ID_COLUMNS.get(table));
+            }
+        }
+        if (legacy.isEmpty()) return;
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE IF EXISTS offers DROP CONSTRAINT IF EXISTS offers_currency_code_fkey,"
+                    + " DROP CONSTRAINT IF EXISTS offers_category_id_fkey");
+            for (Map.Entry<String, String> table : legacy.entrySet()) {
+                stmt.execute("ALTER TABLE " + table.getKey()
+                        + " ADD COLUMN supplier_id VARCHAR(50) NOT NULL DEFAULT '" + FeedSource.DEFAULT_SUPPLIER + "',"
+                        + " DROP CONSTRAINT " + table.getKey() + "_pkey,"
+                        + " ADD PRIMARY KEY (supplier_id, " + table.getValue() + ")");
+            }
+            if (legacy.containsKey("offers")) {
+                stmt.execute("ALTER TABLE offers"
+                        + " ADD FOREIGN KEY (supplier_id, currency_code) REFERENCES currency(supplier_id, code),"
+                        + " ADD FOREIGN KEY (supplier_id, category_id) REFERENCES categories(supplier_id, category_id)");
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static boolean tableExists(Connection conn, String table) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getTables(null, null, table, new String[]{"TABLE"})) {
+            return rs.next();
+        }
+    }
+
+    private static boolean hasColumn(Connection conn, String table, String column) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getColumns(null, null, table, column)) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Начинает поколение полной синхронизации: все предложения, записанные до {@link #sweepStaleOffers()},
+     * получают его номер в sync_generation. Ничего не делает, если очистка выключена.
+     */
+    public void beginOfferGeneration() {
+        beginOfferGeneration(null);
+    }
+
+    /**
+     * @param resumeGeneration поколение прерванной синхронизации, которую продолжает текущая: записанные ей
+     *                         предложения не должны оказаться устаревшими; null - новое поколение
+     */
+    public void beginOfferGeneration(Long resumeGeneration) {
+        if (sweepMode == SweepMode.OFF) return;
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            ensureOfferColumns(conn);
+            long generation;
+            if (resumeGeneration != null) {
+                generation = resumeGeneration;
+            } else {
+                try (ResultSet rs = stmt.executeQuery("SELECT nextval('offers_sync_generation_seq')")) {
+                    rs.next();
+                    generation = rs.getLong(1);
+                }
+            }
+            generationOffers.reset();
+            seenOfferKeys = deltaSync ? ConcurrentHashMap.newKeySet() : null;
+            offerGeneration = generation;
+        } catch (SQLException e) {
+            throw new RuntimeException("Error starting offer generation: " + e.getMessage(), e);
+        }
+    }
+
+    public Long getOfferGeneration() {
+        return offerGeneration;
+    }
+
+    /**
+     * Предложение, записанное прерванной синхронизацией и пропущенное при ее продолжении,
+     * считается встреченным в фиде текущего поколения
+     */
+    void markOfferResumed(OfferData offer) {
+        if (offerGeneration == null) return;
+        generationOffers.increment();
+        Set<String> seen = seenOfferKeys;
+        if (seen != null) seen.add(offer.getVendorCode());
+    }
+
+    /**
+     * Контрольная точка незавершенной загрузки поставщика; null, если ее нет.
+     * Точка не действует, если предложений поставщика в БД нет (таблицу удалили или очистили).
+     */
+    public SyncCheckpoint loadCheckpoint() {
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(CHECKPOINT_DDL);
+            try (PreparedStatement ps = conn.prepareStatement("""
+                    SELECT feed_version, offer_position, sync_generation FROM sync_checkpoint c
+                    WHERE supplier_id = ? AND EXISTS (SELECT 1 FROM offers o WHERE o.supplier_id = c.supplier_id)
+                    """)) {
+                ps.setString(1, supplierId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null;
+                    long generation = rs.getLong(3);
+                    return new SyncCheckpoint(rs.getString(1), rs.getLong(2), rs.wasNull() ? null : generation);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error reading sync checkpoint: " + e.getMessage(), e);
+        }
+    }
+
+    public void saveCheckpoint(SyncCheckpoint checkpoint) {
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement("""
+                     INSERT INTO sync_checkpoint (supplier_id, feed_version, offer_position, sync_generation, updated_at)
+                     VALUES (?, ?, ?, ?, now())
+                     ON CONFLICT (supplier_id) DO UPDATE SET
+                         feed_version = EXCLUDED.feed_version,
+                         offer_position = EXCLUDED.offer_position,
+                         sync_generation = EXCLUDED.sync_generation,
+                         updated_at = EXCLUDED.updated_at
+                     """)) {
+            ps.setString(1, supplierId);
+            ps.setString(2, checkpoint.feedVersion());
+            ps.setLong(3, checkpoint.offerPosition());
+            ps.setObject(4, checkpoint.generation(), Types.BIGINT);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Error saving sync checkpoint: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Удаляет контрольную точку после успешной синхронизации
+     */
+    public void clearCheckpoint() {
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement("DELETE FROM sync_checkpoint WHERE supplier_id = ?")) {
+            ps.setString(1, supplierId);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Error clearing sync checkpoint: " + e.getMessage(), e);
+        }
+    }
+
+    public void endOfferGeneration() {
+        offerGeneration = null;
+        seenOfferKeys = null;
+    }
+
+    /**
+     * Удаляет или помечает удаленными предложения, не записанные в текущем поколении.
+     * Ключи устаревших строк читаются одним проходом, затем удаляются порциями по batchSize
+     * по первичному ключу, каждая порция - отдельной короткой транзакцией, чтобы не держать
+     * блокировки на offers все время очистки. В режиме дельты неизмененные строки не перезаписываются,
+     * поэтому устаревшими считаются ключи из отпечатков, не встреченные в фиде.
+     *
+     * @return число удаленных (помеченных) предложений
+     */
+    public long sweepStaleOffers() {
+        Long generation = offerGeneration;
+        if (generation == null) return 0;
+        // пустой или оборванный фид не должен очищать таблицу
+        if (generationOffers.sum() == 0) return 0;
+
+        try (StageTimer timer = Metrics.stage("sweep_offers");
+             Connection conn = getConnection()) {
+            List<String> stale = seenOfferKeys != null ? staleFingerprintKeys() : staleGenerationKeys(conn, generation);
+            long removed = removeOffers(conn, stale, generation);
+            Map<String, Long> fingerprints = offerFingerprints;
+            if (fingerprints != null) {
+                stale.forEach(fingerprints::remove);
+            }
+            Set<String> changedKeys = changedOfferKeys;
+            if (changedKeys != null) {
+                changedKeys.addAll(stale);
+            }
+            timer.rows(removed);
+            timer.success();
+            return removed;
+        } catch (SQLException e) {
+            throw new RuntimeException("Error sweeping offers: " + e.getMessage(), e);
+        }
+    }
+
+    private List<String> staleFingerprintKeys() {
+        Map<String, Long> fingerprints = offerFingerprints;
+        Set<String> seen = seenOfferKeys;
+        List<String> stale = new ArrayList<>();
+        if (fingerprints == null) return stale;
+        for (String key : fingerprints.keySet()) {
+            if (!seen.contains(key)) stale.add(key);
+        }
+        return stale;
+    }
+
+    private List<String> staleGenerationKeys(Connection conn, long generation) throws SQLException {
+        String sql = "SELECT vendorCode FROM offers"
+                + " WHERE supplier_id = ? AND (sync_generation IS NULL OR sync_generation < ?)"
+                + (sweepMode == SweepMode.SOFT ? " AND deleted_at IS NULL" : "");
+        List<String> stale = new ArrayList<>();
+        conn.setAutoCommit(false);
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setFetchSize(batchSize);
+            ps.setString(1, supplierId);
+            ps.setLong(2, generation);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    stale.add(rs.getString(1));
+                }
+            }
+        } finally {
+            conn.commit();
+            conn.setAutoCommit(true);
+        }
+        return stale;
+    }
+
+    /**
+     * Условие на поколение защищает строки, которые успела переписать более новая синхронизация
+     */
+    private long removeOffers(Connection conn, List<String> keys, long generation) throws SQLException {
+        String sql = (sweepMode == SweepMode.SOFT
+                ? "UPDATE offers SET deleted_at = now() WHERE deleted_at IS NULL AND "
+                : "DELETE FROM offers WHERE ")
+                + "supplier_id = ? AND vendorCode = ANY (?) AND (sync_generation IS NULL OR sync_generation < ?)";
+        long removed = 0;
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int from = 0; from < keys.size(); from += batchSize) {
+                List<String> chunk = keys.subList(from, Math.min(from + batchSize, keys.size()));
+                ps.setString(1, supplierId);
+                ps.setArray(2, conn.createArrayOf("varchar", chunk.toArray()));
+                ps.setLong(3, generation);
+                removed += ps.executeUpdate();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Таблица начальной загрузки поставщика для основной таблицы: у каждого поставщика своя,
+     * чтобы загрузки разных фидов не мешали друг другу. Длина ограничена длиной идентификатора PostgreSQL.
+     */
+    String bulkTable(String table) {
+        String name = table + "_new_" + supplierId.toLowerCase().replaceAll("[^a-z0-9_]", "_");
+        if (name.length() <= BULK_TABLE_LENGTH) return name;
+        return name.substring(0, BULK_TABLE_LENGTH - 9) + "_" + String.format("%08x", supplierId.hashCode());
+    }
+
+    /**
+     * Начинает начальную загрузку: создает основные таблицы, если их нет, и пустые нежурналируемые таблицы загрузки
+     * с теми же колонками, но без первичных и внешних ключей. Оставшиеся от прерванной загрузки таблицы пересоздаются.
+     */
+    public void beginBulkLoad() {
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            migrateToSupplierScope(conn);
+            for (String table : BULK_TABLES) {
+                stmt.execute(getTableDDL(table));
+            }
+            ensureOfferColumns(conn);
+            for (String table : BULK_TABLES) {
+                stmt.execute("DROP TABLE IF EXISTS " + bulkTable(table));
+                stmt.execute("CREATE UNLOGGED TABLE " + bulkTable(table) + " (LIKE " + table + " INCLUDING DEFAULTS)");
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error starting bulk load: " + e.getMessage(), e);
+        }
+        // секции фида известны только после разбора: до первой валюты курсы читаются из currency,
+        // price_base предложений с курсами из фида пересчитывается при проверке
+        currencyRates = null;
+        categoryIds = null;
+        offerFingerprints = null;
+        bulkStarted = true;
+    }
+
+    public void bulkLoadCurrencies(List<CurrencyData> feedCurrencies) {
+        if (feedCurrencies.isEmpty()) return;
+        inTransaction("currencies", conn -> {
+            long start = System.nanoTime();
+            List<CurrencyData> currencies = quarantineInvalid(conn, "currency", feedCurrencies, CurrencyData::getCode,
+                    currency -> currency.getCode().length() > CURRENCY_CODE_LENGTH
+                            ? "code longer than " + CURRENCY_CODE_LENGTH + " characters"
+                            : exceedsDigits(currency.getRate(), 6, RATE_INTEGER_DIGITS) ? "rate out of range" : null);
+            if (currencies.isEmpty()) return;
+
+            try (StageTimer timer = Metrics.stage("upsert_currency").rows(currencies.size())) {
+                copyLoader.copyCurrencies(conn, bulkTable("currency"), supplierId, currencies);
+                timer.success();
+            }
+            writeStats.record("currency", currencies.size(), System.nanoTime() - start);
+            Map<String, BigDecimal> rates = new HashMap<>(currencyRates(conn));
+            currencies.forEach(currency -> rates.put(currency.getCode(), currency.getRate()));
+            currencyRates = Map.copyOf(rates);
+        });
+    }
+
+    public void bulkLoadCategories(List<CategoryData> feedCategories) {
+        if (feedCategories.isEmpty()) return;
+        inTransaction("categories", conn -> {
+            long start = System.nanoTime();
+            List<CategoryData> categories = quarantineInvalid(conn, "categories", feedCategories, CategoryData::getId,
+                    category -> category.getId().length() > CATEGORY_ID_LENGTH
+                            ? "id longer than " + CATEGORY_ID_LENGTH + " characters" : null);
+            if (categories.isEmpty()) return;
+
+            try (StageTimer timer = Metrics.stage("upsert_categories").rows(categories.size())) {
+                copyLoader.copyCategories(conn, bulkTable("categories"), supplierId, categories);
+                timer.success();
+            }
+            writeStats.record("categories", categories.size(), System.nanoTime() - start);
+        });
+    }
+
+    /**
+     * Копирует порцию предложений в таблицу загрузки. Цена в базовой валюте считается по уже загруженным курсам,
+     * внешние ключи проверяются после загрузки в {@link #finishBulkLoad(List)}
+     */
+    public void bulkLoadOffers(List<OfferData> feedOffers) {
+        if (feedOffers.isEmpty()) return;
+        inTransaction("offers", conn -> {
+            long start = System.nanoTime();
+            Map<String, BigDecimal> rates = currencyRates(conn);
+            List<OfferData> offers = quarantineInvalid(conn, "offers", feedOffers, OfferData::getVendorCode,
+                    offer -> valueRejectReason(offer, rates));
+            if (offers.isEmpty()) return;
+
+            try (StageTimer timer = Metrics.stage("upsert_offers").rows(offers.size())) {
+                copyLoader.copyOffers(conn, bulkTable("offers"), supplierId, offers, offerGeneration,
+                        offer -> basePrice(offer, rates), offerColumns(), offerProjection.size());
+                timer.success();
+            }
+            writeStats.record("offers", offers.size(), System.nanoTime() - start);
+        });
+    }
+
+    /**
+     * Завершает начальную загрузку. Сначала без блокировок основных таблиц в таблицах загрузки остаются последние
+     * версии повторяющихся строк, предложения с несуществующими валютами и категориями переносятся в карантин,
+     * дозаполняется price_base. Затем в одной транзакции строки поставщика переносятся в основные таблицы
+     * с отложенной проверкой внешних ключей (см. {@link #mergeBulkTables}): строки других поставщиков не меняются,
+     * читатели видят либо прежние строки поставщика, либо новые целиком.
+     *
+     * @param feedTables таблицы, которые есть в фиде; строки поставщика в остальных сохраняются как есть
+     * @return число удаленных (помеченных) предложений поставщика, которых нет в фиде
+     */
+    public long finishBulkLoad(List<String> feedTables) {
+        if (!bulkStarted) {
+            throw new IllegalStateException("Bulk load is not started");
+        }
+        inTransaction("bulk load", this::validateBulkLoad);
+        AtomicLong removed = new AtomicLong();
+        inTransaction("bulk load", conn -> removed.set(mergeBulkTables(conn, feedTables)));
+
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("ANALYZE " + String.join(", ", BULK_TABLES));
+        } catch (SQLException e) {
+            throw new RuntimeException("Error analyzing tables: " + e.getMessage(), e);
+        }
+        return removed.get();
+    }
+
+    /**
+     * Курсы поставщика для проверки загруженных предложений: из фида, а для валют, которых в фиде нет, -
+     * из currency (справочники при начальной загрузке дополняются, как и при обычной синхронизации).
+     * Один параметр - поставщик.
+     */
+    private String bulkRates() {
+        return """
+                rates AS (
+                    SELECT code, rate FROM %1$s
+                    UNION ALL
+                    SELECT l.code, l.rate FROM currency l
+                    WHERE l.supplier_id = ? AND NOT EXISTS (SELECT 1 FROM %1$s s WHERE s.code = l.code)
+                )""".formatted(bulkTable("currency"));
+    }
+
+    private void validateBulkLoad(Connection conn) throws SQLException {
+        String offers = bulkTable("offers");
+        String categories = bulkTable("categories");
+
+        try (StageTimer timer = Metrics.stage("bulk_validate");
+             Statement stmt = conn.createStatement()) {
+            // строки только добавлялись, поэтому более поздняя версия строки имеет больший ctid
+            for (String table : BULK_TABLES) {
+                String id = TABLE_ID_COLUMNS.get(table);
+                stmt.executeUpdate("DELETE FROM " + bulkTable(table) + " a USING " + bulkTable(table) + " b"
+                        + " WHERE a." + id + " = b." + id + " AND a.ctid < b.ctid");
+            }
+
+            // без статистики новые таблицы загрузки планировщик считает маленькими и соединяет вложенными циклами;
+            // после схлопывания повторов соединения с ними не размножают строки
+            stmt.execute("ANALYZE " + String.join(", ", BULK_TABLES.stream().map(this::bulkTable).toList()));
+
+            ensureQuarantineTable(conn);
+            try (PreparedStatement ps = conn.prepareStatement("""
+                    WITH %4$s, checked AS (
+                        SELECT o.ctid AS row_id, o.vendorCode, o.price, o.currency_code, o.category_id, c.rate,
+                               o.category_id IS NULL OR n.category_id IS NOT NULL OR k.category_id IS NOT NULL
+                                   AS known_category
+                        FROM %1$s o
+                        LEFT JOIN rates c ON c.code = o.currency_code
+                        LEFT JOIN %2$s n ON n.category_id = o.category_id
+                        LEFT JOIN categories k ON k.supplier_id = o.supplier_id AND k.category_id = o.category_id
+                    ), invalid AS (
+                        SELECT row_id, vendorCode,
+                               CASE
+                                   WHEN currency_code IS NOT NULL AND rate IS NULL
+                                       THEN 'unknown currency: ' || currency_code
+                                   WHEN NOT known_category THEN 'unknown category: ' || category_id
+                                   ELSE 'price out of range: ' || price
+                               END AS reason
+                        FROM checked
+                        WHERE (currency_code IS NOT NULL AND rate IS NULL)
+                           OR NOT known_category
+                           OR abs(round(price * rate, 2)) >= 1e%3$d
+                    ), removed AS (
+                        DELETE FROM %1$s o USING invalid i WHERE o.ctid = i.row_id
+                    )
+                    INSERT INTO sync_quarantine (supplier_id, table_name, row_key, reason, quarantined_at)
+                    SELECT ?, 'offers', vendorCode, reason, now() FROM invalid
+                    ON CONFLICT (supplier_id, table_name, row_key) DO UPDATE SET
+                        reason = EXCLUDED.reason,
+                        quarantined_at = EXCLUDED.quarantined_at
+                    """.formatted(offers, categories, PRICE_INTEGER_DIGITS, bulkRates()))) {
+                ps.setString(1, supplierId);
+                ps.setString(2, supplierId);
+                int rejected = ps.executeUpdate();
+                quarantinedRows.add(rejected);
+                timer.rows(rejected);
+            }
+
+            // курсы, которые в фиде шли после предложений
+            try (PreparedStatement ps = conn.prepareStatement("WITH " + bulkRates()
+                    + " UPDATE " + offers + " o SET price_base = round(o.price * c.rate, 2)"
+                    + " FROM rates c WHERE c.code = o.currency_code"
+                    + " AND o.price IS NOT NULL AND o.price_base IS DISTINCT FROM round(o.price * c.rate, 2)")) {
+                ps.setString(1, supplierId);
+                ps.executeUpdate();
+            }
+            timer.success();
+        }
+    }
+
+    /**
+     * Переносит проверенные строки поставщика в основные таблицы: по одному INSERT ... SELECT ... ON CONFLICT
+     * на таблицу, справочники раньше предложений. Затем пересчитывается price_base оставшихся предложений
+     * в валютах фида и к предложениям поставщика, которых нет в фиде, применяется sync.sweep.mode;
+     * пустая секция offers их не трогает.
+     * Внешние ключи offers на время переноса снимаются и создаются заново как NOT VALID, а затем проверяются
+     * VALIDATE CONSTRAINT одним соединением таблиц вместо проверки триггером каждой вставленной строки.
+     * Поэтому offers до фиксации заблокирована для всех поставщиков, а справочники - для записи.
+     *
+     * @return число удаленных (помеченных) предложений
+     */
+    private long mergeBulkTables(Connection conn, List<String> feedTables) throws SQLException {
+        String offers = bulkTable("offers");
+        long removed = 0;
+        try (StageTimer timer = Metrics.stage("bulk_merge");
+             Statement stmt = conn.createStatement()) {
+            // таблицы блокируются в том же порядке, в каком их пишет обычная синхронизация
+            stmt.execute("LOCK TABLE currency, categories IN SHARE ROW EXCLUSIVE MODE");
+            stmt.execute("LOCK TABLE offers IN ACCESS EXCLUSIVE MODE");
+            Map<String, String> foreignKeys = offerForeignKeys(conn);
+            if (!foreignKeys.isEmpty()) {
+                stmt.execute("ALTER TABLE offers " + String.join(", ", foreignKeys.keySet().stream()
+                        .map(name -> "DROP CONSTRAINT " + quoteIdentifier(name)).toList()));
+            }
+
+            stmt.executeUpdate("INSERT INTO currency (supplier_id, code, rate)"
+                    + " SELECT supplier_id, code, rate FROM " + bulkTable("currency") + " " + CURRENCY_CONFLICT);
+            stmt.executeUpdate("INSERT INTO categories (supplier_id, category_id, name)"
+                    + " SELECT supplier_id, category_id, name FROM " + bulkTable("categories") + " "
+                    + CATEGORY_CONFLICT);
+            int merged = stmt.executeUpdate("INSERT INTO offers (" + offerColumns() + ")"
+                    + " SELECT " + offerColumns() + " FROM " + offers + " " + offerConflict());
+
+            try (PreparedStatement ps = conn.prepareStatement(REPRICE_OFFERS
+                    + " AND o.supplier_id = ? AND o.currency_code IN (SELECT code FROM " + bulkTable("currency") + ")"
+                    + " AND o.price_base IS DISTINCT FROM round(o.price * c.rate, 2)")) {
+                ps.setString(1, supplierId);
+                ps.executeUpdate();
+            }
+
+            if (sweepMode != SweepMode.OFF && merged > 0 && feedTables.contains("offers")) {
+                String missing = "o.supplier_id = ? AND NOT EXISTS (SELECT 1 FROM " + offers
+                        + " n WHERE n.vendorCode = o.vendorCode)";
+                try (PreparedStatement ps = conn.prepareStatement(sweepMode == SweepMode.SOFT
+                        ? "UPDATE offers o SET deleted_at = now() WHERE o.deleted_at IS NULL AND " + missing
+                        : "DELETE FROM offers o WHERE " + missing)) {
+                    ps.setString(1, supplierId);
+                    removed = ps.executeUpdate();
+                }
+            }
+
+            for (Map.Entry<String, String> key : foreignKeys.entrySet()) {
+                stmt.execute("ALTER TABLE offers ADD CONSTRAINT " + quoteIdentifier(key.getKey()) + " "
+                        + key.getValue() + " NOT VALID");
+            }
+            for (String name : foreignKeys.keySet()) {
+                stmt.execute("ALTER TABLE offers VALIDATE CONSTRAINT " + quoteIdentifier(name));
+            }
+            timer.rows(merged);
+            timer.success();
+        }
+        return removed;
+    }
+
+    /**
+     * Внешние ключи offers: имя - определение без NOT VALID
+     */
+    private static Map<String, String> offerForeignKeys(Connection conn) throws SQLException {
+        Map<String, String> keys = new LinkedHashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT conname, pg_get_constraintdef(oid) FROM pg_constraint"
+                     + " WHERE conrelid = 'offers'::regclass AND contype = 'f' ORDER BY conname")) {
+            while (rs.next()) {
+                keys.put(rs.getString(1), rs.getString(2).replaceFirst(" NOT VALID$", ""));
+            }
+        }
+        return keys;
+    }
+
+    private static String quoteIdentifier(String name) {
+        return '"' + name.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Удаляет таблицы загрузки и сбрасывает кэши курсов и категорий:
+     * после переноса строк они читаются из основных таблиц
+     */
+    public void endBulkLoad() {
+        bulkStarted = false;
+        currencyRates = null;
+        categoryIds = null;
+        offerFingerprints = null;
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS "
+                    + String.join(", ", BULK_TABLES.stream().map(this::bulkTable).toList()));
+        } catch (SQLException e) {
+            throw new RuntimeException("Error dropping bulk load tables: " + e.getMessage(), e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowBinder<T> {
+        void bind(PreparedStatement ps, T row) throws SQLException;
+    }
+
+    /**
+     * Отправляет строки пакетами по batchSize, не держа весь список в одном executeBatch()
+     */
+    private <T> void executeInChunks(Connection conn, String sql, Collection<T> rows, RowBinder<T> binder)
+            throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int pending = 0;
+            for (T row : rows) {
+                binder.bind(ps, row);
+                ps.addBatch();
+                if (++pending == batchSize) {
+                    ps.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                ps.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Оставляет последнюю версию строки для каждого ключа: один INSERT ... ON CONFLICT
+     * (в том числе переписанный драйвером в многострочный) не может обновить строку дважды
+     */
+    static <T> Collection<T> distinct(List<T> rows, Function<T, String> key) {
+        Map<String, T> unique = new LinkedHashMap<>(rows.size() * 2);
+        for (T row : rows) {
+            unique.put(key.apply(row), row);
+        }
+        return unique.values();
+    }
+
+    @FunctionalInterface
+    private interface TransactionAction {
+        void run(Connection conn) throws SQLException, IOException;
+    }
+
+    private void inTransaction(String entity, TransactionAction action) {
+        if (transaction != null) {
+            inOpenTransaction(entity, action);
+            return;
+        }
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                action.run(conn);
+                conn.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                conn.rollback();
+                discardUncommitted();
+                throw e;
+            }
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException("Error upserting " + entity + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Выполняет work в одной транзакции: все записи этого сервиса (справочники, предложения, карантин)
+     * идут через одно соединение и фиксируются вместе, при ошибке не остается ни одной.
+     * Предложения пишутся последовательно, даже если включена параллельная запись.
+     * Только для записи из одного потока.
+     */
+    public void inSingleTransaction(Runnable work) {
+        if (transaction != null) throw new IllegalStateException("Transaction already started");
+        try {
+            transaction = getConnection();
+            transaction.setAutoCommit(false);
+        } catch (SQLException e) {
+            closeTransaction();
+            throw new RuntimeException("Error starting transaction: " + e.getMessage(), e);
+        }
+        try {
+            work.run();
+            transaction.commit();
+            transactionDeltas.forEach(this::applyDelta);
+        } catch (SQLException e) {
+            rollbackTransaction();
+            throw new RuntimeException("Error committing transaction: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            rollbackTransaction();
+            throw e;
+        } finally {
+            closeTransaction();
+        }
+    }
+
+    /**
+     * Запись внутри общей транзакции: откатывает ее {@link #inSingleTransaction}, когда ошибка дойдет до него
+     */
+    private void inOpenTransaction(String entity, TransactionAction action) {
+        try {
+            action.run(transaction);
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException("Error upserting " + entity + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void rollbackTransaction() {
+        Connection conn = transaction;
+        if (conn == null) return;
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            // соединение возвращается в пул, который откатывает незавершенную транзакцию сам
+        }
+        discardUncommitted();
+    }
+
+    private void closeTransaction() {
+        Connection conn = transaction;
+        transaction = null;
+        transactionDeltas.clear();
+        if (conn == null) return;
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            // соединение уже закрыто
+        }
+    }
+
+    /**
+     * После отката кэши могут содержать незафиксированные строки, а созданные в транзакции колонки и таблицы пропасть
+     */
+    private void discardUncommitted() {
+        offerFingerprints = null;
+        currencyRates = null;
+        categoryIds = null;
+        quarantineEnsured.set(false);
+        offerColumnsEnsured.set(false);
+    }
+
+    public WriteStats getWriteStats() {
+        return writeStats;
+    }
+
+    public DeltaStats getDeltaStats() {
+        return deltaStats;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    // Дополнительные методы по желанию
+    public List<String> getColumnNames(String tableName) {
+        validateTableName(tableName);
+        if (tableName.equals("offers") && !offerProjection.isEmpty()) {
+            List<String> columns = new ArrayList<>(TABLE_COLUMNS.get(tableName));
+            columns.addAll(offerProjection.getColumns());
+            return columns;
+        }
         return TABLE_COLUMNS.get(tableName);
     }
 
     public boolean isColumnId(String tableName, String columnName) {
         validateTableName(tableName);
-        return columnName.equals(TABLE_ID_COLUMNS.get(tableName));
+        return columnName.equals(SUPPLIER_COLUMN) || columnName.equals(TABLE_ID_COLUMNS.get(tableName));
     }
 
     private void validateTableName(String tableName) {
@@ -0,0 +1,52 @@
+package com.xmlservice.service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Итоги дельта-синхронизации предложений
+ */
+public class DeltaStats {
+
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder updated = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+
+    void addInserted(long count) {
+        inserted.add(count);
+    }
+
+    void addUpdated(long count) {
+        updated.add(count);
+    }
+
+    void addUnchanged(long count) {
+        unchanged.add(count);
+    }
+
+    public long getInserted() {
+        return inserted.sum();
+    }
+
+    public long getUpdated() {
+        return updated.sum();
+    }
+
+    public long getUnchanged() {
+        return unchanged.sum();
+    }
+
+    public boolean isEmpty() {
+        return getInserted() + getUpdated() + getUnchanged() == 0;
+    }
+
+    public void reset() {
+        inserted.reset();
+        updated.reset();
+        unchanged.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("inserted %d, updated %d, unchanged %d", getInserted(), getUpdated(), getUnchanged());
+    }
+}
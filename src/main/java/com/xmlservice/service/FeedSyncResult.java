@@ -0,0 +1,14 @@
+package com.xmlservice.service;
+
+/**
+ * Итог синхронизации фида одного поставщика
+ *
+ * @param result итог синхронизации, null при ошибке
+ * @param error  ошибка синхронизации, null при успехе
+ */
+public record FeedSyncResult(String supplierId, SyncResult result, RuntimeException error) {
+
+    public boolean failed() {
+        return error != null;
+    }
+}
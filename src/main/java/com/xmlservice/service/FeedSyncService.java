@@ -0,0 +1,120 @@
+package com.xmlservice.service;
+
+import com.xmlservice.XmlParser;
+import com.xmlservice.config.FeedSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Синхронизация фидов нескольких поставщиков в одном процессе. Каждый фид - отдельная задача
+ * со своим парсером и своими строками в таблицах (supplier_id); одновременно выполняется
+ * не больше parallelism задач на общем пуле соединений. Ошибка или медленный фид одного
+ * поставщика не отменяет и не задерживает остальных.
+ */
+public class FeedSyncService {
+
+    private final DatabaseService dbService;
+    private final List<FeedSource> feeds;
+    private final int parallelism;
+    private final int pipelineWriters;
+    private final int pipelineQueueCapacity;
+    private final Function<FeedSource, XmlParser> parsers;
+    private final Map<String, SyncService> services = new ConcurrentHashMap<>();
+
+    /**
+     * @param dbService сервис основного поставщика; для остальных создаются сервисы на его пуле
+     * @param parsers   новый парсер фида на каждую синхронизацию
+     */
+    public FeedSyncService(DatabaseService dbService, List<FeedSource> feeds, int parallelism,
+                           int pipelineWriters, int pipelineQueueCapacity, Function<FeedSource, XmlParser> parsers) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Feed parallelism must be positive: " + parallelism);
+        }
+        this.dbService = dbService;
+        this.feeds = List.copyOf(feeds);
+        this.parallelism = parallelism;
+        this.pipelineWriters = pipelineWriters;
+        this.pipelineQueueCapacity = pipelineQueueCapacity;
+        this.parsers = parsers;
+    }
+
+    public List<FeedSource> getFeeds() {
+        return feeds;
+    }
+
+    /**
+     * Сервис синхронизации поставщика; создается при первом обращении и переиспользуется между запусками демона
+     */
+    public SyncService serviceFor(FeedSource feed) {
+        return services.computeIfAbsent(feed.supplierId(), supplierId -> new SyncService(
+                supplierId.equals(dbService.getSupplierId()) ? dbService : dbService.forSupplier(supplierId),
+                pipelineWriters, pipelineQueueCapacity));
+    }
+
+    /**
+     * Проверяет, что пула хватает на одновременную синхронизацию: каждому фиду нужно соединение
+     * для справочников и карантина, а предложения пишут либо писатели конвейера каждого фида,
+     * либо общие потоки параллельной записи (db.write.parallelism)
+     *
+     * @throws IllegalArgumentException если соединений db.pool.size меньше, чем нужно
+     */
+    public void checkPoolCapacity(boolean pipeline) {
+        int feedsAtOnce = Math.min(parallelism, feeds.size());
+        int writeParallelism = dbService.getWriteParallelism();
+        int required = writeParallelism > 1
+                ? feedsAtOnce + writeParallelism
+                : feedsAtOnce * (pipeline ? Math.max(pipelineWriters, 1) : 1);
+        if (required > dbService.getPoolSize()) {
+            throw new IllegalArgumentException("db.pool.size=" + dbService.getPoolSize() + " is too small: "
+                    + feedsAtOnce + " feed(s) at once"
+                    + (pipeline ? " with " + pipelineWriters + " pipeline writers" : "")
+                    + (writeParallelism > 1 ? " and " + writeParallelism + " parallel offer writers" : "")
+                    + " need " + required + " connections; raise db.pool.size or lower sync.feed.parallelism,"
+                    + " sync.pipeline.writers or db.write.parallelism");
+        }
+    }
+
+    /**
+     * Синхронизирует все фиды; результаты возвращаются в порядке фидов в настройках
+     */
+    public List<FeedSyncResult> syncAll(boolean force, boolean pipeline) {
+        checkPoolCapacity(pipeline);
+        if (feeds.size() == 1) {
+            return List.of(syncFeed(feeds.get(0), force, pipeline));
+        }
+
+        List<Future<FeedSyncResult>> tasks = new ArrayList<>(feeds.size());
+        List<FeedSyncResult> results = new ArrayList<>(feeds.size());
+        try (ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, feeds.size()))) {
+            for (FeedSource feed : feeds) {
+                tasks.add(executor.submit(() -> syncFeed(feed, force, pipeline)));
+            }
+            for (Future<FeedSyncResult> task : tasks) {
+                results.add(task.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while syncing feeds", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : new RuntimeException(e.getCause());
+        }
+        return results;
+    }
+
+    private FeedSyncResult syncFeed(FeedSource feed, boolean force, boolean pipeline) {
+        try {
+            SyncResult result = serviceFor(feed).syncAll(parsers.apply(feed), force, pipeline);
+            return new FeedSyncResult(feed.supplierId(), result, null);
+        } catch (RuntimeException e) {
+            return new FeedSyncResult(feed.supplierId(), null, e);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.xmlservice.service;
+
+import java.util.Set;
+
+/**
+ * Предложения, которые синхронизация записала или удалила (пометила удаленными), - по ним обновляется
+ * индекс API чтения без полного чтения таблицы
+ *
+ * @param full        набор ключей неполный (начальная загрузка, продолжение прерванной загрузки):
+ *                    индекс нужно перечитать целиком
+ * @param vendorCodes ключи записанных и удаленных предложений
+ */
+public record OfferChanges(boolean full, Set<String> vendorCodes) {
+}
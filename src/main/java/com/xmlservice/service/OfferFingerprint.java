@@ -0,0 +1,72 @@
+package com.xmlservice.service;
+
+import com.xmlservice.data.OfferData;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * 64-битный отпечаток содержимого предложения (FNV-1a) по полям name, category_id, price, currency_code
+ * и дополнительным полям, если они читаются.
+ * Используется дельта-синхронизацией, чтобы не отправлять в БД неизмененные строки.
+ */
+public final class OfferFingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final char FIELD_SEPARATOR = '\u0000';
+    private static final char NULL_MARKER = '\u0001';
+
+    private OfferFingerprint() {
+    }
+
+    public static long of(OfferData offer) {
+        long hash = FNV_OFFSET;
+        hash = mix(hash, offer.getName());
+        hash = mix(hash, offer.getCategoryId());
+        hash = mix(hash, normalizedPrice(offer));
+        hash = mix(hash, offer.getCurrencyCode());
+        // без дополнительных полей отпечаток тот же, что и до их появления: строки не перезаписываются
+        String[] extras = offer.getExtras();
+        if (extras != null) {
+            for (String extra : extras) {
+                hash = mix(hash, extra);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * 10.5 и 10.50 дают одинаковый отпечаток: в БД цена хранится как NUMERIC(18,2).
+     * Совпадает с BigDecimal.stripTrailingZeros().toPlainString(), но без создания BigDecimal.
+     */
+    private static String normalizedPrice(OfferData offer) {
+        if (!offer.hasPrice()) return null;
+        StringBuilder price = new StringBuilder(24);
+        try {
+            offer.appendPrice(price, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return price.toString();
+    }
+
+    private static long mix(long hash, String value) {
+        if (value == null) {
+            hash = step(hash, NULL_MARKER);
+        } else {
+            for (int i = 0; i < value.length(); i++) {
+                hash = step(hash, value.charAt(i));
+            }
+        }
+        return step(hash, FIELD_SEPARATOR);
+    }
+
+    private static long step(long hash, char c) {
+        hash ^= c & 0xff;
+        hash *= FNV_PRIME;
+        hash ^= c >>> 8;
+        hash *= FNV_PRIME;
+        return hash;
+    }
+}
@@ -0,0 +1,227 @@
+package com.xmlservice.service;
+
+import com.xmlservice.data.CategoryData;
+import com.xmlservice.data.CurrencyData;
+import com.xmlservice.data.OfferData;
+import com.xmlservice.data.RejectedRow;
+import com.xmlservice.parser.FeedListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Конвейерное обновление: разбор фида идет в потоке вызывающего, а порции предложений
+ * через ограниченную очередь забирают писатели на виртуальных потоках.
+ * Заполненная очередь блокирует парсер, поэтому потребление памяти не растет с размером фида.
+ * Валюты и категории фиксируются до запуска писателей, чтобы выполнялись внешние ключи offers.
+ * Порции фиксируются в произвольном порядке; {@link CheckpointTracker} сохраняет позицию
+ * только непрерывно записанного начала фида.
+ */
+public class PipelinedUpdater implements FeedListener, AutoCloseable {
+
+    private static final Batch END_OF_FEED = new Batch(List.of(), -1);
+    private static final long POLL_INTERVAL_MS = 200;
+
+    private final DatabaseService dbService;
+    private final CheckpointTracker checkpoint;
+    private final int writers;
+    private final BlockingQueue<Batch> queue;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private final List<CurrencyData> currencies = new ArrayList<>();
+    private final List<CategoryData> categories = new ArrayList<>();
+    private final List<RejectedRow> rejected = new ArrayList<>();
+    private final List<Future<?>> writerTasks = new ArrayList<>();
+
+    private ExecutorService executor;
+    private List<OfferData> batch;
+    private int currencyCount;
+    private int categoryCount;
+    private long offerCount;
+
+    /**
+     * Порция предложений и ее номер для контрольной точки (-1 без нее)
+     */
+    private record Batch(List<OfferData> offers, long chunk) {
+    }
+
+    public PipelinedUpdater(DatabaseService dbService, int writers, int queueCapacity) {
+        this(dbService, writers, queueCapacity, null);
+    }
+
+    /**
+     * @param checkpoint контрольная точка загрузки, null - без нее
+     */
+    public PipelinedUpdater(DatabaseService dbService, int writers, int queueCapacity, CheckpointTracker checkpoint) {
+        if (writers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Writers and queue capacity must be positive");
+        }
+        this.dbService = dbService;
+        this.checkpoint = checkpoint;
+        this.writers = writers;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batch = new ArrayList<>(dbService.getBatchSize());
+    }
+
+    @Override
+    public void onTable(String tableName) {
+        dbService.validateDatabaseStructure(List.of(tableName));
+        if ("offers".equals(tableName)) {
+            flushReferences();
+            startWriters();
+        }
+    }
+
+    @Override
+    public void onCurrency(CurrencyData currency) {
+        currencies.add(currency);
+    }
+
+    @Override
+    public void onCategory(CategoryData category) {
+        categories.add(category);
+    }
+
+    /**
+     * Отклоненные парсером строки сохраняются в карантин порциями, разбор продолжается
+     */
+    @Override
+    public void onRejected(RejectedRow row) {
+        rejected.add(row);
+        if (rejected.size() >= dbService.getBatchSize()) {
+            flushRejected();
+        }
+    }
+
+    @Override
+    public void onOffer(OfferData offer) {
+        if (checkpoint != null && checkpoint.skip(offer)) return;
+        batch.add(offer);
+        if (batch.size() >= dbService.getBatchSize()) {
+            enqueue(batch);
+            batch = new ArrayList<>(dbService.getBatchSize());
+        }
+    }
+
+    /**
+     * Отправляет остаток, дожидается писателей и пробрасывает первую ошибку записи
+     */
+    public void finish() {
+        flushReferences();
+        flushRejected();
+        if (executor == null) return;
+
+        if (!batch.isEmpty()) {
+            enqueue(batch);
+            batch = new ArrayList<>();
+        }
+        for (int i = 0; i < writers; i++) {
+            enqueue(END_OF_FEED);
+        }
+        for (Future<?> task : writerTasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for offer writers", e);
+            } catch (Exception e) {
+                failure.compareAndSet(null, new RuntimeException(e.getMessage(), e));
+            }
+        }
+        rethrowFailure();
+    }
+
+    private void flushRejected() {
+        dbService.quarantine(rejected);
+        rejected.clear();
+    }
+
+    private void flushReferences() {
+        if (!currencies.isEmpty()) {
+            dbService.upsertCurrencies(currencies);
+            currencyCount += currencies.size();
+            currencies.clear();
+        }
+        if (!categories.isEmpty()) {
+            dbService.upsertCategories(categories);
+            categoryCount += categories.size();
+            categories.clear();
+        }
+    }
+
+    private void startWriters() {
+        if (executor != null) return;
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        for (int i = 0; i < writers; i++) {
+            writerTasks.add(executor.submit(this::drain));
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                Batch next = queue.take();
+                if (next == END_OF_FEED || failure.get() != null) return;
+                dbService.upsertOffers(next.offers());
+                if (checkpoint != null) checkpoint.committed(next.chunk());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * Кладет порцию в очередь, ожидая свободного места; прерывает разбор, если писатель упал
+     */
+    private void enqueue(List<OfferData> offers) {
+        offerCount += offers.size();
+        enqueue(new Batch(offers, checkpoint != null ? checkpoint.chunk() : -1));
+    }
+
+    private void enqueue(Batch next) {
+        try {
+            while (!queue.offer(next, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                rethrowFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while queueing offers", e);
+        }
+        if (next != END_OF_FEED) {
+            rethrowFailure();
+        }
+    }
+
+    private void rethrowFailure() {
+        RuntimeException e = failure.get();
+        if (e != null) throw e;
+    }
+
+    @Override
+    public void close() {
+        if (executor == null) return;
+        queue.clear();
+        executor.shutdownNow();
+        executor.close();
+    }
+
+    public int getCurrencyCount() {
+        return currencyCount;
+    }
+
+    public int getCategoryCount() {
+        return categoryCount;
+    }
+
+    public long getOfferCount() {
+        return offerCount;
+    }
+}
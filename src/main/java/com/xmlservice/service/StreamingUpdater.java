@@ -0,0 +1,131 @@
+package com.xmlservice.service;
+
+import com.xmlservice.data.CategoryData;
+import com.xmlservice.data.CurrencyData;
+import com.xmlservice.data.OfferData;
+import com.xmlservice.data.RejectedRow;
+import com.xmlservice.parser.FeedListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Записывает сущности потокового фида в БД порциями по db.batch.size, не накапливая весь список предложений.
+ * Без контрольной точки SyncService выполняет разбор внутри {@link DatabaseService#inSingleTransaction},
+ * и порции фиксируются вместе в конце; с ней каждая порция фиксируется отдельной транзакцией.
+ * Валюты и категории сохраняются до первого предложения, чтобы выполнялись внешние ключи offers.
+ * С {@link CheckpointTracker} после каждой порции сохраняется позиция в фиде, а уже записанные
+ * прерванным запуском предложения пропускаются.
+ */
+public class StreamingUpdater implements FeedListener {
+
+    private final DatabaseService dbService;
+    private final CheckpointTracker checkpoint;
+    private final List<CurrencyData> currencies = new ArrayList<>();
+    private final List<CategoryData> categories = new ArrayList<>();
+    private final List<RejectedRow> rejected = new ArrayList<>();
+    private final List<OfferData> offers;
+
+    private int currencyCount;
+    private int categoryCount;
+    private int offerCount;
+
+    public StreamingUpdater(DatabaseService dbService) {
+        this(dbService, null);
+    }
+
+    /**
+     * @param checkpoint контрольная точка загрузки, null - без нее
+     */
+    public StreamingUpdater(DatabaseService dbService, CheckpointTracker checkpoint) {
+        this.dbService = dbService;
+        this.checkpoint = checkpoint;
+        this.offers = new ArrayList<>(dbService.getBatchSize());
+    }
+
+    @Override
+    public void onTable(String tableName) {
+        dbService.validateDatabaseStructure(List.of(tableName));
+        if ("offers".equals(tableName)) {
+            flushReferences();
+        }
+    }
+
+    @Override
+    public void onCurrency(CurrencyData currency) {
+        currencies.add(currency);
+    }
+
+    @Override
+    public void onCategory(CategoryData category) {
+        categories.add(category);
+    }
+
+    /**
+     * Отклоненные парсером строки сохраняются в карантин порциями, разбор продолжается
+     */
+    @Override
+    public void onRejected(RejectedRow row) {
+        rejected.add(row);
+        if (rejected.size() >= dbService.getBatchSize()) {
+            flushRejected();
+        }
+    }
+
+    @Override
+    public void onOffer(OfferData offer) {
+        if (checkpoint != null && checkpoint.skip(offer)) return;
+        offers.add(offer);
+        if (offers.size() >= dbService.getBatchSize()) {
+            flushOffers();
+        }
+    }
+
+    /**
+     * Сохраняет оставшиеся в буфере данные, вызывается после окончания разбора фида
+     */
+    public void finish() {
+        flushReferences();
+        flushOffers();
+        flushRejected();
+    }
+
+    private void flushRejected() {
+        dbService.quarantine(rejected);
+        rejected.clear();
+    }
+
+    private void flushReferences() {
+        if (!currencies.isEmpty()) {
+            dbService.upsertCurrencies(currencies);
+            currencyCount += currencies.size();
+            currencies.clear();
+        }
+        if (!categories.isEmpty()) {
+            dbService.upsertCategories(categories);
+            categoryCount += categories.size();
+            categories.clear();
+        }
+    }
+
+    private void flushOffers() {
+        if (offers.isEmpty()) return;
+        long chunk = checkpoint != null ? checkpoint.chunk() : -1;
+        dbService.upsertOffers(offers);
+        if (checkpoint != null) checkpoint.committed(chunk);
+        offerCount += offers.size();
+        offers.clear();
+    }
+
+    public int getCurrencyCount() {
+        return currencyCount;
+    }
+
+    public int getCategoryCount() {
+        return categoryCount;
+    }
+
+    public int getOfferCount() {
+        return offerCount;
+    }
+}
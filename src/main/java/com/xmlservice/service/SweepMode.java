@@ -0,0 +1,22 @@
+package com.xmlservice.service;
+
+/**
+ * Что делать с предложениями, пропавшими из фида, после полной синхронизации
+ */
+public enum SweepMode {
+    /** Оставлять в таблице */
+    OFF,
+    /** Удалять */
+    DELETE,
+    /** Помечать deleted_at; предложение восстанавливается, если снова появится в фиде */
+    SOFT;
+
+    public static SweepMode parse(String value) {
+        if (value == null || value.isBlank()) return OFF;
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown sweep mode: " + value + " (expected off, delete or soft)");
+        }
+    }
+}
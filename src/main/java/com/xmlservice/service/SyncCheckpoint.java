@@ -0,0 +1,11 @@
+package com.xmlservice.service;
+
+/**
+ * Сохраненная позиция незавершенной загрузки фида поставщика
+ *
+ * @param feedVersion   версия фида ({@link com.xmlservice.feed.FetchResult#version()}), к которой относится позиция
+ * @param offerPosition сколько первых предложений фида уже зафиксировано в БД
+ * @param generation    поколение синхронизации, в котором они записаны; null, если очистка выключена
+ */
+public record SyncCheckpoint(String feedVersion, long offerPosition, Long generation) {
+}
@@ -0,0 +1,21 @@
+package com.xmlservice.service;
+
+/**
+ * Итог полной синхронизации фида
+ *
+ * @param skipped      фид не изменился с прошлой синхронизации, запись не выполнялась
+ * @param offerCount   предложения фида, включая записанные прерванным запуском
+ * @param removedCount предложения, пропавшие из фида и удаленные (помеченные) очисткой
+ * @param resumedCount     предложения, записанные прерванным запуском и не записывавшиеся повторно
+ * @param quarantinedCount строки, отклоненные при разборе или проверке ограничений и сохраненные в sync_quarantine
+ * @param offerChanges     записанные и удаленные предложения, null - не отслеживались
+ *                         (см. {@link DatabaseService#setTrackOfferChanges})
+ */
+public record SyncResult(boolean skipped, long currencyCount, long categoryCount, long offerCount,
+                         long removedCount, long resumedCount, long quarantinedCount, long elapsedMs,
+                         OfferChanges offerChanges) {
+
+    static SyncResult skipped(long elapsedMs) {
+        return new SyncResult(true, 0, 0, 0, 0, 0, 0, elapsedMs, null);
+    }
+}
@@ -0,0 +1,186 @@
+package com.xmlservice.service;
+
+import com.xmlservice.XmlParser;
+import com.xmlservice.data.FeedData;
+import com.xmlservice.parser.FeedListener;
+
+import java.util.List;
+
+/**
+ * Полная синхронизация фида с БД: выбирает способ обновления (дерево, поток, конвейер),
+ * после успешной записи очищает пропавшие из фида предложения и отмечает версию фида как синхронизированную.
+ * Разбор деревом и потоком записывает фид одной транзакцией. С контрольными точками
+ * ({@link DatabaseService#setCheckpointing}) предложения фиксируются порциями
+ * в любом режиме, а прерванная загрузка той же версии фида продолжается с сохраненной позиции.
+ * Конвейер и параллельная запись тоже фиксируют предложения порциями.
+ * Строки, которые нельзя разобрать или записать, уходят в карантин, а синхронизация продолжается.
+ * В режиме начальной загрузки ({@link DatabaseService#setBulkLoad}) фид пишется в таблицы без ключей,
+ * из которых строки поставщика затем переносятся в основные одной транзакцией.
+ */
+public class SyncService {
+
+    private final DatabaseService dbService;
+    private final int pipelineWriters;
+    private final int pipelineQueueCapacity;
+
+    public SyncService(DatabaseService dbService, int pipelineWriters, int pipelineQueueCapacity) {
+        this.dbService = dbService;
+        this.pipelineWriters = pipelineWriters;
+        this.pipelineQueueCapacity = pipelineQueueCapacity;
+    }
+
+    /**
+     * @param force    обновить, даже если фид не изменился с последней синхронизации
+     * @param pipeline писать предложения параллельно с разбором (см. {@link PipelinedUpdater})
+     */
+    public SyncResult syncAll(XmlParser parser, boolean force, boolean pipeline) {
+        long start = System.nanoTime();
+        if (!force && !parser.isFeedModified()) {
+            return SyncResult.skipped(elapsedMs(start));
+        }
+        dbService.resetCaches();
+        dbService.beginOfferChanges();
+        if (dbService.isBulkLoad()) {
+            return syncBulk(parser, start);
+        }
+
+        long currencies;
+        long categories;
+        long offers;
+        long removed;
+        SyncCheckpoint resumeFrom = resumableCheckpoint(parser);
+        if (resumeFrom == null) {
+            // при продолжении в карантине остаются строки из уже пройденной части фида
+            dbService.clearQuarantine();
+        }
+        long quarantinedBefore = dbService.getQuarantinedCount();
+        dbService.beginOfferGeneration(resumeFrom != null ? resumeFrom.generation() : null);
+        CheckpointTracker checkpoint = dbService.isCheckpointing()
+                ? new CheckpointTracker(dbService, parser.fetch().version(),
+                resumeFrom != null ? resumeFrom.offerPosition() : 0, dbService.getOfferGeneration())
+                : null;
+        try {
+            if (pipeline) {
+                try (PipelinedUpdater updater = new PipelinedUpdater(dbService, pipelineWriters, pipelineQueueCapacity,
+                        checkpoint)) {
+                    parser.stream(updater);
+                    updater.finish();
+                    currencies = updater.getCurrencyCount();
+                    categories = updater.getCategoryCount();
+                    offers = updater.getOfferCount();
+                }
+            } else if (parser.isStreaming()) {
+                StreamingUpdater updater = new StreamingUpdater(dbService, checkpoint);
+                if (checkpoint == null && dbService.getWriteParallelism() <= 1) {
+                    // как и дерево, фид применяется целиком или не применяется
+                    dbService.inSingleTransaction(() -> {
+                        parser.stream(updater);
+                        updater.finish();
+                    });
+                } else {
+                    parser.stream(updater);
+                    updater.finish();
+                }
+                currencies = updater.getCurrencyCount();
+                categories = updater.getCategoryCount();
+                offers = updater.getOfferCount();
+            } else if (checkpoint != null) {
+                // дерево строится целиком, но записывается порциями, как при потоковом разборе
+                StreamingUpdater updater = new StreamingUpdater(dbService, checkpoint);
+                replay(parser.getTableNames(), parser.parseAll(), updater);
+                updater.finish();
+                currencies = updater.getCurrencyCount();
+                categories = updater.getCategoryCount();
+                offers = updater.getOfferCount();
+            } else {
+                dbService.validateDatabaseStructure(parser.getTableNames());
+                FeedData feed = parser.parseAll();
+                dbService.upsertAll(feed);
+                currencies = feed.getCurrencyCount();
+                categories = feed.getCategoryCount();
+                offers = feed.getOfferCount();
+            }
+            removed = dbService.sweepStaleOffers();
+        } finally {
+            dbService.endOfferGeneration();
+        }
+
+        long resumed = checkpoint != null ? checkpoint.getResumedCount() : 0;
+        if (checkpoint != null) {
+            dbService.clearCheckpoint();
+        }
+        parser.markSynced();
+        long quarantined = dbService.getQuarantinedCount() - quarantinedBefore;
+        // строки, записанные прерванным запуском, в собранные ключи не попали
+        OfferChanges changes = dbService.takeOfferChanges(resumeFrom != null);
+        return new SyncResult(false, currencies, categories, offers + resumed, removed, resumed, quarantined,
+                elapsedMs(start), changes);
+    }
+
+    /**
+     * Начальная загрузка через {@link BulkLoader}. Конвейер и контрольные точки не используются, очистка пропавших
+     * предложений выполняется при переносе строк в основные таблицы.
+     */
+    private SyncResult syncBulk(XmlParser parser, long start) {
+        dbService.clearQuarantine();
+        long quarantinedBefore = dbService.getQuarantinedCount();
+        BulkLoader loader = new BulkLoader(dbService);
+        long removed;
+        dbService.beginOfferGeneration();
+        try {
+            dbService.beginBulkLoad();
+            if (parser.isStreaming()) {
+                // таблицы фида BulkLoader узнает по секциям за тот же проход
+                parser.stream(loader);
+            } else {
+                replay(parser.getTableNames(), parser.parseAll(), loader);
+            }
+            removed = loader.finish();
+        } finally {
+            dbService.endOfferGeneration();
+            dbService.endBulkLoad();
+        }
+
+        if (dbService.isCheckpointing()) {
+            // точка прерванной обычной синхронизации относится к замененным строкам
+            dbService.clearCheckpoint();
+        }
+        parser.markSynced();
+        long quarantined = dbService.getQuarantinedCount() - quarantinedBefore;
+        // строки переносятся в основные таблицы одним запросом, ключи по ним не собираются
+        return new SyncResult(false, loader.getCurrencyCount(), loader.getCategoryCount(), loader.getOfferCount(),
+                removed, 0, quarantined, elapsedMs(start), dbService.takeOfferChanges(true));
+    }
+
+    /**
+     * Сохраненная позиция, с которой можно продолжить загрузку: той же версии фида и, если включена очистка,
+     * с поколением - иначе записанные прерванным запуском строки были бы удалены как устаревшие
+     */
+    private SyncCheckpoint resumableCheckpoint(XmlParser parser) {
+        if (!dbService.isCheckpointing()) return null;
+        SyncCheckpoint saved = dbService.loadCheckpoint();
+        if (saved == null || !saved.feedVersion().equals(parser.fetch().version())) return null;
+        if (saved.generation() == null && dbService.getSweepMode() != SweepMode.OFF) return null;
+        return saved;
+    }
+
+    private static void replay(List<String> tables, FeedData feed, FeedListener listener) {
+        feed.getRejected().forEach(listener::onRejected);
+        if (tables.contains("currency")) {
+            listener.onTable("currency");
+            feed.getCurrencies().forEach(listener::onCurrency);
+        }
+        if (tables.contains("categories")) {
+            listener.onTable("categories");
+            feed.getCategories().forEach(listener::onCategory);
+        }
+        if (tables.contains("offers")) {
+            listener.onTable("offers");
+            feed.getOffers().forEach(listener::onOffer);
+        }
+    }
+
+    private static long elapsedMs(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,11 @@
+package com.xmlservice.service;
+
+/**
+ * Способ записи строк в таблицы
+ */
+public enum WriteMode {
+    /** INSERT ... ON CONFLICT пакетами PreparedStatement */
+    BATCH,
+    /** COPY FROM STDIN во временную таблицу и одно слияние INSERT ... SELECT */
+    COPY
+}
@@ -0,0 +1,43 @@
+package com.xmlservice.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Накопленные количество строк и время записи по таблицам
+ */
+public class WriteStats {
+
+    private final Map<String, TableStats> tables = new ConcurrentSkipListMap<>();
+
+    private static class TableStats {
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+    }
+
+    public void record(String table, long rows, long nanos) {
+        TableStats stats = tables.computeIfAbsent(table, t -> new TableStats());
+        stats.rows.add(rows);
+        stats.nanos.add(nanos);
+    }
+
+    public boolean isEmpty() {
+        return tables.isEmpty();
+    }
+
+    public void reset() {
+        tables.clear();
+    }
+
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        tables.forEach((table, stats) -> {
+            long rows = stats.rows.sum();
+            double seconds = stats.nanos.sum() / 1_000_000_000.0;
+            double rowsPerSec = seconds > 0 ? rows / seconds : 0;
+            sb.append(String.format("  %-12s %10d rows %10.3f s %12.0f rows/s%n", table, rows, seconds, rowsPerSec));
+        });
+        return sb.toString();
+    }
+}
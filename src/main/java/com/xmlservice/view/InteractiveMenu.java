@@ -1,6 +1,13 @@
 package com.xmlservice.view;
 
 import com.xmlservice.Main;
+import com.xmlservice.config.FeedSource;
+import com.xmlservice.data.CategoryData;
+import com.xmlservice.data.CurrencyData;
+import com.xmlservice.data.OfferData;
+import com.xmlservice.service.FeedSyncResult;
+import com.xmlservice.service.SyncResult;
+import com.xmlservice.service.WriteStats;
 
 import java.util.List;
 import java.util.Scanner;
@@ -10,28 +17,32 @@ public class InteractiveMenu {
     private final Scanner scanner;
     private final Main app;
 
-    public InteractiveMenu(Scanner scanner, String xmlUrl, String defaultJdbc,
+    public InteractiveMenu(Scanner scanner, List<FeedSource> feeds, String defaultJdbc,
                            String defaultUser, String defaultPassword) {
         this.scanner = scanner;
-        this.app = createApp(xmlUrl, defaultJdbc, defaultUser, defaultPassword);
+        this.app = createApp(feeds, defaultJdbc, defaultUser, defaultPassword);
     }
 
-    private Main createApp(String xmlUrl, String defaultJdbc, String defaultUser, String defaultPassword) {
-        return new Main(xmlUrl, defaultJdbc, defaultUser, defaultPassword);
+    private Main createApp(List<FeedSource> feeds, String defaultJdbc, String defaultUser, String defaultPassword) {
+        return new Main(feeds, defaultJdbc, defaultUser, defaultPassword);
     }
 
     public void run() {
-        while (true) {
-            printMenu();
-            String choice = scanner.nextLine().trim();
-
-            try {
-                if (!processChoice(choice)) {
-                    break;
+        try {
+            while (true) {
+                printMenu();
+                String choice = scanner.nextLine().trim();
+
+                try {
+                    if (!processChoice(choice)) {
+                        break;
+                    }
+                } catch (Exception e) {
+                    System.err.println("❌ Ошибка: " + e.getMessage());
                 }
-            } catch (Exception e) {
-                System.err.println("❌ Ошибка: " + e.getMessage());
             }
+        } finally {
+            app.close();
         }
     }
 
@@ -87,19 +98,40 @@ public class InteractiveMenu {
 
     private void updateAllTables() {
         System.out.println("🔄 Обновление всех таблиц...");
-        app.getDbService().validateDatabaseStructure(app.getParser().getTableNames());
-
-        int currencyCount = app.getParser().parseCurrencies().size();
-        app.getDbService().upsertCurrencies(app.getParser().parseCurrencies());
-
-        int categoryCount = app.getParser().parseCategories().size();
-        app.getDbService().upsertCategories(app.getParser().parseCategories());
+        List<FeedSyncResult> results = app.getFeedSyncService().syncAll(true, false);
+        if (results.size() == 1 && results.get(0).failed()) {
+            throw results.get(0).error();
+        }
 
-        int offerCount = app.getParser().parseOffers().size();
-        app.getDbService().upsertOffers(app.getParser().parseOffers());
+        for (FeedSyncResult feedResult : results) {
+            String prefix = results.size() > 1 ? "[" + feedResult.supplierId() + "] " : "";
+            if (feedResult.failed()) {
+                System.err.println("❌ " + prefix + "Ошибка: " + feedResult.error().getMessage());
+                continue;
+            }
+            SyncResult result = feedResult.result();
+            System.out.printf("✅ %sОбновление завершено: %d валют, %d категорий, %d предложений%n",
+                    prefix, result.currencyCount(), result.categoryCount(), result.offerCount());
+            if (result.resumedCount() > 0) {
+                System.out.println("⏩ " + prefix + "Продолжена прерванная загрузка, пропущено уже записанных предложений: "
+                        + result.resumedCount());
+            }
+            if (result.removedCount() > 0) {
+                System.out.println("🗑 " + prefix + "Удалено предложений, пропавших из фида: " + result.removedCount());
+            }
+            if (result.quarantinedCount() > 0) {
+                System.out.println("⚠ " + prefix + "Строк в карантине (sync_quarantine): " + result.quarantinedCount());
+            }
+        }
+        printWriteStats();
+    }
 
-        System.out.printf("✅ Обновление завершено: %d валют, %d категорий, %d предложений%n",
-                currencyCount, categoryCount, offerCount);
+    private void printWriteStats() {
+        WriteStats stats = app.getDbService().getWriteStats();
+        if (!stats.isEmpty()) {
+            System.out.print("⏱ Скорость записи:\n" + stats.summary());
+            stats.reset();
+        }
     }
 
     private void updateSpecificTable() {
@@ -107,25 +139,32 @@ public class InteractiveMenu {
         String table = scanner.nextLine().trim();
 
         app.getDbService().validateDatabaseStructure(app.getParser().getTableNames());
+        long quarantined = app.getDbService().getQuarantinedCount();
 
         switch (table) {
             case "currency" -> {
-                int count = app.getParser().parseCurrencies().size();
-                app.getDbService().upsertCurrencies(app.getParser().parseCurrencies());
-                System.out.printf("✅ Обновлено %d валют%n", count);
+                List<CurrencyData> rows = app.getParser().parseCurrencies();
+                app.getDbService().upsertCurrencies(rows);
+                System.out.printf("✅ Обновлено %d валют%n", rows.size());
             }
             case "categories" -> {
-                int count = app.getParser().parseCategories().size();
-                app.getDbService().upsertCategories(app.getParser().parseCategories());
-                System.out.printf("✅ Обновлено %d категорий%n", count);
+                List<CategoryData> rows = app.getParser().parseCategories();
+                app.getDbService().upsertCategories(rows);
+                System.out.printf("✅ Обновлено %d категорий%n", rows.size());
             }
             case "offers" -> {
-                int count = app.getParser().parseOffers().size();
-                app.getDbService().upsertOffers(app.getParser().parseOffers());
-                System.out.printf("✅ Обновлено %d предложений%n", count);
+                List<OfferData> rows = app.getParser().parseOffers();
+                app.getDbService().upsertOffers(rows);
+                System.out.printf("✅ Обновлено %d предложений%n", rows.size());
             }
             default -> System.out.println("❌ Неизвестная таблица: " + table);
         }
+        app.getDbService().quarantine(app.getParser().takeRejected());
+        quarantined = app.getDbService().getQuarantinedCount() - quarantined;
+        if (quarantined > 0) {
+            System.out.println("⚠ Строк в карантине (sync_quarantine): " + quarantined);
+        }
+        printWriteStats();
     }
 
     private void showColumns() {
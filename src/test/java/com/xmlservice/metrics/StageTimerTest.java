@@ -0,0 +1,43 @@
+package com.xmlservice.metrics;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StageTimerTest {
+
+    @BeforeEach
+    void reset() {
+        Metrics.reset();
+    }
+
+    @Test
+    void pausedTimeIsNotRecorded() throws InterruptedException {
+        try (StageTimer timer = Metrics.stage("parse")) {
+            timer.pause();
+            Thread.sleep(200);
+            timer.resume();
+            timer.success();
+        }
+        assertTrue(lastSeconds("parse") < 0.1, Metrics.prometheus());
+    }
+
+    @Test
+    void closeWhilePausedStopsAtPause() throws InterruptedException {
+        try (StageTimer timer = Metrics.stage("parse")) {
+            Thread.sleep(50);
+            timer.pause();
+            Thread.sleep(200);
+        }
+        double seconds = lastSeconds("parse");
+        assertTrue(seconds >= 0.05 && seconds < 0.2, Metrics.prometheus());
+    }
+
+    private static double lastSeconds(String stage) {
+        String prefix = "xml_service_stage_last_duration_seconds{stage=\"" + stage + "\"} ";
+        return Metrics.prometheus().lines().filter(line -> line.startsWith(prefix))
+                .mapToDouble(line -> Double.parseDouble(line.substring(prefix.length())))
+                .findFirst().orElseThrow();
+    }
+}
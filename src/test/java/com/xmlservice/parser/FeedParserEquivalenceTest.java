@@ -0,0 +1,173 @@
+package com.xmlservice.parser;
+
+import com.xmlservice.XmlParser;
+import com.xmlservice.data.FeedData;
+import com.xmlservice.data.OfferData;
+import com.xmlservice.data.RejectedRow;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Разбор деревом, потоком и частями на нескольких потоках дает одни и те же строки в том же порядке
+ */
+class FeedParserEquivalenceTest {
+
+    private static final String EXTRAS = "oldprice,available=@available,url";
+
+    private static final String FEED = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <!DOCTYPE yml_catalog SYSTEM "shops.dtd">
+            <!-- <offers> в комментарии -->
+            <yml_catalog xmlns:g="urn:g" date="2024-01-01">
+            <shop>
+            <name>Shop &amp; Co</name>
+            <currencies>
+              <currency id=" RUR " rate="1"/>
+              <currency id=" USD " rate="9x"/>
+              <currency id="EUR" rate=" 95.5 "/>
+            </currencies>
+            <categories>
+              <category id="1"> Root &gt; 1 </category>
+              <category id="2">Child</category>
+            </categories>
+            <offers>
+              <!-- <offer id="fake"> -->
+              <offer id="A1" available="true" g:flag="1">
+                <name><![CDATA[<offer id="x"></offer>]]></name>
+                <categoryId>1</categoryId><price>10.50</price><currencyId>RUR</currencyId>
+                <oldprice> 12 </oldprice><g:gtin>1</g:gtin><url/>
+              </offer>
+              <?pi <offer ?>
+              <offer id="A2"><name>Bad price</name><categoryId>1</categoryId><price>bad</price></offer>
+              <offer id=" A3 "/>
+              <offer id="A4" available="false"><name>Shop &amp; Co</name><categoryId>2</categoryId><price>5</price>
+                <currencyId>EUR</currencyId><url>https://example.com/?a=1&amp;b=2</url></offer>
+              <offer><name>No id</name></offer>
+            </offers>
+            </shop>
+            </yml_catalog>
+            """;
+
+    /** cp1251, валюты после предложений */
+    private static final String FEED_1251 = """
+            <?xml version="1.0" encoding="windows-1251"?>
+            <yml_catalog><shop>
+            <categories><category id="1">Категория</category></categories>
+            <offers>
+            <offer id="B1"><name>Товар "1"</name><categoryId>1</categoryId><price>1</price>
+            <currencyId>RUR</currencyId></offer>
+            <offer id="B2"><name>Товар 2</name><categoryId>1</categoryId><price>2</price>
+            <currencyId>USD</currencyId></offer>
+            </offers>
+            <currencies><currency id="RUR" rate="1"/><currency id="USD" rate="90"/></currencies>
+            </shop></yml_catalog>
+            """;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void allModesMatchOnUtf8Feed() throws IOException {
+        Path file = write("feed.xml", FEED, StandardCharsets.UTF_8);
+
+        FeedData tree = parse(file, false, 1);
+        assertEquals(3, tree.getOfferCount());
+        assertEquals(List.of("RUR", "EUR"), tree.getCurrencies().stream().map(c -> c.getCode()).toList());
+        assertTrue(tree.getRejected().contains(new RejectedRow("currency", "USD", "invalid rate: '9x'")),
+                tree.getRejected().toString());
+
+        assertSameFeed(tree, parse(file, true, 1));
+        assertSameFeed(tree, parse(file, true, 4));
+        assertSameFeed(tree, parse(gzip(file), true, 4));
+    }
+
+    @Test
+    void allModesMatchOnCp1251FeedWithCurrenciesAfterOffers() throws IOException {
+        Path file = write("feed1251.xml", FEED_1251, Charset.forName("windows-1251"));
+
+        FeedData tree = parse(file, false, 1);
+        assertEquals(2, tree.getOfferCount());
+        assertEquals("Товар \"1\"", tree.getOffers().get(0).getName());
+
+        assertSameFeed(tree, parse(file, true, 1));
+        assertSameFeed(tree, parse(file, true, 3));
+        assertSameFeed(tree, parse(gzip(file), true, 3));
+    }
+
+    @Test
+    void shardsKeepNamespacesOfOffersAncestors() throws IOException {
+        Path file = write("ns.xml", """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <yml_catalog xmlns:g="urn:g"><shop xmlns:x="urn:x"><offers xmlns:y="urn:y">
+                <offer id="1" g:flag="1"><name>A</name><g:gtin>1</g:gtin><x:z/><y:w/></offer>
+                <offer id="2"><name>B</name><g:gtin>2</g:gtin></offer>
+                </offers></shop></yml_catalog>
+                """, StandardCharsets.UTF_8);
+
+        FeedData stream = parse(file, true, 1);
+        assertEquals(2, stream.getOfferCount());
+        assertSameFeed(stream, parse(file, true, 2));
+    }
+
+    @Test
+    void tableNamesIncludeSectionsAfterOffers() throws IOException {
+        Path file = write("feed1251.xml", FEED_1251, Charset.forName("windows-1251"));
+
+        Set<String> expected = Set.of("currency", "categories", "offers");
+        assertEquals(expected, Set.copyOf(parser(file, false, 1).getTableNames()));
+        assertEquals(expected, Set.copyOf(parser(file, true, 1).getTableNames()));
+    }
+
+    private FeedData parse(Path file, boolean streaming, int threads) {
+        return parser(file, streaming, threads).parseAll();
+    }
+
+    /**
+     * threads &gt; 1 - разбор частями по одному предложению, чтобы границ было как можно больше
+     */
+    private XmlParser parser(Path file, boolean streaming, int threads) {
+        Path cache = dir.resolve("cache-" + streaming + "-" + threads + "-" + file.getFileName());
+        XmlParser parser = new XmlParser(file.toUri().toString(), streaming, cache, OfferProjection.parse(EXTRAS));
+        if (threads > 1) parser.setParallelParsing(threads, 1);
+        return parser;
+    }
+
+    private static void assertSameFeed(FeedData expected, FeedData actual) {
+        assertEquals(expected.getCurrencies(), actual.getCurrencies());
+        assertEquals(expected.getCategories(), actual.getCategories());
+        assertEquals(describe(expected.getOffers()), describe(actual.getOffers()));
+        assertEquals(expected.getRejected(), actual.getRejected());
+    }
+
+    private static List<String> describe(List<OfferData> offers) {
+        return offers.stream().map(offer -> offer + Arrays.toString(offer.getExtras())).toList();
+    }
+
+    private Path write(String name, String xml, Charset charset) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, xml.getBytes(charset));
+        return file;
+    }
+
+    private Path gzip(Path file) throws IOException {
+        Path gz = dir.resolve(file.getFileName() + ".gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz))) {
+            Files.copy(file, out);
+        }
+        return gz;
+    }
+}
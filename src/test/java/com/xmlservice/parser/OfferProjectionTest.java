@@ -0,0 +1,49 @@
+package com.xmlservice.parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OfferProjectionTest {
+
+    @Test
+    void parsesElementsAndAttributes() {
+        OfferProjection projection = OfferProjection.parse(" oldprice, in_stock=@available ,sales-notes ");
+
+        assertEquals(List.of(
+                new OfferProjection.Extra("oldprice", "oldprice", false),
+                new OfferProjection.Extra("in_stock", "available", true),
+                new OfferProjection.Extra("sales_notes", "sales-notes", false)), projection.getExtras());
+        assertEquals(2, projection.elementSlot("sales-notes"));
+        assertEquals(-1, projection.elementSlot("available"));
+        assertTrue(projection.keepsElement("price"));
+    }
+
+    @Test
+    void blankSpecReadsBaseFields() {
+        assertSame(OfferProjection.BASE, OfferProjection.parse(null));
+        assertSame(OfferProjection.BASE, OfferProjection.parse(" , "));
+    }
+
+    @Test
+    void quotesSqlColumns() {
+        OfferProjection projection = OfferProjection.parse("group,order=@order");
+
+        assertEquals(List.of("group", "order"), projection.getColumns());
+        assertEquals(List.of("\"group\"", "\"order\""), projection.getSqlColumns());
+    }
+
+    @Test
+    void rejectsInvalidColumns() {
+        assertThrows(IllegalArgumentException.class, () -> OfferProjection.parse("price"));
+        assertThrows(IllegalArgumentException.class, () -> OfferProjection.parse("row_hash=@hash"));
+        assertThrows(IllegalArgumentException.class, () -> OfferProjection.parse("Bad=url"));
+        assertThrows(IllegalArgumentException.class, () -> OfferProjection.parse("a\"b=url"));
+        assertThrows(IllegalArgumentException.class, () -> OfferProjection.parse("url,url=@url"));
+    }
+}
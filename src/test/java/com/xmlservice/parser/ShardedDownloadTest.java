@@ -0,0 +1,134 @@
+package com.xmlservice.parser;
+
+import com.sun.net.httpserver.HttpServer;
+import com.xmlservice.XmlParser;
+import com.xmlservice.data.OfferData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Разбор частями HTTP фида идет во время загрузки: сервер отдает конец фида только после первого предложения
+ */
+class ShardedDownloadTest {
+
+    private static final String HEAD = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <yml_catalog><shop><!-- %s -->
+            <currencies><currency id="RUR" rate="1"/></currencies>
+            <offers>
+            <offer id="1"><name>One</name><price>1</price></offer>
+            <offer id="2"><name>Two</name><price>2</price></offer>
+            """.formatted("x".repeat(8192));
+    private static final String TAIL = """
+            <offer id="3"><name>Three</name><price>3</price></offer>
+            </offers>
+            </shop></yml_catalog>
+            """;
+    private static final String ETAG = "\"v1\"";
+
+    private final CountDownLatch firstOffer = new CountDownLatch(1);
+    private HttpServer server;
+    private volatile boolean sendEtag = true;
+    private volatile boolean tailAfterFirstOffer;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/feed.xml", exchange -> {
+            try (exchange) {
+                if (sendEtag) {
+                    if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                        exchange.sendResponseHeaders(304, -1);
+                        return;
+                    }
+                    exchange.getResponseHeaders().set("ETag", ETAG);
+                }
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                out.write(HEAD.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                if (tailAfterFirstOffer) {
+                    tailAfterFirstOffer = firstOffer.await(10, TimeUnit.SECONDS);
+                }
+                out.write(TAIL.getBytes(StandardCharsets.UTF_8));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void offersArriveBeforeDownloadEnds() {
+        tailAfterFirstOffer = true;
+        XmlParser parser = parser();
+        List<String> offers = new ArrayList<>();
+
+        assertTrue(parser.isFeedModified());
+        parser.stream(new FeedListener() {
+            @Override
+            public void onOffer(OfferData offer) {
+                offers.add(offer.getVendorCode());
+                firstOffer.countDown();
+            }
+        });
+
+        assertTrue(tailAfterFirstOffer, "feed tail was sent before any offer was parsed");
+        assertEquals(List.of("1", "2", "3"), offers);
+    }
+
+    @Test
+    void downloadedCopyIsCachedAndRevalidated() throws IOException {
+        XmlParser parser = parser();
+        assertEquals(3, parser.parseAll().getOfferCount());
+        assertEquals(HEAD + TAIL, Files.readString(parser.fetch().file()));
+        parser.markSynced();
+
+        XmlParser next = parser();
+        assertFalse(next.isFeedModified());
+        assertEquals(3, next.parseAll().getOfferCount());
+    }
+
+    @Test
+    void feedWithoutValidatorsIsDownloadedBeforeParsing() {
+        sendEtag = false;
+        XmlParser parser = parser();
+        assertEquals(3, parser.parseAll().getOfferCount());
+        parser.markSynced();
+
+        // неизменность без ETag определяется по хэшу скачанного фида
+        assertFalse(parser().isFeedModified());
+    }
+
+    private XmlParser parser() {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/feed.xml";
+        XmlParser parser = new XmlParser(url, true, dir, OfferProjection.BASE);
+        parser.setParallelParsing(2, 1);
+        return parser;
+    }
+}
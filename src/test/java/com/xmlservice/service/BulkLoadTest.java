@@ -0,0 +1,163 @@
+package com.xmlservice.service;
+
+import com.xmlservice.parser.OfferProjection;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Перенос строк начальной загрузки: основные таблицы не пересоздаются, меняются только строки поставщика,
+ * внешние ключи offers проверяются после переноса
+ */
+class BulkLoadTest {
+
+    private static final List<String> ALL_TABLES = List.of("currency", "categories", "offers");
+
+    @Test
+    void mergesSupplierRowsWithoutReplacingLiveTables() {
+        RecordingJdbc jdbc = new RecordingJdbc().updateCount(5);
+        DatabaseService db = jdbc.database("s1");
+
+        bulkLoad(db, ALL_TABLES);
+
+        for (String sql : jdbc.statements()) {
+            String live = sql.replaceAll("\\w+_new_s1", "");
+            assertFalse(live.matches("(?i)(DROP|TRUNCATE)\\b.*\\b(currency|categories|offers)\\b.*"), sql);
+            assertFalse(live.matches("(?i).*\\bRENAME\\b.*"), sql);
+        }
+        assertTrue(jdbc.executed("CREATE UNLOGGED TABLE offers_new_s1 (LIKE offers INCLUDING DEFAULTS)"));
+        assertTrue(jdbc.executed("INSERT INTO currency (supplier_id, code, rate) SELECT supplier_id, code, rate"
+                + " FROM currency_new_s1 ON CONFLICT"));
+        assertTrue(jdbc.executed("SELECT supplier_id, vendorCode, name, category_id, price, currency_code, row_hash,"
+                + " sync_generation, price_base FROM offers_new_s1 ON CONFLICT (supplier_id, vendorCode) DO UPDATE"));
+        assertTrue(jdbc.executed("DROP TABLE IF EXISTS currency_new_s1, categories_new_s1, offers_new_s1"));
+    }
+
+    @Test
+    void defersForeignKeysUntilRowsAreMerged() {
+        RecordingJdbc jdbc = new RecordingJdbc().updateCount(5).returns("pg_constraint",
+                new Object[]{"offers_category_fkey",
+                        "FOREIGN KEY (supplier_id, category_id) REFERENCES categories(supplier_id, category_id)"},
+                new Object[]{"offers_currency_fkey",
+                        "FOREIGN KEY (supplier_id, currency_code) REFERENCES currency(supplier_id, code) NOT VALID"});
+        DatabaseService db = jdbc.database("s1");
+
+        bulkLoad(db, ALL_TABLES);
+
+        int lockReferenced = indexOf(jdbc, "LOCK TABLE currency, categories IN SHARE ROW EXCLUSIVE MODE");
+        int lockOffers = indexOf(jdbc, "LOCK TABLE offers IN ACCESS EXCLUSIVE MODE");
+        int drop = indexOf(jdbc, "ALTER TABLE offers DROP CONSTRAINT \"offers_category_fkey\","
+                + " DROP CONSTRAINT \"offers_currency_fkey\"");
+        int insert = indexOf(jdbc, "INSERT INTO offers");
+        int addCategory = indexOf(jdbc, "ALTER TABLE offers ADD CONSTRAINT \"offers_category_fkey\""
+                + " FOREIGN KEY (supplier_id, category_id) REFERENCES categories(supplier_id, category_id) NOT VALID");
+        int addCurrency = indexOf(jdbc, "ALTER TABLE offers ADD CONSTRAINT \"offers_currency_fkey\""
+                + " FOREIGN KEY (supplier_id, currency_code) REFERENCES currency(supplier_id, code) NOT VALID");
+        int validateCategory = indexOf(jdbc, "ALTER TABLE offers VALIDATE CONSTRAINT \"offers_category_fkey\"");
+        int validateCurrency = indexOf(jdbc, "ALTER TABLE offers VALIDATE CONSTRAINT \"offers_currency_fkey\"");
+
+        assertTrue(lockReferenced < lockOffers && lockOffers < drop && drop < insert, jdbc.statements().toString());
+        assertTrue(insert < addCategory && insert < addCurrency, jdbc.statements().toString());
+        assertTrue(Math.max(addCategory, addCurrency) < Math.min(validateCategory, validateCurrency),
+                jdbc.statements().toString());
+        assertFalse(jdbc.executed("NOT VALID NOT VALID"));
+    }
+
+    @Test
+    void checksCategoriesWithJoinsInsteadOfSubqueries() {
+        RecordingJdbc jdbc = new RecordingJdbc().updateCount(5);
+        DatabaseService db = jdbc.database("s1");
+
+        bulkLoad(db, ALL_TABLES);
+
+        assertTrue(jdbc.executed("ANALYZE currency_new_s1, categories_new_s1, offers_new_s1"));
+        assertTrue(jdbc.executed("LEFT JOIN categories_new_s1 n ON n.category_id = o.category_id"));
+        assertFalse(jdbc.executed("EXISTS (SELECT 1 FROM categories_new_s1"));
+        assertTrue(indexOf(jdbc, "ANALYZE currency_new_s1") < indexOf(jdbc, "INSERT INTO sync_quarantine"));
+    }
+
+    @Test
+    void sweepFollowsMode() {
+        RecordingJdbc off = new RecordingJdbc().updateCount(5);
+        assertEquals(0, bulkLoad(off.database("s1"), ALL_TABLES));
+        assertFalse(off.executed("NOT EXISTS (SELECT 1 FROM offers_new_s1"));
+
+        RecordingJdbc soft = new RecordingJdbc().updateCount(5);
+        DatabaseService softDb = soft.database("s1");
+        softDb.setSweepMode(SweepMode.SOFT);
+        assertEquals(5, bulkLoad(softDb, ALL_TABLES));
+        assertTrue(soft.executed("UPDATE offers o SET deleted_at = now() WHERE o.deleted_at IS NULL"
+                + " AND o.supplier_id = ? AND NOT EXISTS (SELECT 1 FROM offers_new_s1 n"));
+
+        RecordingJdbc delete = new RecordingJdbc().updateCount(5);
+        DatabaseService deleteDb = delete.database("s1");
+        deleteDb.setSweepMode(SweepMode.DELETE);
+        assertEquals(5, bulkLoad(deleteDb, ALL_TABLES));
+        assertTrue(delete.executed("DELETE FROM offers o WHERE o.supplier_id = ?"
+                + " AND NOT EXISTS (SELECT 1 FROM offers_new_s1 n"));
+    }
+
+    @Test
+    void feedWithoutOffersDoesNotSweep() {
+        RecordingJdbc jdbc = new RecordingJdbc().updateCount(5);
+        DatabaseService db = jdbc.database("s1");
+        db.setSweepMode(SweepMode.DELETE);
+
+        assertEquals(0, bulkLoad(db, List.of("currency", "categories")));
+        assertFalse(jdbc.executed("DELETE FROM offers o"));
+    }
+
+    @Test
+    void quotesExtraColumns() {
+        RecordingJdbc jdbc = new RecordingJdbc().updateCount(5);
+        DatabaseService db = jdbc.database("s1");
+        db.setOfferProjection(OfferProjection.parse("group,order=@order"));
+
+        bulkLoad(db, ALL_TABLES);
+
+        assertTrue(jdbc.executed("ALTER TABLE offers ADD COLUMN IF NOT EXISTS \"group\" TEXT"));
+        assertTrue(jdbc.executed("price_base, \"group\", \"order\") SELECT"));
+        assertTrue(jdbc.executed("\"group\" = EXCLUDED.\"group\", \"order\" = EXCLUDED.\"order\""));
+    }
+
+    @Test
+    void stagingTableNamesFitIdentifierLength() {
+        DatabaseService db = new RecordingJdbc().database("Supplier-" + "x".repeat(80));
+
+        String table = db.bulkTable("categories");
+        assertTrue(table.startsWith("categories_new_supplier_x"), table);
+        assertEquals(63, table.length());
+        assertFalse(table.equals(new RecordingJdbc().database("Supplier-" + "x".repeat(81)).bulkTable("categories")));
+    }
+
+    @Test
+    void finishRequiresStartedLoad() {
+        DatabaseService db = new RecordingJdbc().database("s1");
+
+        assertThrows(IllegalStateException.class, () -> db.finishBulkLoad(ALL_TABLES));
+    }
+
+    private static int indexOf(RecordingJdbc jdbc, String sqlFragment) {
+        List<String> statements = jdbc.statements();
+        for (int i = 0; i < statements.size(); i++) {
+            if (statements.get(i).contains(sqlFragment)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Not executed: " + sqlFragment);
+    }
+
+    private static long bulkLoad(DatabaseService db, List<String> tables) {
+        db.beginBulkLoad();
+        try {
+            return db.finishBulkLoad(tables);
+        } finally {
+            db.endBulkLoad();
+        }
+    }
+}
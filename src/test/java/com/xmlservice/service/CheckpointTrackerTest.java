@@ -0,0 +1,103 @@
+package com.xmlservice.service;
+
+import com.xmlservice.data.OfferData;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Сохраняется конец самой длинной непрерывной последовательности зафиксированных порций
+ */
+class CheckpointTrackerTest {
+
+    private final CheckpointDatabase db = new CheckpointDatabase();
+
+    @Test
+    void savesEachChunkCommittedInOrder() {
+        CheckpointTracker tracker = new CheckpointTracker(db, "v1", 0, 7L);
+        long first = chunk(tracker, 3);
+        long second = chunk(tracker, 2);
+
+        tracker.committed(first);
+        tracker.committed(second);
+
+        assertEquals(List.of(new SyncCheckpoint("v1", 3, 7L), new SyncCheckpoint("v1", 5, 7L)), db.saved);
+    }
+
+    @Test
+    void waitsForEarlierChunks() {
+        CheckpointTracker tracker = new CheckpointTracker(db, "v1", 0, null);
+        long first = chunk(tracker, 2);
+        long second = chunk(tracker, 2);
+        long third = chunk(tracker, 2);
+
+        tracker.committed(third);
+        tracker.committed(second);
+        assertTrue(db.saved.isEmpty());
+
+        tracker.committed(first);
+        assertEquals(List.of(new SyncCheckpoint("v1", 6, null)), db.saved);
+    }
+
+    @Test
+    void stopsAtFirstGap() {
+        CheckpointTracker tracker = new CheckpointTracker(db, "v1", 0, null);
+        long first = chunk(tracker, 1);
+        long second = chunk(tracker, 1);
+        long third = chunk(tracker, 1);
+
+        tracker.committed(first);
+        tracker.committed(third);
+        assertEquals(List.of(new SyncCheckpoint("v1", 1, null)), db.saved);
+
+        tracker.committed(second);
+        assertEquals(new SyncCheckpoint("v1", 3, null), db.saved.get(db.saved.size() - 1));
+    }
+
+    @Test
+    void skipsOffersWrittenBeforeResume() {
+        CheckpointTracker tracker = new CheckpointTracker(db, "v1", 2, null);
+
+        assertTrue(tracker.skip(offer("a")));
+        assertTrue(tracker.skip(offer("b")));
+        assertFalse(tracker.skip(offer("c")));
+        assertEquals(2, tracker.getResumedCount());
+
+        // позиция считается от начала фида, вместе с пропущенными предложениями
+        tracker.committed(tracker.chunk());
+        assertEquals(List.of(new SyncCheckpoint("v1", 3, null)), db.saved);
+    }
+
+    /**
+     * Порция из count следующих предложений
+     */
+    private static long chunk(CheckpointTracker tracker, int count) {
+        for (int i = 0; i < count; i++) {
+            assertFalse(tracker.skip(offer("o" + i)));
+        }
+        return tracker.chunk();
+    }
+
+    private static OfferData offer(String vendorCode) {
+        return new OfferData(vendorCode, vendorCode, null, null, null);
+    }
+
+    private static final class CheckpointDatabase extends DatabaseService {
+
+        private final List<SyncCheckpoint> saved = new ArrayList<>();
+
+        CheckpointDatabase() {
+            super(new RecordingJdbc().pool(), 1_000, "s1");
+        }
+
+        @Override
+        public void saveCheckpoint(SyncCheckpoint checkpoint) {
+            saved.add(checkpoint);
+        }
+    }
+}
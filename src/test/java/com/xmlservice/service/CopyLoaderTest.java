@@ -0,0 +1,48 @@
+package com.xmlservice.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Поля COPY ... (FORMAT csv): NULL - пустое поле без кавычек, строка - всегда в кавычках
+ */
+class CopyLoaderTest {
+
+    @Test
+    void nullIsEmptyFieldAndEmptyStringIsQuoted() throws IOException {
+        assertEquals("", text(null));
+        assertEquals("\"\"", text(""));
+    }
+
+    @Test
+    void quotesAreDoubled() throws IOException {
+        assertEquals("\"say \"\"hi\"\"\"", text("say \"hi\""));
+        assertEquals("\"\"\"\"", text("\""));
+    }
+
+    @Test
+    void separatorsStayInsideQuotes() throws IOException {
+        assertEquals("\"a,b\"", text("a,b"));
+        assertEquals("\"line1\nline2\r\"", text("line1\nline2\r"));
+        assertEquals("\"\\N\"", text("\\N"));
+    }
+
+    @Test
+    void numbersArePlain() throws IOException {
+        StringWriter out = new StringWriter();
+        CopyLoader.writeNumber(out, new BigDecimal("1E+3"));
+        CopyLoader.writeNumber(out, null);
+        assertEquals("1000", out.toString());
+    }
+
+    private static String text(String value) throws IOException {
+        StringWriter out = new StringWriter();
+        CopyLoader.writeText(out, value);
+        return out.toString();
+    }
+}
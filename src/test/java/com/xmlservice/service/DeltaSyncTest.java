@@ -0,0 +1,87 @@
+package com.xmlservice.service;
+
+import com.xmlservice.data.OfferData;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaSyncTest {
+
+    @Test
+    void fingerprintIgnoresPriceScaleAndVendorCode() {
+        OfferData offer = offer("a", "Name", "10.5");
+
+        assertEquals(OfferFingerprint.of(offer), OfferFingerprint.of(offer("b", "Name", "10.50")));
+        assertNotEquals(OfferFingerprint.of(offer), OfferFingerprint.of(offer("a", "Name", "10.51")));
+        assertNotEquals(OfferFingerprint.of(offer), OfferFingerprint.of(offer("a", "Name ", "10.5")));
+        assertNotEquals(OfferFingerprint.of(offer), OfferFingerprint.of(offer("a", "Name", null)));
+    }
+
+    @Test
+    void fingerprintSeparatesFieldsAndNulls() {
+        OfferData left = new OfferData("a", "ab", "c", null, null);
+        OfferData right = new OfferData("a", "a", "bc", null, null);
+        OfferData empty = new OfferData("a", "ab", "", null, null);
+
+        assertNotEquals(OfferFingerprint.of(left), OfferFingerprint.of(right));
+        assertNotEquals(OfferFingerprint.of(new OfferData("a", "ab", null, null, null)), OfferFingerprint.of(empty));
+    }
+
+    @Test
+    void fingerprintCoversExtras() {
+        OfferData base = offer("a", "Name", "1");
+        OfferData withExtras = offer("a", "Name", "1");
+        withExtras.setExtras(new String[]{"x", null});
+
+        OfferData otherExtras = offer("a", "Name", "1");
+        otherExtras.setExtras(new String[]{null, "x"});
+
+        assertNotEquals(OfferFingerprint.of(base), OfferFingerprint.of(withExtras));
+        assertNotEquals(OfferFingerprint.of(withExtras), OfferFingerprint.of(otherExtras));
+    }
+
+    @Test
+    void skipsUnchangedOffersOnlyAfterCommit() {
+        RecordingJdbc jdbc = new RecordingJdbc();
+        DatabaseService db = jdbc.database("s1");
+        db.setDeltaSync(true);
+        List<OfferData> offers = List.of(offer("a", "A", "1.00"), offer("b", "B", null));
+
+        jdbc.failBatches(true);
+        assertThrows(RuntimeException.class, () -> db.upsertOffers(offers));
+        assertTrue(db.getDeltaStats().isEmpty(), db.getDeltaStats().toString());
+
+        jdbc.failBatches(false);
+        db.upsertOffers(offers);
+        assertEquals(2, db.getDeltaStats().getInserted());
+
+        db.getDeltaStats().reset();
+        db.upsertOffers(List.of(offer("a", "A", "1.0"), offer("b", "B2", null)));
+        assertEquals(1, db.getDeltaStats().getUnchanged());
+        assertEquals(1, db.getDeltaStats().getUpdated());
+    }
+
+    @Test
+    void resetCachesReloadsFingerprints() {
+        RecordingJdbc jdbc = new RecordingJdbc();
+        DatabaseService db = jdbc.database("s1");
+        db.setDeltaSync(true);
+        db.upsertOffers(List.of(offer("a", "A", "1")));
+
+        // строка удалена из БД вне синхронизации: после сброса отпечатки читаются заново
+        db.resetCaches();
+        db.getDeltaStats().reset();
+        db.upsertOffers(List.of(offer("a", "A", "1")));
+        assertEquals(1, db.getDeltaStats().getInserted());
+    }
+
+    private static OfferData offer(String vendorCode, String name, String price) {
+        return new OfferData(vendorCode, name, null, price != null ? new BigDecimal(price) : null, null);
+    }
+}
@@ -0,0 +1,43 @@
+package com.xmlservice.service;
+
+import com.xmlservice.config.Config;
+import com.xmlservice.config.FeedSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FeedSyncServiceTest {
+
+    @Test
+    void shippedPoolCoversShippedFeeds() {
+        try (ConnectionPool pool = pool(Config.getDbPoolSize())) {
+            DatabaseService db = new DatabaseService(pool, Config.getDbBatchSize());
+            FeedSyncService sync = new FeedSyncService(db, Config.getFeeds(), Config.getFeedParallelism(),
+                    Config.getPipelineWriters(), Config.getPipelineQueueCapacity(), feed -> null);
+
+            assertDoesNotThrow(() -> sync.checkPoolCapacity(false));
+            assertDoesNotThrow(() -> sync.checkPoolCapacity(true));
+            db.setWriteParallelism(Config.getDbWriteParallelism());
+            assertDoesNotThrow(() -> sync.checkPoolCapacity(false));
+        }
+    }
+
+    @Test
+    void parallelWritersNeedConnectionBesideFeed() {
+        try (ConnectionPool pool = pool(4)) {
+            DatabaseService db = new DatabaseService(pool, 1_000);
+            db.setWriteParallelism(4);
+            FeedSyncService sync = new FeedSyncService(db, List.of(new FeedSource("a", "file:a.xml")), 4, 4, 8,
+                    feed -> null);
+
+            assertThrows(IllegalArgumentException.class, () -> sync.checkPoolCapacity(false));
+        }
+    }
+
+    private static ConnectionPool pool(int size) {
+        return new ConnectionPool("jdbc:none", null, null, size, 60_000, 1, 1_000);
+    }
+}
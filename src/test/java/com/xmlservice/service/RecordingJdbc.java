@@ -0,0 +1,180 @@
+package com.xmlservice.service;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JDBC соединение без сервера: запоминает текст выполненных запросов и возвращает заданные строки.
+ * Позволяет проверить SQL, который строит DatabaseService, без PostgreSQL.
+ */
+final class RecordingJdbc {
+
+    private final List<String> statements = new ArrayList<>();
+    private final Map<String, List<Object[]>> results = new LinkedHashMap<>();
+    private int updateCount;
+    private boolean failBatches;
+    private int commits;
+    private int rollbacks;
+    private boolean autoCommit = true;
+
+    /**
+     * Запросы, текст которых содержит sqlFragment, возвращают rows
+     */
+    RecordingJdbc returns(String sqlFragment, Object[]... rows) {
+        results.put(sqlFragment, List.of(rows));
+        return this;
+    }
+
+    /**
+     * Сколько строк сообщает executeUpdate
+     */
+    RecordingJdbc updateCount(int updateCount) {
+        this.updateCount = updateCount;
+        return this;
+    }
+
+    /**
+     * executeBatch завершается ошибкой, пока флаг установлен
+     */
+    void failBatches(boolean failBatches) {
+        this.failBatches = failBatches;
+    }
+
+    /**
+     * Выполненные запросы с пробелами, сжатыми до одного
+     */
+    synchronized List<String> statements() {
+        return List.copyOf(statements);
+    }
+
+    synchronized void clear() {
+        statements.clear();
+    }
+
+    synchronized int commits() {
+        return commits;
+    }
+
+    synchronized int rollbacks() {
+        return rollbacks;
+    }
+
+    boolean executed(String sqlFragment) {
+        return statements().stream().anyMatch(sql -> sql.contains(sqlFragment));
+    }
+
+    ConnectionPool pool() {
+        Connection connection = connection();
+        return new ConnectionPool("jdbc:recording", null, null, 1, 60_000, 1, 1_000) {
+            @Override
+            public Connection getConnection() {
+                return connection;
+            }
+        };
+    }
+
+    DatabaseService database(String supplierId) {
+        return new DatabaseService(pool(), 1_000, supplierId);
+    }
+
+    private Connection connection() {
+        return (Connection) Proxy.newProxyInstance(RecordingJdbc.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "prepareStatement" -> statement(PreparedStatement.class, record((String) args[0]));
+                    case "createStatement" -> statement(Statement.class, null);
+                    case "getMetaData" -> Proxy.newProxyInstance(RecordingJdbc.class.getClassLoader(),
+                            new Class<?>[]{DatabaseMetaData.class}, (p, m, a) -> m.getReturnType() == ResultSet.class
+                                    ? resultSet(List.of()) : defaultValue(m.getReturnType()));
+                    case "getAutoCommit" -> autoCommit;
+                    case "setAutoCommit" -> {
+                        autoCommit = (Boolean) args[0];
+                        yield null;
+                    }
+                    case "commit" -> {
+                        synchronized (this) {
+                            commits++;
+                        }
+                        yield null;
+                    }
+                    case "rollback" -> {
+                        synchronized (this) {
+                            rollbacks++;
+                        }
+                        yield null;
+                    }
+                    default -> defaultValue(method.getReturnType());
+                });
+    }
+
+    /**
+     * @param prepared текст подготовленного запроса, null - запрос передается в execute*
+     */
+    private Object statement(Class<? extends Statement> type, String prepared) {
+        return Proxy.newProxyInstance(RecordingJdbc.class.getClassLoader(),
+                new Class<?>[]{type}, (proxy, method, args) -> {
+                    String sql = args != null && args.length > 0 && args[0] instanceof String text
+                            && method.getName().startsWith("execute") ? record(text) : prepared;
+                    return switch (method.getName()) {
+                        case "executeQuery" -> resultSet(rowsFor(sql));
+                        case "executeUpdate" -> updateCount;
+                        case "executeBatch" -> {
+                            if (failBatches) throw new SQLException("Batch failed");
+                            yield new int[0];
+                        }
+                        default -> defaultValue(method.getReturnType());
+                    };
+                });
+    }
+
+    private synchronized String record(String sql) {
+        String normalized = sql.strip().replaceAll("\\s+", " ");
+        statements.add(normalized);
+        return normalized;
+    }
+
+    private List<Object[]> rowsFor(String sql) {
+        for (Map.Entry<String, List<Object[]>> entry : results.entrySet()) {
+            if (sql != null && sql.contains(entry.getKey())) return entry.getValue();
+        }
+        return List.of();
+    }
+
+    private static ResultSet resultSet(List<Object[]> rows) {
+        int[] row = {-1};
+        Object[] last = {null};
+        return (ResultSet) Proxy.newProxyInstance(RecordingJdbc.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("next")) return ++row[0] < rows.size();
+                    if (method.getName().equals("wasNull")) return last[0] == null;
+                    if (method.getName().startsWith("get") && args != null && args.length == 1
+                            && args[0] instanceof Integer column) {
+                        last[0] = rows.get(row[0])[column - 1];
+                        if (last[0] == null) return defaultValue(method.getReturnType());
+                        return switch (method.getName()) {
+                            case "getString" -> last[0].toString();
+                            case "getLong" -> ((Number) last[0]).longValue();
+                            case "getInt" -> ((Number) last[0]).intValue();
+                            default -> last[0];
+                        };
+                    }
+                    return defaultValue(method.getReturnType());
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0.0;
+        return null;
+    }
+}
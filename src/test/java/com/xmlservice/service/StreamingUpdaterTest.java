@@ -0,0 +1,70 @@
+package com.xmlservice.service;
+
+import com.xmlservice.data.OfferData;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingUpdaterTest {
+
+    @Test
+    void chunksShareOneTransaction() {
+        RecordingJdbc jdbc = new RecordingJdbc();
+        DatabaseService db = new DatabaseService(jdbc.pool(), 2, "s1");
+        StreamingUpdater updater = new StreamingUpdater(db);
+
+        db.inSingleTransaction(() -> {
+            for (int i = 0; i < 5; i++) {
+                updater.onOffer(offer("o" + i));
+            }
+            updater.finish();
+        });
+
+        assertEquals(5, updater.getOfferCount());
+        assertEquals(1, jdbc.commits());
+        assertEquals(0, jdbc.rollbacks());
+    }
+
+    @Test
+    void failedChunkRollsBackEarlierChunks() {
+        RecordingJdbc jdbc = new RecordingJdbc();
+        DatabaseService db = new DatabaseService(jdbc.pool(), 2, "s1");
+        db.setDeltaSync(true);
+        StreamingUpdater updater = new StreamingUpdater(db);
+
+        assertThrows(RuntimeException.class, () -> db.inSingleTransaction(() -> {
+            updater.onOffer(offer("a"));
+            updater.onOffer(offer("b"));
+            jdbc.failBatches(true);
+            updater.onOffer(offer("c"));
+            updater.onOffer(offer("d"));
+        }));
+
+        assertEquals(0, jdbc.commits());
+        assertEquals(1, jdbc.rollbacks());
+        // отпечатки первой порции не зафиксированы и в кэш не попали
+        assertTrue(db.getDeltaStats().isEmpty(), db.getDeltaStats().toString());
+    }
+
+    @Test
+    void chunksOutsideSharedTransactionCommitSeparately() {
+        RecordingJdbc jdbc = new RecordingJdbc();
+        DatabaseService db = new DatabaseService(jdbc.pool(), 2, "s1");
+        StreamingUpdater updater = new StreamingUpdater(db);
+
+        for (int i = 0; i < 5; i++) {
+            updater.onOffer(offer("o" + i));
+        }
+        updater.finish();
+
+        assertEquals(3, jdbc.commits());
+    }
+
+    private static OfferData offer(String vendorCode) {
+        return new OfferData(vendorCode, "Name", null, BigDecimal.ONE, null);
+    }
+}
@@ -0,0 +1,95 @@
+package com.xmlservice.service;
+
+import com.xmlservice.data.OfferData;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SweepModeTest {
+
+    @Test
+    void parsesModesCaseInsensitively() {
+        assertEquals(SweepMode.OFF, SweepMode.parse(null));
+        assertEquals(SweepMode.OFF, SweepMode.parse(" "));
+        assertEquals(SweepMode.SOFT, SweepMode.parse(" Soft "));
+        assertEquals(SweepMode.DELETE, SweepMode.parse("delete"));
+        assertThrows(IllegalArgumentException.class, () -> SweepMode.parse("purge"));
+    }
+
+    @Test
+    void offKeepsMissingOffers() {
+        RecordingJdbc jdbc = staleOffer();
+        DatabaseService db = jdbc.database("s1");
+
+        assertEquals(0, sync(db));
+        assertFalse(jdbc.executed("nextval"));
+        assertFalse(jdbc.executed("deleted_at = now()"));
+        assertFalse(jdbc.executed("DELETE FROM offers"));
+    }
+
+    @Test
+    void softMarksMissingOffers() {
+        RecordingJdbc jdbc = staleOffer();
+        DatabaseService db = jdbc.database("s1");
+        db.setSweepMode(SweepMode.SOFT);
+
+        assertEquals(1, sync(db));
+        assertTrue(jdbc.executed("SELECT vendorCode FROM offers WHERE supplier_id = ?"
+                + " AND (sync_generation IS NULL OR sync_generation < ?) AND deleted_at IS NULL"));
+        assertTrue(jdbc.executed("UPDATE offers SET deleted_at = now() WHERE deleted_at IS NULL"
+                + " AND supplier_id = ? AND vendorCode = ANY (?)"));
+        assertFalse(jdbc.executed("DELETE FROM offers"));
+    }
+
+    @Test
+    void deleteRemovesMissingOffers() {
+        RecordingJdbc jdbc = staleOffer();
+        DatabaseService db = jdbc.database("s1");
+        db.setSweepMode(SweepMode.DELETE);
+
+        assertEquals(1, sync(db));
+        assertTrue(jdbc.executed("DELETE FROM offers WHERE supplier_id = ? AND vendorCode = ANY (?)"));
+        assertFalse(jdbc.executed("deleted_at = now()"));
+    }
+
+    @Test
+    void emptyFeedDoesNotSweep() {
+        RecordingJdbc jdbc = staleOffer();
+        DatabaseService db = jdbc.database("s1");
+        db.setSweepMode(SweepMode.DELETE);
+
+        db.beginOfferGeneration();
+        try {
+            assertEquals(0, db.sweepStaleOffers());
+        } finally {
+            db.endOfferGeneration();
+        }
+        assertFalse(jdbc.executed("DELETE FROM offers"));
+    }
+
+    /**
+     * В БД есть предложение "gone" прошлого поколения, которого нет в фиде
+     */
+    private static RecordingJdbc staleOffer() {
+        return new RecordingJdbc()
+                .returns("nextval", new Object[]{7L})
+                .returns("SELECT vendorCode FROM offers", new Object[]{"gone"})
+                .updateCount(1);
+    }
+
+    private static long sync(DatabaseService db) {
+        db.beginOfferGeneration();
+        try {
+            db.upsertOffers(List.of(new OfferData("kept", "Kept", null, new BigDecimal("10"), null)));
+            return db.sweepStaleOffers();
+        } finally {
+            db.endOfferGeneration();
+        }
+    }
+}